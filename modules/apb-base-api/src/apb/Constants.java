@@ -36,6 +36,16 @@ public interface Constants
     String PROJECT_PATH_EXCLUDE_PROPERTY = "project.path.exclude";
     String REPOSITORY_PROPERTY = "repository";
     String DEFINITIONS_CACHE_PROPERTY = "definitions.cache";
+    String ARTIFACTS_PREFETCH_PROPERTY = "artifacts.prefetch";
+    String ARTIFACTS_CONNECTIONS_PROPERTY = "artifacts.connections";
+    String ARTIFACTS_HOST_CONNECTIONS_PROPERTY = "artifacts.host.connections";
+    String ARTIFACTS_SHARED_PROPERTY = "artifacts.shared";
+    String ARTIFACTS_STORE_PROPERTY = "artifacts.store";
+    String ARTIFACTS_OFFLINE_PROPERTY = "artifacts.offline";
+    String ARTIFACTS_TIMEOUT_PROPERTY = "artifacts.timeout";
+    String TESTS_ALL_PROPERTY = "tests.all";
+    String JAVA_CDS_PROPERTY = "java.cds";
+    String JAVA_CDS_STORE_PROPERTY = "java.cds.store";
 
     /**
      * Environment variables
@@ -46,22 +56,31 @@ public interface Constants
      * Default directories
      */
     String APB_DIR = ".apb";
+    String ARTIFACTS_DIR = "artifacts";
+    String CDS_DIR = "cds";
+    String DOWNLOADS_DIR = "downloads";
 
     /**
      * Default file names
      */
     String APB_PROPERTIES = "apb.properties";
     String DEFINITIONS_CACHE = "definitions.cache";
+    String RESOLUTION_RECORD = "resolution.properties";
+    String RESOLUTION_GRAPHS = "graphs.properties";
 
     /**
      * Default extensions
      */
     String JAVA_EXT = ".java";
+    String SHA1_EXT = ".sha1";
 
     /**
      * Default values
      */
     String DEFAULT_REPOSITORY = "http://mirrors.ibiblio.org/pub/mirrors/maven2";
+    int    DEFAULT_ARTIFACTS_CONNECTIONS = 8;
+    int    DEFAULT_ARTIFACTS_HOST_CONNECTIONS = 4;
+    int    DEFAULT_ARTIFACTS_TIMEOUT = 30;
 
     /**
      * Misc constants
@@ -44,9 +44,11 @@ class ApbOptions
 
     private final Option<String> defineProperty;
 
+    private final Option<Boolean> allTests;
     private final Option<Boolean> forceBuild;
     private final Option<Boolean> noFailOnError;
     private final Option<Boolean> nonRecursive;
+    private final Option<Boolean> offline;
     private final Option<Boolean> quiet;
     private final Option<Boolean> showStackTrace;
     private final Option<Boolean> track;
@@ -63,6 +65,8 @@ class ApbOptions
         noFailOnError = addBooleanOption('c', "continue", CONTINUE_AFTER_ERROR);
         forceBuild = addBooleanOption('f', "force-build", FORCE_BUILD);
         nonRecursive = addBooleanOption('n', "non-recursive", NON_RECURSIVE);
+        offline = addBooleanOption('o', "offline", OFFLINE);
+        allTests = addBooleanOption('a', "all-tests", ALL_TESTS);
         defineProperty = addOption('D', "define", DEFINE_PROPERTY, "<name>=<value>");
         defineProperty.setCanRepeat(true);
         track = addBooleanOption('t', "track-execution", TRACK_EXECUTION);
@@ -106,6 +110,14 @@ class ApbOptions
 
         environment.setFailOnError(!noFailOnError.getValue());
         environment.setForceBuild(forceBuild.getValue());
+
+        if (offline.getValue()) {
+            environment.putProperty(Constants.ARTIFACTS_OFFLINE_PROPERTY, "true");
+        }
+
+        if (allTests.getValue()) {
+            environment.putProperty(Constants.TESTS_ALL_PROPERTY, "true");
+        }
     }
 
     public Map<String, String> definedProperties()
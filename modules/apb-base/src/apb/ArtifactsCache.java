@@ -18,16 +18,58 @@
 
 package apb;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import apb.metadata.UpdatePolicy;
+
+import apb.tasks.DownloadTask;
+
+import apb.utils.FileUtils;
+import apb.utils.ParallelUtils;
+import apb.utils.StreamUtils;
+import apb.utils.StringUtils;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import static apb.Constants.ARTIFACTS_CONNECTIONS_PROPERTY;
+import static apb.Constants.ARTIFACTS_DIR;
+import static apb.Constants.ARTIFACTS_HOST_CONNECTIONS_PROPERTY;
+import static apb.Constants.ARTIFACTS_OFFLINE_PROPERTY;
+import static apb.Constants.ARTIFACTS_SHARED_PROPERTY;
+import static apb.Constants.ARTIFACTS_STORE_PROPERTY;
+import static apb.Constants.ARTIFACTS_TIMEOUT_PROPERTY;
+import static apb.Constants.DEFAULT_ARTIFACTS_CONNECTIONS;
+import static apb.Constants.DEFAULT_ARTIFACTS_HOST_CONNECTIONS;
+import static apb.Constants.DEFAULT_ARTIFACTS_TIMEOUT;
 import static apb.Constants.DEFAULT_REPOSITORY;
 import static apb.Constants.REPOSITORY_PROPERTY;
+import static apb.Constants.RESOLUTION_RECORD;
+import static apb.Constants.SHA1_EXT;
+import static apb.Constants.UTF8;
 
 import static apb.tasks.CoreTasks.download;
+
+import static apb.utils.FileUtils.validateDirectory;
 //
 // User: emilio
 // Date: Jul 6, 2009
@@ -41,12 +83,35 @@ class ArtifactsCache
     private final Environment       env;
     private final Map<String, File> map;
 
+    /**
+     * The connections available for each host
+     */
+    private final Map<String, Semaphore> hostConnections;
+
+    /**
+     * Locks to avoid fetching the same artifact into a target or into the store concurrently
+     */
+    private final Map<String, Object> locks;
+
+    /**
+     * The repositories that could not be reached during this build
+     */
+    private final Set<String> unreachable;
+
+    /**
+     * Where each artifact was resolved to in previous builds
+     */
+    @Nullable private ResolutionRecord record;
+
     //~ Constructors .........................................................................................
 
     public ArtifactsCache(Environment environment)
     {
         env = environment;
-        map = new HashMap<String, File>();
+        map = new ConcurrentHashMap<String, File>();
+        hostConnections = new HashMap<String, Semaphore>();
+        locks = new HashMap<String, Object>();
+        unreachable = new HashSet<String>();
     }
 
     //~ Methods ..............................................................................................
@@ -57,17 +122,398 @@ class ArtifactsCache
         File         result = map.get(path);
 
         if (result == null) {
-            String repo = findRepository(group);
+            // Modules sharing a library are resolved concurrently, only one of them fetches it to the target
+            synchronized (lockFor(target)) {
+                result = map.get(path);
+
+                if (result == null) {
+                    resolve(group, relativeUrl, target);
+                    map.put(path, target);
+                    result = target;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Fetch a set of artifacts concurrently, using a bounded number of connections.
+     * Failures are only logged, they will be reported again when the artifact is really needed.
+     * @param artifacts The jobs that get each artifact
+     */
+    void prefetch(@NotNull List<Callable<File>> artifacts)
+    {
+        if (artifacts.isEmpty()) {
+            return;
+        }
+
+        final List<Callable<File>> jobs = new ArrayList<Callable<File>>(artifacts.size());
+
+        for (final Callable<File> artifact : artifacts) {
+            jobs.add(new Callable<File>() {
+                    public File call()
+                        throws Exception
+                    {
+                        try {
+                            return artifact.call();
+                        }
+                        catch (BuildException e) {
+                            env.logWarning("%s\n", e.getMessage());
+                            return null;
+                        }
+                    }
+                });
+        }
+
+        env.logVerbose("Resolving %d artifacts\n", jobs.size());
+        ParallelUtils.run(intProperty(ARTIFACTS_CONNECTIONS_PROPERTY, DEFAULT_ARTIFACTS_CONNECTIONS), jobs);
+    }
+
+    /**
+     * Fetch an artifact to the target, through the store if it is enabled
+     */
+    private void resolve(@NotNull String group, @NotNull String relativeUrl, @NotNull File target)
+    {
+        final String repo = findRepository(group);
+        final File   store = storeDir();
+        final File   stored =
+            store == null || relativeUrl.contains(SNAPSHOT)
+            ? null : new File(store, relativeUrl.replace('/', File.separatorChar));
+
+        if (!isOffline(repo)) {
+            if (stored == null) {
+                downloadArtifact(repo, relativeUrl, target, null, false);
+            }
+            else {
+                synchronized (lockFor(stored)) {
+                    if (!stored.exists()) {
+                        fetchToStore(repo, relativeUrl, stored);
+                    }
+                }
+            }
+        }
+
+        // The repository may also have become unreachable while downloading
+        if (isOffline(repo)) {
+            resolveOffline(relativeUrl, stored, target);
+        }
+        else if (stored != null && stored.exists()) {
+            linkToStore(stored, target);
+        }
+
+        final File resolved = stored != null && stored.exists() ? stored : target;
+
+        if (resolved.exists()) {
+            getRecord().put(relativeUrl, resolved.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Resolve an artifact without accessing the repository.
+     * The artifact is taken from the store, the target itself or the place it was resolved to
+     * in a previous build. Fails if none of them is available.
+     */
+    private void resolveOffline(@NotNull String relativeUrl, @Nullable File stored, @NotNull File target)
+    {
+        if (stored != null && stored.exists()) {
+            linkToStore(stored, target);
+        }
+        else if (!target.exists()) {
+            final String previous = getRecord().get(relativeUrl);
+
+            if (previous != null && new File(previous).exists()) {
+                linkToStore(new File(previous), target);
+            }
+            else {
+                env.handle(Messages.NOT_AVAILABLE_OFFLINE(relativeUrl));
+            }
+        }
+    }
+
+    /**
+     * Whether the repository must not be accessed,
+     * because working offline or because it was found to be unreachable
+     */
+    private boolean isOffline(@NotNull String repo)
+    {
+        if (env.getBooleanProperty(ARTIFACTS_OFFLINE_PROPERTY, false)) {
+            return true;
+        }
+
+        synchronized (unreachable) {
+            return unreachable.contains(repo);
+        }
+    }
+
+    private void markUnreachable(@NotNull String repo)
+    {
+        synchronized (unreachable) {
+            if (unreachable.add(repo)) {
+                env.logWarning("%s", Messages.REPOSITORY_UNREACHABLE(repo));
+            }
+        }
+    }
+
+    @NotNull private synchronized ResolutionRecord getRecord()
+    {
+        if (record == null) {
+            record = new ResolutionRecord(new File(artifactsDir(), RESOLUTION_RECORD));
+        }
+
+        return record;
+    }
+
+    /**
+     * The shared artifacts store, or null if it is disabled
+     */
+    @Nullable private File storeDir()
+    {
+        return env.getBooleanProperty(ARTIFACTS_SHARED_PROPERTY, false) ? artifactsDir() : null;
+    }
+
+    /**
+     * The directory where artifacts and resolution records are kept
+     */
+    @NotNull File artifactsDir()
+    {
+        final String dir = env.getProperty(ARTIFACTS_STORE_PROPERTY, "");
+        return dir.isEmpty() ? new File(FileUtils.getApbDir(), ARTIFACTS_DIR) : new File(dir);
+    }
+
+    @NotNull private DownloadTask downloadArtifact(@NotNull String repo, @NotNull String relativeUrl,
+                                                   @NotNull File target, @Nullable UpdatePolicy policy,
+                                                   boolean ignoreMissing)
+    {
+        final Semaphore connections = connectionsFor(repo);
+
+        connections.acquireUninterruptibly();
+
+        try {
+            final DownloadTask task = download(repo + "/" + relativeUrl).to(target);
+            task.withTimeout(intProperty(ARTIFACTS_TIMEOUT_PROPERTY, DEFAULT_ARTIFACTS_TIMEOUT) * 1000);
+            task.ignoringMissing(ignoreMissing);
+
+            if (policy != null) {
+                task.withUpdatePolicy(policy);
+            }
+
+            try {
+                task.execute();
+            }
+            catch (BuildException e) {
+                // The artifact will be resolved from the local cache
+                if (!task.isUnreachable()) {
+                    throw e;
+                }
+            }
+
+            if (task.isUnreachable()) {
+                markUnreachable(repo);
+            }
+
+            return task;
+        }
+        finally {
+            connections.release();
+        }
+    }
+
+    /**
+     * Download an artifact into the store, verifying it against the repository checksum.
+     * The artifact is downloaded to a temporary file and then renamed,
+     * so other processes sharing the store never see a partial file.
+     */
+    private void fetchToStore(@NotNull String repo, @NotNull String relativeUrl, @NotNull File stored)
+    {
+        File         tmp = null;
+        DownloadTask task = null;
+
+        try {
+            validateDirectory(stored.getParentFile());
+            tmp = File.createTempFile(stored.getName(), PART_EXT, stored.getParentFile());
+            task = downloadArtifact(repo, relativeUrl, tmp, UpdatePolicy.FORCE, false);
+
+            // The download failed, but it was not considered an error
+            if (tmp.length() == 0) {
+                return;
+            }
+
+            final String actual = digest(tmp);
+            final String url = repo + "/" + relativeUrl;
+            final String expected = remoteChecksum(repo, relativeUrl + SHA1_EXT, stored);
+
+            if (expected == null) {
+                env.logVerbose("No checksum available for %s\n", url);
+            }
+            else if (!expected.equalsIgnoreCase(actual)) {
+                env.handle(Messages.CHECKSUM_MISMATCH(url, expected, actual));
+                return;
+            }
+
+            writeChecksum(new File(stored.getPath() + SHA1_EXT), actual);
+
+            if (!tmp.renameTo(stored) && !stored.exists()) {
+                FileUtils.copyFile(tmp, stored, false);
+            }
+        }
+        catch (IOException e) {
+            env.handle(e);
+        }
+        finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+
+            // Remove the files left by the download of the temporary one
+            if (task != null) {
+                task.getPartFile().delete();
+                task.getValidatorFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Make the target point to the stored artifact.
+     * A hard link is used if possible, then a symbolic link and as a last resort a copy
+     */
+    private void linkToStore(@NotNull File stored, @NotNull File target)
+    {
+        if (FileUtils.sameFile(stored, target) ||
+                (target.exists() && target.length() == stored.length() &&
+                     target.lastModified() == stored.lastModified())) {
+            return;
+        }
+
+        if (!FileUtils.hardLink(stored, target) && !FileUtils.symbolicLink(stored, target)) {
+            try {
+                target.delete();
+                FileUtils.copyFile(stored, target, false);
+                target.setLastModified(stored.lastModified());
+            }
+            catch (IOException e) {
+                env.handle(e);
+            }
+        }
+
+        env.logVerbose("Linked %s\n", target);
+        env.logVerbose("    to %s\n", stored);
+    }
+
+    @NotNull private synchronized Object lockFor(@NotNull File file)
+    {
+        Object result = locks.get(file.getPath());
+
+        if (result == null) {
+            result = new Object();
+            locks.put(file.getPath(), result);
+        }
+
+        return result;
+    }
 
-            download(repo + "/" + relativeUrl).to(target)  //
-                                              .execute();
-            map.put(path, target);
-            result = target;
+    @NotNull private static String digest(@NotNull File file)
+        throws IOException
+    {
+        try {
+            final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            FileUtils.updateDigest(md, file);
+            return StringUtils.encodeHex(md.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    /**
+     * Read the checksum published by the repository, downloading it next to the stored artifact
+     * the same way as the artifact itself. Returns null if there is none
+     */
+    @Nullable private String remoteChecksum(@NotNull String repo, @NotNull String relativeUrl,
+                                            @NotNull File stored)
+        throws IOException
+    {
+        final File     tmp = File.createTempFile(stored.getName(), SHA1_EXT, stored.getParentFile());
+        DownloadTask   task = null;
+        BufferedReader reader = null;
+
+        try {
+            task = downloadArtifact(repo, relativeUrl, tmp, UpdatePolicy.FORCE, true);
+
+            if (tmp.length() == 0) {
+                return null;
+            }
+
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(tmp), UTF8));
+            final String line = reader.readLine();
+
+            // The file may contain the checksum followed by the file name
+            final String result = line == null ? "" : line.trim().split("\\s+")[0];
+            return result.isEmpty() ? null : result;
+        }
+        catch (BuildException e) {
+            return null;
+        }
+        finally {
+            StreamUtils.close(reader);
+            tmp.delete();
+
+            if (task != null) {
+                task.getPartFile().delete();
+                task.getValidatorFile().delete();
+            }
+        }
+    }
+
+    private static void writeChecksum(@NotNull File file, @NotNull String checksum)
+        throws IOException
+    {
+        PrintWriter writer = null;
+
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(FileUtils.createOutputStream(file), UTF8));
+            writer.println(checksum);
+        }
+        finally {
+            StreamUtils.close(writer);
+        }
+    }
+
+    /**
+     * Get the semaphore that limits the number of concurrent connections to the host of a repository
+     */
+    @NotNull private synchronized Semaphore connectionsFor(@NotNull String repo)
+    {
+        String host;
+
+        try {
+            host = new URL(repo).getHost();
+        }
+        catch (MalformedURLException e) {
+            host = repo;
+        }
+
+        Semaphore result = hostConnections.get(host);
+
+        if (result == null) {
+            result =
+                new Semaphore(intProperty(ARTIFACTS_HOST_CONNECTIONS_PROPERTY, DEFAULT_ARTIFACTS_HOST_CONNECTIONS));
+            hostConnections.put(host, result);
         }
 
         return result;
     }
 
+    private int intProperty(@NotNull String property, int defaultValue)
+    {
+        try {
+            return Math.max(1, Integer.parseInt(env.getProperty(property, String.valueOf(defaultValue))));
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Find a library repository
      * It tries to find one based on the 'repository.group' property
@@ -93,4 +539,10 @@ class ArtifactsCache
 
         return repo;
     }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String SNAPSHOT = "SNAPSHOT";
+    private static final String PART_EXT = ".part";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
 }
@@ -70,6 +70,27 @@ public class Messages
         return "Module's manifest is overridden by " + file + "\n";
     }
 
+    public static String DUPLICATED_ENTRY(final String entry, final String jar)
+    {
+        return "Duplicated entry '" + entry + "' from " + jar + " ignored\n";
+    }
+
+    public static String CHECKSUM_MISMATCH(final String url, final String expected, final String actual)
+    {
+        return "Checksum verification failed for " + url + " (expected: " + expected + ", found: " + actual +
+               ")";
+    }
+
+    public static String NOT_AVAILABLE_OFFLINE(final String artifact)
+    {
+        return "Artifact " + artifact + " is not available in the local cache";
+    }
+
+    public static String REPOSITORY_UNREACHABLE(final String repository)
+    {
+        return "Repository " + repository + " is unreachable, resolving artifacts from the local cache\n";
+    }
+
     //~ Static fields/initializers ...........................................................................
 
     public static final String COMMANDS =
@@ -84,6 +105,8 @@ public class Messages
     @NonNls public static final String CONTINUE_AFTER_ERROR = "Continue after error.";
     @NonNls public static final String FORCE_BUILD = "Force build (Do not check timestamps).";
     @NonNls public static final String NON_RECURSIVE = "Do not recurse over module dependencies.";
+    @NonNls public static final String OFFLINE = "Work offline, resolve artifacts only from the local cache.";
+    @NonNls public static final String ALL_TESTS = "Run all tests, not only the ones affected by changes.";
     @NonNls public static final String DEFINE_PROPERTY = "Define a property.";
     @NonNls public static final String TRACK_EXECUTION = "Track execution statistics.";
     @NonNls public static final String DEBUG = "What to show when doing verbose output.";
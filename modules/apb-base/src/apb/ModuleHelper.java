@@ -17,6 +17,7 @@
 package apb;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
@@ -40,9 +41,12 @@ import apb.metadata.LocalLibrary;
 import apb.metadata.Module;
 import apb.metadata.PackageInfo;
 import apb.metadata.PackageType;
+import apb.metadata.RemoteLibrary;
 import apb.metadata.ResourcesInfo;
 import apb.metadata.TestModule;
+import apb.tasks.CopyTask;
 import apb.tasks.FileSet;
+import apb.tasks.JarTask;
 import apb.tasks.JavacTask;
 import apb.tasks.WarTask;
 import apb.utils.ClassUtils;
@@ -72,6 +76,11 @@ public class ModuleHelper
 
     @Nullable private Iterable<Library> allLibraries;
 
+    /**
+     * The direct dependencies plus the libraries the transitive ones depend on
+     */
+    @Nullable private List<Dependency> resolvedDependencies;
+
     @Nullable private Iterable<ModuleHelper> dependencies;
 
     @Nullable private File generatedSource;
@@ -249,7 +258,7 @@ public class ModuleHelper
         if (allLibraries == null) {
             List<Library> list = new ArrayList<Library>();
 
-            for (Dependency dependency : getDirectDependencies()) {
+            for (Dependency dependency : getResolvedDependencies()) {
                 if (dependency.isLibrary()) {
                     list.add(dependency.asLibrary());
                 }
@@ -365,20 +374,43 @@ public class ModuleHelper
      */
     public void clean()
     {
-        delete(getOutput()).execute();
-        delete(getGeneratedSource()).execute();
-        delete(getJavadocInfo().output).execute();
+        final boolean background = getModule().backgroundClean;
+
+        delete(getOutput()).inBackground(background).execute();
+        delete(getGeneratedSource()).inBackground(background).execute();
+        delete(getJavadocInfo().output).inBackground(background).execute();
+
+        final ResourcesInfo resources = getResourcesInfo();
+
+        if (resources.checkContent) {
+            delete(CopyTask.journalFile(fileFromBase(resources.output))).execute();
+        }
 
         if (hasPackage()) {
             final PackageInfo packageInfo = getPackageInfo();
             delete(getPackageFile()).execute();
 
+            if (packageInfo.reproducible) {
+                delete(new File(getPackageFile().getPath() + JarTask.DIGEST_EXT)).execute();
+            }
+
             if (packageInfo.generateSourcesJar) {
                 delete(getSourcePackageFile()).execute();
+
+                if (packageInfo.reproducible) {
+                    delete(new File(getSourcePackageFile().getPath() + JarTask.DIGEST_EXT)).execute();
+                }
             }
 
             if (packageInfo.type == PackageType.WAR) {
-                delete(packageInfo.webAppBuildDir).execute();
+                final File buildDir = fileFromBase(packageInfo.webAppBuildDir);
+                delete(buildDir).execute();
+                delete(new File(buildDir.getPath() + WarTask.CHANGES_EXT)).execute();
+                delete(new File(buildDir.getPath() + WarTask.SYNCED_EXT)).execute();
+
+                if (packageInfo.archiveClasses) {
+                    delete(getClassesJarFile()).execute();
+                }
             }
         }
     }
@@ -400,25 +432,26 @@ public class ModuleHelper
         switch (type) {
         case JAR:
             createJar(getPackageFile(), packageInfo, modules);
+            createSourcesJar(packageInfo, modules);
+            break;
 
-            // generate sources jar
-            if (packageInfo.generateSourcesJar) {
-                jar(getSourcePackageFile()).from(sourceFileSets(modules))  //
-                                           .execute();
-            }
-
+        case FAT_JAR:
+            createFatJar(getPackageFile(), packageInfo, modules);
+            createSourcesJar(packageInfo, modules);
             break;
 
         case WAR:
 
             final File    buildDir = fileFromBase(packageInfo.webAppBuildDir);
             final WarTask war =
-                war(getPackageFile()).from(packageInfo.webAppDir).usingBuildDirectory(buildDir);
+                war(getPackageFile()).from(packageInfo.webAppDir)  //
+                                     .usingBuildDirectory(buildDir)  //
+                                     .exploded(packageInfo.explodedWar)  //
+                                     .sync(packageInfo.syncWar)  //
+                                     .linkingJars(packageInfo.linkWarLibraries);
 
             if (packageInfo.archiveClasses) {
-                final File jarFile =
-                    new File(new File(buildDir, WarTask.LIB_PATH),
-                             getPackageName() + PackageType.JAR.getExt());
+                final File jarFile = getClassesJarFile();
                 createJar(jarFile, packageInfo, modules);
                 war.includeJars(jarFile);
             }
@@ -444,7 +477,9 @@ public class ModuleHelper
                    .including(resources.includes())  //
                    .excluding(resources.excludes());
 
-        copy(fileSet).to(resources.output).execute();
+        copy(fileSet).to(resources.output)  //
+                     .checkingContent(resources.checkContent)  //
+                     .execute();
         // todo add filtered
     }
 
@@ -543,6 +578,36 @@ public class ModuleHelper
         return getModule().dependencies();
     }
 
+    /**
+     * The direct dependencies followed by the libraries that the transitive remote libraries depend on
+     */
+    @NotNull public List<Dependency> getResolvedDependencies()
+    {
+        if (resolvedDependencies == null) {
+            final List<Dependency>    list = new ArrayList<Dependency>();
+            final List<RemoteLibrary> remotes = new ArrayList<RemoteLibrary>();
+            boolean                   transitive = false;
+
+            for (Dependency dependency : getDirectDependencies()) {
+                list.add(dependency);
+
+                if (dependency.isLibrary() && dependency.asLibrary() instanceof RemoteLibrary) {
+                    final RemoteLibrary remote = (RemoteLibrary) dependency.asLibrary();
+                    remotes.add(remote);
+                    transitive |= remote.isTransitive();
+                }
+            }
+
+            if (transitive) {
+                list.addAll(ProjectBuilder.resolveDependencies(remotes));
+            }
+
+            resolvedDependencies = list;
+        }
+
+        return resolvedDependencies;
+    }
+
     protected List<File> classPath(boolean useJars, boolean addModuleOutput, boolean compile)
     {
         List<File> result = new ArrayList<File>();
@@ -553,7 +618,7 @@ public class ModuleHelper
         }
 
         // Add dependencies from modules
-        for (Dependency dependency : getDirectDependencies()) {
+        for (Dependency dependency : getResolvedDependencies()) {
             if (dependency.mustInclude(compile)) {
                 if (dependency.isModule()) {
                     ModuleHelper m = dependency.asModule().getHelper();
@@ -630,7 +695,7 @@ public class ModuleHelper
      */
     Collection<File> deepClassPath(boolean useJars, boolean addModuleOutput)
     {
-        Collection<File> result = deepClassPath(getDirectDependencies(), useJars);
+        Collection<File> result = deepClassPath(getResolvedDependencies(), useJars);
 
         if (addModuleOutput) {
             result.add(useJars && hasPackage() ? getPackageFile() : getOutput());
@@ -718,9 +783,87 @@ public class ModuleHelper
                     .withManifestAttributes(packageInfo.attributes())  //
                     .withClassPath(manifestClassPath())  //
                     .withServices(services)  //
+                    .reproducible(packageInfo.reproducible)  //
+                    .execute();
+    }
+
+    /**
+     * Create the jar with the sources of the modules to package, if it must be generated
+     */
+    private void createSourcesJar(PackageInfo packageInfo, List<Module> modules)
+    {
+        if (packageInfo.generateSourcesJar) {
+            jar(getSourcePackageFile()).from(sourceFileSets(modules))  //
+                                       .reproducible(packageInfo.reproducible)  //
+                                       .execute();
+        }
+    }
+
+    /**
+     * Create a jar that includes the modules to package plus every jar they depend on.
+     * The entries of dependency jars are streamed into the new one, and their services merged.
+     */
+    private void createFatJar(final File jarFile, PackageInfo packageInfo, List<Module> modules)
+    {
+        final List<FileSet> fileSets = outputFileSets(modules, packageInfo.excludes());
+        final Set<File>     packaged = new HashSet<File>();
+
+        for (Module m : modules) {
+            final ModuleHelper h = m.getHelper();
+            packaged.add(h.getOutput());
+
+            if (h.hasPackage()) {
+                packaged.add(h.getPackageFile());
+            }
+        }
+
+        final List<File>               jars = new ArrayList<File>();
+        final Map<String, Set<String>> services = new HashMap<String, Set<String>>();
+        mergeServices(services, mergeServices(modules));
+
+        for (File file : new TreeSet<File>(deepClassPath(true, false))) {
+            if (!packaged.contains(file)) {
+                if (file.isDirectory()) {
+                    fileSets.add(FileSet.fromDir(file).excluding(packageInfo.excludes()));
+                }
+                else {
+                    jars.add(file);
+
+                    try {
+                        mergeServices(services, JarTask.readServices(file));
+                    }
+                    catch (IOException e) {
+                        throw new BuildException("Cannot read: " + file + " " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        jar(jarFile).from(fileSets)  //
+                    .mainClass(packageInfo.mainClass)  //
+                    .version(getModule().version)  //
+                    .withManifestAttributes(packageInfo.attributes())  //
+                    .withServices(services)  //
+                    .includingJars(jars)  //
+                    .withDuplicateRules(packageInfo.duplicateRules())  //
+                    .reproducible(packageInfo.reproducible)  //
                     .execute();
     }
 
+    /**
+     * The jar with the classes of a WAR package when {@link PackageInfo#archiveClasses} is set.
+     * It is created in the web application build directory unless the war is not exploded.
+     */
+    private File getClassesJarFile()
+    {
+        final PackageInfo packageInfo = getPackageInfo();
+        final String      name = getPackageName() + PackageType.JAR.getExt();
+
+        return packageInfo.explodedWar
+               ? new File(new File(fileFromBase(packageInfo.webAppBuildDir), WarTask.LIB_PATH), name)
+               : fileFromBase("$output-base/" + name);
+    }
+
     private List<Library> getExtraLibraries()
     {
         final List<Library> result = new ArrayList<Library>(getCompileInfo().extraLibraries());
@@ -0,0 +1,502 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import apb.metadata.RemoteLibrary;
+
+import apb.utils.XmlUtils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import static apb.Constants.RESOLUTION_GRAPHS;
+
+/**
+ * Resolves the transitive dependencies of remote libraries from their POM files.
+ * Parent POMs, dependency management, properties and exclusions are honored,
+ * and conflicts are resolved by choosing the version nearest to the declared libraries.
+ * The resolved graph is recorded keyed by the declared libraries, so it is only computed once.
+ */
+class PomResolver
+{
+    //~ Instance fields ......................................................................................
+
+    @NotNull private final ArtifactsCache artifactsCache;
+    @NotNull private final Environment    env;
+
+    /**
+     * The POMs already loaded, null values are POMs that are not available
+     */
+    @NotNull private final Map<String, Pom> poms;
+
+    @Nullable private ResolutionRecord graphs;
+
+    //~ Constructors .........................................................................................
+
+    PomResolver(@NotNull Environment env, @NotNull ArtifactsCache artifactsCache)
+    {
+        this.env = env;
+        this.artifactsCache = artifactsCache;
+        poms = new HashMap<String, Pom>();
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Resolve the libraries the declared ones depend on.
+     * Only the dependencies of the transitive libraries are resolved, but all the declared ones
+     * take precedence over the resolved ones.
+     * @param declared The libraries declared by a module
+     * @return The libraries (not including the declared ones) that must be also used
+     */
+    @NotNull synchronized List<RemoteLibrary> resolve(@NotNull List<RemoteLibrary> declared)
+    {
+        final String key = graphKey(declared);
+        final String recorded = getGraphs().get(key);
+
+        if (recorded != null) {
+            return fromGraph(declared, recorded);
+        }
+
+        final Map<String, String>   chosen = new HashMap<String, String>();
+        final LinkedList<GraphNode> queue = new LinkedList<GraphNode>();
+
+        for (int i = 0; i < declared.size(); i++) {
+            final RemoteLibrary library = declared.get(i);
+            chosen.put(library.getGroup() + ":" + library.getId(), library.getVersion());
+
+            if (library.isTransitive()) {
+                final Set<String> exclusions = new HashSet<String>(library.getExclusions());
+                queue.add(new GraphNode(library.getGroup(), library.getId(), library.getVersion(), i,
+                                        exclusions));
+            }
+        }
+
+        // Breadth first, so the nearest version is the first one found
+        final StringBuilder graph = new StringBuilder();
+        boolean             complete = true;
+
+        while (!queue.isEmpty()) {
+            final GraphNode node = queue.removeFirst();
+            final Pom       pom = getPom(node.group, node.id, node.version);
+
+            if (pom == null) {
+                complete = false;
+                continue;
+            }
+
+            for (PomDependency dep : pom.dependencies) {
+                final String name = dep.group + ":" + dep.id;
+
+                if (dep.version.isEmpty() || node.excludes(dep.group, dep.id) || chosen.containsKey(name)) {
+                    continue;
+                }
+
+                chosen.put(name, dep.version);
+                graph.append(graph.length() == 0 ? "" : ",").append(name).append(':').append(dep.version)
+                     .append(':').append(node.root);
+
+                final Set<String> exclusions = new HashSet<String>(node.exclusions);
+                exclusions.addAll(dep.exclusions);
+                queue.add(new GraphNode(dep.group, dep.id, dep.version, node.root, exclusions));
+            }
+        }
+
+        final String result = graph.toString();
+
+        // Snapshots may change their dependencies, and missing POMs may be available later
+        if (complete && !key.contains(SNAPSHOT) && !result.contains(SNAPSHOT)) {
+            getGraphs().put(key, result);
+        }
+
+        return fromGraph(declared, result);
+    }
+
+    /**
+     * Build the libraries from a resolved graph,
+     * a comma separated list of 'group:id:version:index of the declared library'
+     */
+    @NotNull private static List<RemoteLibrary> fromGraph(@NotNull List<RemoteLibrary> declared,
+                                                          @NotNull String graph)
+    {
+        final List<RemoteLibrary> result = new ArrayList<RemoteLibrary>();
+
+        for (String entry : graph.split(",")) {
+            final String[] fields = entry.split(":");
+
+            if (fields.length == 4) {
+                final RemoteLibrary root = declared.get(Integer.parseInt(fields[3]));
+                result.add(root.sibling(fields[0], fields[1], fields[2]));
+            }
+        }
+
+        return result;
+    }
+
+    @NotNull private static String graphKey(@NotNull List<RemoteLibrary> declared)
+    {
+        final StringBuilder result = new StringBuilder();
+
+        for (RemoteLibrary library : declared) {
+            result.append(result.length() == 0 ? "" : ",").append(library.getGroup()).append(':')
+                  .append(library.getId()).append(':').append(library.getVersion());
+
+            if (library.isTransitive()) {
+                result.append('+');
+
+                for (String exclusion : library.getExclusions()) {
+                    result.append('-').append(exclusion);
+                }
+            }
+        }
+
+        return result.toString();
+    }
+
+    @NotNull private ResolutionRecord getGraphs()
+    {
+        if (graphs == null) {
+            graphs = new ResolutionRecord(new File(artifactsCache.artifactsDir(), RESOLUTION_GRAPHS));
+        }
+
+        return graphs;
+    }
+
+    /**
+     * Get the effective POM for the specified coordinates, or null if it is not available
+     */
+    @Nullable private Pom getPom(@NotNull String group, @NotNull String id, @NotNull String version)
+    {
+        final String key = group + ":" + id + ":" + version;
+
+        if (poms.containsKey(key)) {
+            return poms.get(key);
+        }
+
+        // Avoid cycles in the parent chain
+        poms.put(key, null);
+
+        final File file = fetchPom(group, id, version);
+        Pom        result = null;
+
+        if (file != null) {
+            try {
+                final Element root = XmlUtils.readDocument(file).getDocumentElement();
+                final Element parentElement = XmlUtils.findChildElement(root, "parent");
+                Pom           parent = null;
+
+                if (parentElement != null) {
+                    parent =
+                        getPom(text(parentElement, "groupId"), text(parentElement, "artifactId"),
+                               text(parentElement, "version"));
+                }
+
+                result = new Pom(root, parent);
+            }
+            catch (BuildException e) {
+                env.logWarning("Invalid POM for %s: %s\n", key, e.getMessage());
+            }
+        }
+
+        poms.put(key, result);
+        return result;
+    }
+
+    @Nullable private File fetchPom(@NotNull String group, @NotNull String id, @NotNull String version)
+    {
+        final String relativeUrl =
+            group.replace('.', '/') + '/' + id + '/' + version + '/' + id + '-' + version + POM_EXT;
+        final File   target = new File(artifactsCache.artifactsDir(), relativeUrl.replace('/', File.separatorChar));
+
+        try {
+            artifactsCache.getArtifact(group, relativeUrl, target);
+        }
+        catch (BuildException e) {
+            // Just ignore it, a warning is issued below
+        }
+
+        if (!target.exists()) {
+            env.logWarning("No POM for %s:%s:%s, its dependencies are ignored\n", group, id, version);
+            return null;
+        }
+
+        return target;
+    }
+
+    @NotNull private static String text(@NotNull Element parent, @NotNull String name)
+    {
+        final Element element = XmlUtils.findChildElement(parent, name);
+        return element == null ? "" : element.getTextContent().trim();
+    }
+
+    @NotNull private static List<Element> children(@Nullable Element parent, @NotNull String name)
+    {
+        final List<Element> result = new ArrayList<Element>();
+
+        if (parent != null) {
+            final NodeList nodes = parent.getChildNodes();
+
+            for (int i = 0; i < nodes.getLength(); i++) {
+                final Node node = nodes.item(i);
+
+                if (node instanceof Element && node.getNodeName().equals(name)) {
+                    result.add((Element) node);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String SNAPSHOT = "SNAPSHOT";
+    private static final String POM_EXT = ".pom";
+
+    /**
+     * The scopes whose dependencies are needed at runtime
+     */
+    private static final Set<String> TRANSITIVE_SCOPES = new HashSet<String>();
+
+    static {
+        TRANSITIVE_SCOPES.add("");
+        TRANSITIVE_SCOPES.add("compile");
+        TRANSITIVE_SCOPES.add("runtime");
+    }
+
+    private static final int MAX_EXPANSION_DEPTH = 10;
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * A node in the dependency graph being resolved
+     */
+    private static class GraphNode
+    {
+        @NotNull private final Set<String> exclusions;
+        private final int                  root;
+        @NotNull private final String      group;
+        @NotNull private final String      id;
+        @NotNull private final String      version;
+
+        GraphNode(@NotNull String group, @NotNull String id, @NotNull String version, int root,
+                  @NotNull Set<String> exclusions)
+        {
+            this.group = group;
+            this.id = id;
+            this.version = version;
+            this.root = root;
+            this.exclusions = exclusions;
+        }
+
+        boolean excludes(@NotNull String depGroup, @NotNull String depId)
+        {
+            return exclusions.contains(depGroup + ":" + depId) || exclusions.contains(depGroup + ":*") ||
+                   exclusions.contains("*:*");
+        }
+    }
+
+    /**
+     * A dependency as declared in a POM
+     */
+    private static class PomDependency
+    {
+        @NotNull private final List<String> exclusions;
+        @NotNull private final String       group;
+        @NotNull private final String       id;
+        @NotNull private final String       version;
+
+        PomDependency(@NotNull String group, @NotNull String id, @NotNull String version,
+                      @NotNull List<String> exclusions)
+        {
+            this.group = group;
+            this.id = id;
+            this.version = version;
+            this.exclusions = exclusions;
+        }
+    }
+
+    /**
+     * The effective content of a POM, after merging it with its parents
+     */
+    private static class Pom
+    {
+        /**
+         * The runtime dependencies, with properties expanded and managed versions applied
+         */
+        @NotNull private final List<PomDependency> dependencies;
+
+        /**
+         * The dependency elements of this POM, including the inherited ones
+         */
+        @NotNull private final List<Element> dependencyElements;
+
+        /**
+         * Versions from the dependencyManagement section, by 'group:id'
+         */
+        @NotNull private final Map<String, String> managedVersions;
+
+        @NotNull private final Map<String, String> properties;
+
+        Pom(@NotNull Element root, @Nullable Pom parent)
+        {
+            properties = new HashMap<String, String>();
+            managedVersions = new HashMap<String, String>();
+            dependencies = new ArrayList<PomDependency>();
+            dependencyElements = new ArrayList<Element>();
+
+            if (parent != null) {
+                properties.putAll(parent.properties);
+                managedVersions.putAll(parent.managedVersions);
+            }
+
+            final Element parentElement = XmlUtils.findChildElement(root, "parent");
+            String        group = text(root, "groupId");
+            String        version = text(root, "version");
+
+            if (parentElement != null) {
+                final String parentVersion = text(parentElement, "version");
+                properties.put("project.parent.groupId", text(parentElement, "groupId"));
+                properties.put("project.parent.version", parentVersion);
+                group = group.isEmpty() ? text(parentElement, "groupId") : group;
+                version = version.isEmpty() ? parentVersion : version;
+            }
+
+            for (String prefix : new String[] { "project.", "pom.", "" }) {
+                properties.put(prefix + "groupId", group);
+                properties.put(prefix + "artifactId", text(root, "artifactId"));
+                properties.put(prefix + "version", version);
+            }
+
+            final Element propertiesElement = XmlUtils.findChildElement(root, "properties");
+
+            if (propertiesElement != null) {
+                final NodeList nodes = propertiesElement.getChildNodes();
+
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    final Node node = nodes.item(i);
+
+                    if (node instanceof Element) {
+                        properties.put(node.getNodeName(), node.getTextContent().trim());
+                    }
+                }
+            }
+
+            final Element management = XmlUtils.findChildElement(root, "dependencyManagement");
+
+            final Element managedDependencies =
+                management == null ? null : XmlUtils.findChildElement(management, "dependencies");
+
+            for (Element dep : children(managedDependencies, "dependency")) {
+                final String managedVersion = expand(text(dep, "version"));
+
+                if (!managedVersion.isEmpty()) {
+                    managedVersions.put(expand(text(dep, "groupId")) + ":" + expand(text(dep, "artifactId")),
+                                        managedVersion);
+                }
+            }
+
+            // Dependencies are inherited from the parent, but they are expanded in the child context
+            if (parent != null) {
+                dependencyElements.addAll(parent.dependencyElements);
+            }
+
+            dependencyElements.addAll(children(XmlUtils.findChildElement(root, "dependencies"), "dependency"));
+
+            for (Element dep : dependencyElements) {
+                if (isRuntimeDependency(dep)) {
+                    final String depGroup = expand(text(dep, "groupId"));
+                    final String depId = expand(text(dep, "artifactId"));
+                    String       depVersion = expand(text(dep, "version"));
+
+                    if (depVersion.isEmpty()) {
+                        final String managedVersion = managedVersions.get(depGroup + ":" + depId);
+                        depVersion = managedVersion == null ? "" : managedVersion;
+                    }
+
+                    final List<String> exclusions = new ArrayList<String>();
+
+                    for (Element exclusion : children(XmlUtils.findChildElement(dep, "exclusions"),
+                                                      "exclusion")) {
+                        exclusions.add(expand(text(exclusion, "groupId")) + ":" +
+                                       expand(text(exclusion, "artifactId")));
+                    }
+
+                    dependencies.add(new PomDependency(depGroup, depId, fixedVersion(depVersion), exclusions));
+                }
+            }
+        }
+
+        private static boolean isRuntimeDependency(@NotNull Element dep)
+        {
+            final String type = text(dep, "type");
+
+            return TRANSITIVE_SCOPES.contains(text(dep, "scope")) && !"true".equals(text(dep, "optional")) &&
+                   (type.isEmpty() || "jar".equals(type)) && text(dep, "classifier").isEmpty();
+        }
+
+        /**
+         * Use the lower bound of a version range, or the single version of a '[version]' one
+         */
+        @NotNull private static String fixedVersion(@NotNull String version)
+        {
+            if (version.startsWith("[") || version.startsWith("(")) {
+                final int end = version.indexOf(',');
+                return version.substring(1, end == -1 ? version.length() - 1 : end).trim();
+            }
+
+            return version;
+        }
+
+        /**
+         * Expand the ${property} references in the value
+         */
+        @NotNull private String expand(@NotNull String value)
+        {
+            String result = value;
+
+            for (int depth = 0; depth < MAX_EXPANSION_DEPTH && result.contains("${"); depth++) {
+                final int    start = result.indexOf("${");
+                final int    end = result.indexOf('}', start);
+                final String property = end == -1 ? null : properties.get(result.substring(start + 2, end));
+
+                if (property == null) {
+                    break;
+                }
+
+                result = result.substring(0, start) + property + result.substring(end + 1);
+            }
+
+            return result;
+        }
+    }
+}
@@ -22,16 +22,25 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import apb.compiler.InMemJavaC;
 
+import apb.metadata.Dependency;
 import apb.metadata.DependencyList;
+import apb.metadata.PackageType;
 import apb.metadata.ProjectElement;
+import apb.metadata.RemoteLibrary;
 
 import apb.utils.ClassUtils;
 import apb.utils.DebugOption;
@@ -40,6 +49,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import static apb.Logger.Level.VERBOSE;
+import static apb.Logger.Level.WARNING;
 
 import static apb.utils.StringUtils.isEmpty;
 //
@@ -63,6 +73,7 @@ public class ProjectBuilder
      * The cache of downloaded Artifacts
      */
     @NotNull private final ArtifactsCache artifactsCache;
+    @NotNull private final PomResolver    pomResolver;
 
     /**
      * Track execution
@@ -109,6 +120,7 @@ public class ProjectBuilder
         javac = new InMemJavaC(env);
         helpers = new TreeMap<String, ProjectElementHelper>();
         artifactsCache = new ArtifactsCache(env);
+        pomResolver = new PomResolver(env, artifactsCache);
         this.projectPath = projectPath;
         contextStack = new LinkedList<Context>();
         currentName = "";
@@ -154,6 +166,15 @@ public class ProjectBuilder
         return getInstance().artifactsCache.getArtifact(group, relativeUrl + "/" + name, target);
     }
 
+    /**
+     * Resolve the libraries that the transitive remote libraries depend on
+     * @exclude
+     */
+    @NotNull public static List<RemoteLibrary> resolveDependencies(@NotNull List<RemoteLibrary> declared)
+    {
+        return getInstance().pomResolver.resolve(declared);
+    }
+
     /**
      * Build the project
      * Run the specified command over the given element
@@ -185,7 +206,14 @@ public class ProjectBuilder
             throw new DefinitionException(element, e);
         }
 
-        build(projectElement, isEmpty(command) ? Constants.DEFAULT_COMMAND : command);
+        final String commandName = isEmpty(command) ? Constants.DEFAULT_COMMAND : command;
+
+        if (env.getBooleanProperty(Constants.ARTIFACTS_PREFETCH_PROPERTY, true) &&
+                needsClassPath(projectElement, commandName)) {
+            prefetchArtifacts(projectElement);
+        }
+
+        build(projectElement, commandName);
     }
 
     /**
@@ -301,6 +329,96 @@ public class ProjectBuilder
         return result.toString();
     }
 
+    /**
+     * Returns true if running the command (or any command it depends on) needs the class path.
+     * A project that runs the command in its components needs it if any of them does
+     */
+    private static boolean needsClassPath(@NotNull ProjectElementHelper element, @NotNull String commandName)
+    {
+        final Command command = element.findCommand(commandName);
+
+        if (element instanceof ProjectHelper && (command == null || command.isRecursive())) {
+            for (ProjectElement component : ((ProjectHelper) element).getProject().components()) {
+                if (needsClassPath(component.getHelper(), commandName)) {
+                    return true;
+                }
+            }
+        }
+
+        if (command != null) {
+            for (Command cmd : command.getDependencies()) {
+                if (CLASS_PATH_COMMANDS.contains(cmd.getName())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Resolve the remote libraries the element modules declare before starting the build,
+     * so they are downloaded concurrently instead of one at a time when first used.
+     * Only the declared module dependencies are walked: the libraries of test modules
+     * are left to the normal lazy lookup.
+     */
+    private void prefetchArtifacts(@NotNull ProjectElementHelper element)
+    {
+        final Map<File, Callable<File>> artifacts = new LinkedHashMap<File, Callable<File>>();
+
+        try {
+            final Set<ModuleHelper> modules = new LinkedHashSet<ModuleHelper>();
+            collectModules(element, modules);
+
+            for (final ModuleHelper module : modules) {
+                for (Dependency dependency : module.getResolvedDependencies()) {
+                    if (dependency.isLibrary() && dependency.asLibrary() instanceof RemoteLibrary) {
+                        final RemoteLibrary remote = (RemoteLibrary) dependency.asLibrary();
+                        final File          target = remote.getTargetFile(module, PackageType.JAR);
+
+                        if (target != null && !artifacts.containsKey(target)) {
+                            artifacts.put(target,
+                                          new Callable<File>() {
+                                              public File call()
+                                              {
+                                                  return remote.getArtifact(module, PackageType.JAR);
+                                              }
+                                          });
+                        }
+                    }
+                }
+            }
+        }
+        catch (DependencyList.NullDependencyException e) {
+            // Fall back to fetch the libraries lazily, when they are first used
+            logger.log(WARNING, "Cannot prefetch artifacts: %s\n", e);
+            return;
+        }
+        catch (BuildException e) {
+            logger.log(WARNING, "Cannot prefetch artifacts: %s\n", e.getMessage());
+            return;
+        }
+
+        artifactsCache.prefetch(new ArrayList<Callable<File>>(artifacts.values()));
+    }
+
+    private static void collectModules(@NotNull ProjectElementHelper element, @NotNull Set<ModuleHelper> modules)
+    {
+        if (element instanceof ProjectHelper) {
+            for (ProjectElement component : ((ProjectHelper) element).getProject().components()) {
+                collectModules(component.getHelper(), modules);
+            }
+        }
+        else if (element instanceof ModuleHelper && !((ModuleHelper) element).isTestModule() &&
+                     modules.add((ModuleHelper) element)) {
+            for (Dependency dependency : ((ModuleHelper) element).getModule().dependencies()) {
+                if (dependency.isModule()) {
+                    collectModules(dependency.asModule().getHelper(), modules);
+                }
+            }
+        }
+    }
+
     @NotNull private static ProjectBuilder getInstance()
     {
         ProjectBuilder result = Apb.getCurrentProjectBuilder();
@@ -483,6 +601,12 @@ public class ProjectBuilder
 
     private static final int HEADER_LENGTH = 30;
 
+    /**
+     * The commands that need the libraries in the class path
+     */
+    private static final Set<String> CLASS_PATH_COMMANDS =
+        new HashSet<String>(Arrays.asList("compile", "javadoc", "run", "run-minimal"));
+
     private static final String PROJECTS_HOME_PROP_KEY = "projects-home";
     private static final long   MB = (1024 * 1024);
 
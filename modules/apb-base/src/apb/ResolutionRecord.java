@@ -0,0 +1,119 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import apb.utils.FileUtils;
+import apb.utils.StreamUtils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A persistent record of resolution results, like where each artifact was resolved to.
+ * It allows to resolve artifacts without accessing the repositories when working offline.
+ */
+class ResolutionRecord
+{
+    //~ Instance fields ......................................................................................
+
+    private boolean             loaded;
+    @NotNull private final File file;
+    @NotNull private Properties entries;
+
+    //~ Constructors .........................................................................................
+
+    ResolutionRecord(@NotNull File file)
+    {
+        this.file = file;
+        entries = new Properties();
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * What the key was resolved to, or null if it was never resolved
+     */
+    @Nullable synchronized String get(@NotNull String key)
+    {
+        load();
+        return entries.getProperty(key);
+    }
+
+    /**
+     * Record what the key was resolved to.
+     * The record is written back only when it changes
+     */
+    synchronized void put(@NotNull String key, @NotNull String value)
+    {
+        load();
+
+        if (!value.equals(entries.getProperty(key))) {
+            entries.setProperty(key, value);
+            save();
+        }
+    }
+
+    private void load()
+    {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+
+        if (file.exists()) {
+            InputStream is = null;
+
+            try {
+                is = new FileInputStream(file);
+                entries.load(is);
+            }
+            catch (IOException e) {
+                // An invalid record is just ignored
+                entries = new Properties();
+            }
+            finally {
+                StreamUtils.close(is);
+            }
+        }
+    }
+
+    private void save()
+    {
+        OutputStream os = null;
+
+        try {
+            os = FileUtils.createOutputStream(file);
+            entries.store(os, null);
+        }
+        catch (IOException e) {
+            // The record is just a cache, do not fail if it cannot be written
+        }
+        finally {
+            StreamUtils.close(os);
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class StandaloneLogger
 
     //~ Methods ..............................................................................................
 
-    public void log(@NotNull Level level, @NotNull String msg, Object... args)
+    public synchronized void log(@NotNull Level level, @NotNull String msg, Object... args)
     {
         if (level.compareTo(minLevel) >= 0) {
             String str = format(args == null || args.length == 0 ? msg : String.format(msg, args));
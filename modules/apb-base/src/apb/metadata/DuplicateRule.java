@@ -0,0 +1,39 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+package apb.metadata;
+
+/**
+ * What to do when an entry coming from a dependency jar is already present in the archive
+ * being generated. (See {@link PackageType#FAT_JAR})
+ */
+public enum DuplicateRule
+{
+    /**
+     * Keep the first entry, silently discarding the rest
+     */
+    FIRST,
+
+    /**
+     * Keep the first entry, issuing a warning
+     */
+    WARN,
+
+    /**
+     * Fail the build
+     */
+    FAIL
+}
@@ -52,6 +52,21 @@ public abstract class Library
 
     @Nullable public abstract File getArtifact(@NotNull Environment env, @NotNull PackageType type);
 
+    @NotNull public String getGroup()
+    {
+        return group;
+    }
+
+    @NotNull public String getId()
+    {
+        return id;
+    }
+
+    @NotNull public String getVersion()
+    {
+        return version;
+    }
+
     @NotNull public String getName()
     {
         return group + (group.isEmpty() ? "" : ".") + version + (version.isEmpty() ? "" : ".") + id;
@@ -121,6 +121,13 @@ public class Module
      */
     @BuildProperty public String version = "";
 
+    /**
+     * Whether clean removes the output directories in the background.
+     * Directories are renamed, so the module can be built again immediately,
+     * and their content is deleted by a separate thread.
+     */
+    @BuildProperty public boolean backgroundClean;
+
     /**
      * The list of modules & libraries this module depends from
      */
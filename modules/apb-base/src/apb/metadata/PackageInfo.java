@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -56,6 +57,13 @@ public class PackageInfo
      */
     @BuildProperty public IncludeDependencies includeDependencies = IncludeDependencies.NONE;
 
+    /**
+     * Whether to generate reproducible archives.
+     * Entries are sorted and get a fixed timestamp, so building from the same inputs
+     * produces the same bytes. The jar is not rewritten if the contents did not change.
+     */
+    @BuildProperty public boolean reproducible;
+
     /**
      * The packaging type for the module
      */
@@ -77,6 +85,26 @@ public class PackageInfo
     @BuildProperty(order = 1)
     public String name = "${group}-${id}-${version}";
 
+    /**
+     * Whether to build the exploded web application in {@link #webAppBuildDir} (For WAR packages)
+     * When false the war file is written directly from the web application directory,
+     * the classes and the jars, without copying them first.
+     */
+    @BuildProperty public boolean explodedWar = true;
+
+    /**
+     * Whether to synchronize the exploded web application incrementally (For WAR packages)
+     * Only new or changed files are copied, files no longer present are removed, and the list
+     * of changes is written next to {@link #webAppBuildDir} in a file with the <code>.changes</code> extension.
+     */
+    @BuildProperty public boolean syncWar;
+
+    /**
+     * Whether to hard link the library jars into the exploded web application instead of copying them (For WAR packages)
+     * Falls back to copying when links are not supported.
+     */
+    @BuildProperty public boolean linkWarLibraries;
+
     /**
      * The directory where the web application is created (For WAR packages)
      */
@@ -108,6 +136,12 @@ public class PackageInfo
      */
     private final Map<Attributes.Name, String> attributes = new HashMap<Attributes.Name, String>();
 
+    /**
+     * Rules to apply when an entry of a dependency jar is already present in a {@link PackageType#FAT_JAR}.
+     * The key is a pattern matched against the entry name. The first matching pattern is used.
+     */
+    private final Map<String, DuplicateRule> duplicateRules = new LinkedHashMap<String, DuplicateRule>();
+
     /**
      * Services defined in the package
      * @see java.util.ServiceLoader
@@ -159,6 +193,23 @@ public class PackageInfo
         return attributes;
     }
 
+    public Map<String, DuplicateRule> duplicateRules()
+    {
+        return duplicateRules;
+    }
+
+    /**
+     * Specify the rule to apply for duplicated entries in a {@link PackageType#FAT_JAR}
+     * @param rule The rule to apply
+     * @param patterns The patterns of the entries the rule applies to
+     */
+    public void duplicates(@NotNull DuplicateRule rule, @NotNull String... patterns)
+    {
+        for (String pattern : patterns) {
+            duplicateRules.put(pattern, rule);
+        }
+    }
+
     /**
      * Add implementations (providers) of a given service
      * @see java.util.ServiceLoader
@@ -28,10 +28,15 @@ public enum PackageType
     WAR,
     NONE,
     SRC,
-    DOC;
+    DOC,
+
+    /**
+     * A jar that also includes the contents of all the jars the module depends on.
+     */
+    FAT_JAR;
 
     public String getExt()
     {
-        return "." + toString().toLowerCase();
+        return this == FAT_JAR ? JAR.getExt() : "." + toString().toLowerCase();
     }
 }
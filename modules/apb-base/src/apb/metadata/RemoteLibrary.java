@@ -19,6 +19,9 @@
 package apb.metadata;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import apb.Environment;
 import apb.ProjectBuilder;
@@ -38,6 +41,16 @@ public class RemoteLibrary
 
     private final String relativeUrl;
 
+    /**
+     * Whether to also use the libraries this one depends on, as declared in its POM
+     */
+    private boolean transitive;
+
+    /**
+     * The transitive dependencies to ignore, as 'group:id' (The id can be '*')
+     */
+    @NotNull private final List<String> exclusions;
+
     @NotNull private String targetDir;
 
     //~ Constructors .........................................................................................
@@ -47,6 +60,7 @@ public class RemoteLibrary
         super(group, id, version);
         targetDir = "$libraries";
         relativeUrl = group.replace('.', '/') + '/' + id + '/' + version;
+        exclusions = new ArrayList<String>();
     }
 
     //~ Methods ..............................................................................................
@@ -56,19 +70,72 @@ public class RemoteLibrary
         targetDir = dir;
     }
 
+    /**
+     * Set whether the libraries this one depends on (as declared in its POM) must also be used.
+     * They are downloaded to the same target directory.
+     */
+    public void setTransitive(boolean b)
+    {
+        transitive = b;
+    }
+
+    public boolean isTransitive()
+    {
+        return transitive;
+    }
+
+    /**
+     * Exclude transitive dependencies
+     * @param artifacts The artifacts to exclude, as 'group:id'. The id can be '*' to exclude a whole group.
+     */
+    public void exclude(@NotNull String... artifacts)
+    {
+        exclusions.addAll(Arrays.asList(artifacts));
+    }
+
+    @NotNull public List<String> getExclusions()
+    {
+        return exclusions;
+    }
+
+    /**
+     * The library for another artifact from the same kind of repository,
+     * that will be downloaded to the same target directory as this one
+     */
+    @NotNull public RemoteLibrary sibling(@NotNull String group, @NotNull String id, @NotNull String version)
+    {
+        final RemoteLibrary result = new RemoteLibrary(group, id, version);
+        result.targetDir = targetDir;
+        return result;
+    }
+
     @Nullable public File getArtifact(@NotNull Environment env, @NotNull PackageType type)
     {
         String name = getArtifactName(type);
         File   result = null;
 
         if (name != null) {
-            File target = env.fileFromBase(targetDir + File.separator + name);
-            result = ProjectBuilder.getArtifact(group, name, relativeUrl, target);
+            result = ProjectBuilder.getArtifact(group, name, relativeUrl, getTargetFile(env, name));
         }
 
         return result;
     }
 
+    /**
+     * The local file where the artifact of the specified type is (or will be) downloaded
+     * @return The local file or null if the library has no artifact of the specified type
+     */
+    @Nullable public File getTargetFile(@NotNull Environment env, @NotNull PackageType type)
+    {
+        String name = getArtifactName(type);
+        return name == null ? null : getTargetFile(env, name);
+    }
+
+    private File getTargetFile(Environment env, String name)
+    {
+        return env.fileFromBase(targetDir + File.separator + name);
+    }
+
     protected String getArtifactName(PackageType type)
     {
         return type == PackageType.JAR ? id + '-' + version + ".jar" : null;
@@ -48,6 +48,12 @@ public class ResourcesInfo
      */
     @BuildProperty public String output = "$output";
 
+    /**
+     * Whether to compare the content of the resources with the ones in the output directory,
+     * leaving identical files untouched even if the source ones are newer.
+     */
+    @BuildProperty public boolean checkContent;
+
     /**
      * File extensions to not apply filtering.
      * The following extensions are always excluded from filtering: jpg, jpeg, gif, bmp, png
@@ -85,6 +85,12 @@ public class TestModule
      */
     @BuildProperty public boolean failOnError;
 
+    /**
+     * Stop running the remaining suites as soon as one of them fails.
+     * Suites that failed in the previous run are always run first.
+     */
+    @BuildProperty public boolean failFast;
+
     /**
      *  Whether to fork a new process to run the tests or not.
      */
@@ -95,6 +101,12 @@ public class TestModule
      */
     @BuildProperty public boolean forkPerSuite;
 
+    /**
+     * Run only the suites affected by the classes changed since the previous run.
+     * It can be overridden with the '--all-tests' option.
+     */
+    @BuildProperty public boolean onlyAffectedTests;
+
     /**
      * Whether to show output in reports or not
      */
@@ -125,6 +137,41 @@ public class TestModule
      */
     @BuildProperty public int permGenMemory = 64;
 
+    /**
+     * The output (and error) captured from each suite to keep in memory (in kilobytes).
+     * The rest is kept in a temporary file.
+     */
+    @BuildProperty public int outputMemory = 1024;
+
+    /**
+     * The number of test suites to run concurrently inside each test process.
+     */
+    @BuildProperty public int parallelSuites = 1;
+
+    /**
+     * The number of test methods of each suite to run concurrently.
+     * TestNG suites are run with <code>parallel="methods"</code>, and JUnit 4 suites with a parallel runner.
+     */
+    @BuildProperty public int parallelTests = 1;
+
+    /**
+     * The number of suites each forked process runs when <code>forkPerSuite</code> is set.
+     * Processes are replaced after running that many suites, or as soon as one of them fails.
+     */
+    @BuildProperty public int suitesPerFork = 1;
+
+    /**
+     * The number of forked processes the suites are split into and run at the same time.
+     * Suites are balanced across them using the durations recorded in previous runs.
+     */
+    @BuildProperty public int shards = 1;
+
+    /**
+     * The seconds a suite run in a forked process can go without reporting any event,
+     * before the process is considered hung and killed (0 means no limit).
+     */
+    @BuildProperty public int suiteTimeout;
+
     /**
      * A custom creator classname
      */
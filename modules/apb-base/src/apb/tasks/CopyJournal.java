@@ -0,0 +1,217 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import apb.BuildException;
+
+import apb.utils.FileUtils;
+import apb.utils.StreamUtils;
+import apb.utils.StringUtils;
+
+import org.jetbrains.annotations.NotNull;
+
+import static apb.Constants.UTF8;
+
+/**
+ * A journal with the content digest of the files involved in a copy.
+ * Digests are recomputed only when the size or the modification time of a file changes.
+ * Each line of the journal file has the digest, the size, the modification time and the path of a file.
+ */
+class CopyJournal
+{
+    //~ Instance fields ......................................................................................
+
+    private boolean                           dirty;
+    @NotNull private final File               file;
+    @NotNull private final Map<String, Entry> entries;
+
+    //~ Constructors .........................................................................................
+
+    CopyJournal(@NotNull File file)
+    {
+        this.file = file;
+        entries = new TreeMap<String, Entry>();
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Whether the target file exists and has the same content as the source one
+     */
+    boolean sameContent(@NotNull File source, @NotNull File target)
+        throws IOException
+    {
+        return target.exists() && source.length() == target.length() && digest(source).equals(digest(target));
+    }
+
+    /**
+     * Remove the file from the journal
+     */
+    synchronized void forget(@NotNull File f)
+    {
+        dirty |= entries.remove(f.getAbsolutePath()) != null;
+    }
+
+    /**
+     * The digest of the content of the file, computed only if it changed since it was recorded
+     */
+    @NotNull String digest(@NotNull File f)
+        throws IOException
+    {
+        final String path = f.getAbsolutePath();
+        final long   length = f.length();
+        final long   lastModified = f.lastModified();
+
+        synchronized (this) {
+            final Entry entry = entries.get(path);
+
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                return entry.digest;
+            }
+        }
+
+        final MessageDigest md = newDigest();
+        FileUtils.updateDigest(md, f);
+        final String result = StringUtils.encodeHex(md.digest());
+
+        synchronized (this) {
+            entries.put(path, new Entry(result, length, lastModified));
+            dirty = true;
+        }
+
+        return result;
+    }
+
+    /**
+     * Load the journal from its file, an invalid journal is just ignored
+     */
+    synchronized void load()
+    {
+        if (!file.exists()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(" ", 4);
+
+                if (fields.length == 4) {
+                    entries.put(fields[3],
+                                new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+            }
+        }
+        catch (IOException e) {
+            entries.clear();
+        }
+        catch (NumberFormatException e) {
+            entries.clear();
+        }
+        finally {
+            StreamUtils.close(reader);
+        }
+    }
+
+    /**
+     * Write the journal back, if it was modified
+     */
+    synchronized void save()
+        throws IOException
+    {
+        if (!dirty) {
+            return;
+        }
+
+        PrintWriter writer = null;
+
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(FileUtils.createOutputStream(file), UTF8));
+
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                final Entry entry = e.getValue();
+
+                // Do not keep files that no longer exist
+                if (new File(e.getKey()).exists()) {
+                    writer.println(entry.digest + " " + entry.length + " " + entry.lastModified + " " + e.getKey());
+                }
+            }
+
+            dirty = false;
+        }
+        finally {
+            StreamUtils.close(writer);
+        }
+    }
+
+    /**
+     * The journal file used for copies into the specified directory
+     */
+    @NotNull static File journalFile(@NotNull File targetDir)
+    {
+        return new File(targetDir.getAbsoluteFile().getParentFile(), targetDir.getName() + JOURNAL_EXT);
+    }
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String JOURNAL_EXT = ".journal";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    //~ Inner Classes ........................................................................................
+
+    private static class Entry
+    {
+        @NotNull private final String digest;
+        private final long            length;
+        private final long            lastModified;
+
+        Entry(@NotNull String digest, long length, long lastModified)
+        {
+            this.digest = digest;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
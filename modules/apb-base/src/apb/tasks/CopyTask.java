@@ -20,13 +20,17 @@ package apb.tasks;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import apb.Apb;
 
 import apb.utils.FileUtils;
+import apb.utils.ParallelUtils;
+import apb.utils.StringUtils;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -56,6 +60,26 @@ public class CopyTask
 
     @NotNull protected final List<FileSet> from;
 
+    /**
+     * The maximum number of threads to use when copying to a directory
+     */
+    private int threads;
+
+    /**
+     * Patterns for the names of the files to be hard linked instead of copied
+     */
+    @NotNull private final List<String> linkPatterns;
+
+    /**
+     * Whether to compare the content of the files, leaving identical targets untouched
+     */
+    private boolean checkContent;
+
+    /**
+     * The journal with the digests of the files, when checking content
+     */
+    @Nullable private CopyJournal journal;
+
     //~ Constructors .........................................................................................
 
     protected CopyTask(@NotNull List<FileSet> fileSets, @NotNull File to)
@@ -63,6 +87,8 @@ public class CopyTask
         from = fileSets;
         this.to = to;
         singleSource = extractSingleFile();
+        threads = ParallelUtils.defaultThreads();
+        linkPatterns = new ArrayList<String>();
     }
 
     //~ Methods ..............................................................................................
@@ -72,25 +98,128 @@ public class CopyTask
      */
     public void execute()
     {
-        if (singleSource == null) {
-            copyToDirectory();
+        final File targetDir = singleSource == null || to.isDirectory() ? to : to.getParentFile();
+        journal = checkContent ? new CopyJournal(CopyJournal.journalFile(targetDir)) : null;
+
+        if (journal != null) {
+            journal.load();
+        }
+
+        try {
+            if (singleSource == null) {
+                copyToDirectory();
+            }
+            else {
+                copyToFile(singleSource);
+            }
         }
-        else {
-            copyToFile(singleSource);
+        finally {
+            saveJournal();
         }
     }
 
+    /**
+     * Compare the content of the source and target files before copying.
+     * Targets with the same size and content (digest) than the source are left untouched,
+     * even if the source is newer, so tasks depending on them are not triggered.
+     * The digests are cached in a journal file next to the target directory.
+     * @param b true to compare the content of the files
+     */
+    @NotNull public CopyTask checkingContent(boolean b)
+    {
+        checkContent = b;
+        return this;
+    }
+
+    /**
+     * Specify the maximum number of threads to use when copying many files to a directory
+     * @param n The number of threads, 1 means copy sequentially
+     */
+    @NotNull public CopyTask usingThreads(int n)
+    {
+        threads = n;
+        return this;
+    }
+
+    /**
+     * Create hard links instead of copying the files whose name match any of the specified patterns.
+     * This is only intended for read-only inputs (like library jars), because changes
+     * to the target will be visible in the source.
+     * If a link cannot be created the file is copied.
+     * @param patterns The patterns to match the file names against. (i.e. "*.jar")
+     */
+    @NotNull public CopyTask linking(@NotNull String... patterns)
+    {
+        linkPatterns.addAll(Arrays.asList(patterns));
+        return this;
+    }
+
+    /**
+     * The journal file used when checking the content of the files copied to the specified directory
+     * @param targetDir The target directory of the copy
+     */
+    @NotNull public static File journalFile(@NotNull File targetDir)
+    {
+        return CopyJournal.journalFile(targetDir);
+    }
+
     protected void doCopyFile(File sourceFile, File dest)
         throws IOException
     {
+        if (journal != null && journal.sameContent(sourceFile, dest)) {
+            logVerbose("Unchanged %s\n", dest);
+            return;
+        }
+
+        if (mustLink(sourceFile) && FileUtils.hardLink(sourceFile, dest)) {
+            if (env.isVerbose()) {
+                logVerbose("Link %s\n", sourceFile);
+                logVerbose("  to %s\n", dest);
+            }
+
+            return;
+        }
+
         if (env.isVerbose()) {
             logVerbose("Copy %s\n", sourceFile);
             logVerbose("  to %s\n", dest);
         }
 
+        // Do not write through a previous link
+        if (!linkPatterns.isEmpty()) {
+            dest.delete();
+        }
+
         FileUtils.copyFile(sourceFile, dest, false);
     }
 
+    /**
+     * Whether files can be copied concurrently by this task
+     */
+    protected boolean supportsParallelCopy()
+    {
+        return true;
+    }
+
+    /**
+     * The journal with the digests of the files, or null if the content is not being checked
+     */
+    @Nullable CopyJournal getJournal()
+    {
+        return journal;
+    }
+
+    private boolean mustLink(File sourceFile)
+    {
+        for (String pattern : linkPatterns) {
+            if (StringUtils.match(pattern, sourceFile.getName(), true)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private void copyToFile(@NotNull final File sourceFile)
     {
         final File dest = to.isDirectory() ? new File(to, sourceFile.getName()) : to;
@@ -137,12 +266,53 @@ public class CopyTask
 
             env.logInfo("Copying %2d file%s\nto %s\n", files.size(), files.size() > 1 ? "s" : "", to);
 
-            for (Map.Entry<File, File> entry : files.entrySet()) {
-                copyFile(entry.getKey(), entry.getValue());
+            if (threads <= 1 || files.size() < PARALLEL_THRESHOLD || !supportsParallelCopy()) {
+                for (Map.Entry<File, File> entry : files.entrySet()) {
+                    copyFile(entry.getKey(), entry.getValue());
+                }
+            }
+            else {
+                copyInParallel(files);
+            }
+        }
+    }
+
+    private void saveJournal()
+    {
+        if (journal != null) {
+            try {
+                journal.save();
+            }
+            catch (IOException e) {
+                env.handle(e);
             }
         }
     }
 
+    private void copyInParallel(Map<File, File> files)
+    {
+        List<Callable<Void>> jobs = new ArrayList<Callable<Void>>(files.size());
+
+        for (final Map.Entry<File, File> entry : files.entrySet()) {
+            jobs.add(new Callable<Void>() {
+                    public Void call()
+                    {
+                        copyFile(entry.getKey(), entry.getValue());
+                        return null;
+                    }
+                });
+        }
+
+        ParallelUtils.run(threads, jobs);
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    /**
+     * Below this number of files, copying in parallel is not worth it
+     */
+    private static final int PARALLEL_THRESHOLD = 32;
+
     //~ Inner Classes ........................................................................................
 
     public static class Builder
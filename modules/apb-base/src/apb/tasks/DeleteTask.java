@@ -18,9 +18,15 @@ package apb.tasks;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+
+import apb.BuildException;
 
 import apb.utils.FileUtils;
+import apb.utils.ParallelUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 //
@@ -36,6 +42,16 @@ public class DeleteTask
     @Nullable private File          file;
     @Nullable private List<FileSet> fileSets;
 
+    /**
+     * The maximum number of threads to use when deleting a directory
+     */
+    private int threads = ParallelUtils.defaultThreads();
+
+    /**
+     * Whether to rename the directory and delete it in the background
+     */
+    private boolean background;
+
     //~ Constructors .........................................................................................
 
     DeleteTask(@NotNull File file)
@@ -68,7 +84,7 @@ public class DeleteTask
 
             if (f.isDirectory()) {
                 env.logInfo("Deleting directory %s\n", f.getAbsolutePath());
-                ok = removeDir(f);
+                ok = background ? removeInBackground(f) : removeDir(f);
             }
             else if (f.isFile()) {
                 ok = removeFile(f);
@@ -80,6 +96,32 @@ public class DeleteTask
         }
     }
 
+    /**
+     * Specify the maximum number of threads to use when deleting directories
+     * Different subtrees are deleted concurrently.
+     * @param n The number of threads, 1 means delete sequentially
+     */
+    @NotNull public DeleteTask usingThreads(int n)
+    {
+        threads = n;
+        return this;
+    }
+
+    /**
+     * Delete directories in the background. Defaults to false.
+     * The directory is first renamed, so it is immediately gone from its original location,
+     * and then it is deleted by a separate thread.
+     * The jvm will not exit until the deletion is completed.
+     * Leftovers from previous background deletions that did not complete are also removed.
+     * If the directory cannot be renamed it is deleted as usual.
+     * @param b true to delete in the background
+     */
+    @NotNull public DeleteTask inBackground(boolean b)
+    {
+        background = b;
+        return this;
+    }
+
     private static boolean isSymbolicLink(File file)
     {
         final File parent = FileUtils.normalizeFile(file).getParentFile();
@@ -100,29 +142,113 @@ public class DeleteTask
         return f.delete();
     }
 
+    private boolean removeInBackground(File d)
+    {
+        final File       parent = d.getAbsoluteFile().getParentFile();
+        final String     prefix = "." + d.getName() + TRASH_SUFFIX;
+        final File       trash = new File(parent, prefix + System.currentTimeMillis());
+        final List<File> dirs = new ArrayList<File>();
+
+        if (!d.renameTo(trash)) {
+            return removeDir(d);
+        }
+
+        // Pick up leftovers from previous runs too
+        for (String name : parent.list()) {
+            if (name.startsWith(prefix)) {
+                dirs.add(new File(parent, name));
+            }
+        }
+
+        final Thread thread =
+            new Thread("apb-delete-" + d.getName()) {
+                @Override public void run()
+                {
+                    for (File dir : dirs) {
+                        try {
+                            removeDir(dir);
+                        }
+                        catch (BuildException e) {
+                            env.logWarning("Unable to delete %s: %s\n", dir.getAbsolutePath(), e.getMessage());
+                        }
+                    }
+                }
+            };
+
+        // Not a daemon, so the jvm waits for it before exiting
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Remove a directory.
+     * The tree is split in subtrees that are deleted concurrently
+     */
     private boolean removeDir(File d)
     {
-        // If it is a symbolic link, then dont recurse, just delete it
-        if (!isSymbolicLink(d)) {
-            String[] list = d.list();
+        if (threads <= 1 || isSymbolicLink(d)) {
+            return removeTree(d);
+        }
+
+        final List<File>       expanded = new ArrayList<File>();
+        final LinkedList<File> subtrees = new LinkedList<File>();
+        subtrees.add(d);
+
+        // Expand the tree breadth first until there are enough subtrees to feed all the threads
+        while (!subtrees.isEmpty() && subtrees.size() < threads * SUBTREES_PER_THREAD) {
+            final File dir = subtrees.removeFirst();
+
+            // If it is a symbolic link, then dont recurse, just delete it
+            if (isSymbolicLink(dir)) {
+                dir.delete();
+            }
+            else {
+                expanded.add(dir);
 
-            if (list == null) {
-                list = new String[0];
+                for (File f : listFiles(dir)) {
+                    if (f.isDirectory()) {
+                        subtrees.add(f);
+                    }
+                    else {
+                        deleteFile(f);
+                    }
+                }
             }
+        }
+
+        final List<Callable<Boolean>> jobs = new ArrayList<Callable<Boolean>>();
+
+        for (final File subtree : subtrees) {
+            jobs.add(new Callable<Boolean>() {
+                    public Boolean call()
+                    {
+                        logVerbose("Deleting directory %s\n", subtree.getAbsolutePath());
+                        return removeTree(subtree);
+                    }
+                });
+        }
 
-            for (String s : list) {
-                File f = new File(d, s);
+        ParallelUtils.run(threads, jobs);
 
+        // Now remove the (already empty) expanded directories, deepest first
+        for (int i = expanded.size() - 1; i > 0; i--) {
+            expanded.get(i).delete();
+        }
+
+        return d.delete();
+    }
+
+    private boolean removeTree(File d)
+    {
+        // If it is a symbolic link, then dont recurse, just delete it
+        if (!isSymbolicLink(d)) {
+            for (File f : listFiles(d)) {
                 if (f.isDirectory()) {
                     logVerbose("Deleting directory %s\n", f.getAbsolutePath());
-                    removeDir(f);
+                    removeTree(f);
                 }
                 else {
-                    logVerbose("Deleting: %s\n", f.getAbsolutePath());
-
-                    if (!f.delete()) {
-                        env.handle("Unable to delete file " + f.getAbsolutePath());
-                    }
+                    deleteFile(f);
                 }
             }
         }
@@ -130,6 +256,21 @@ public class DeleteTask
         return d.delete();
     }
 
+    private void deleteFile(File f)
+    {
+        logVerbose("Deleting: %s\n", f.getAbsolutePath());
+
+        if (!f.delete()) {
+            env.handle("Unable to delete file " + f.getAbsolutePath());
+        }
+    }
+
+    @NotNull private static File[] listFiles(File d)
+    {
+        final File[] files = d.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
     private boolean removePattern(FileSet d)
     {
         final File dir = d.getDir();
@@ -154,4 +295,13 @@ public class DeleteTask
 
         return true;
     }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String TRASH_SUFFIX = ".deleted-";
+
+    /**
+     * The number of subtrees per thread to split a directory in, to balance the work
+     */
+    private static final int SUBTREES_PER_THREAD = 4;
 }
@@ -18,15 +18,26 @@
 
 package apb.tasks;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.TimeZone;
@@ -45,8 +56,13 @@ import apb.utils.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 
+import static apb.Constants.DOWNLOADS_DIR;
+import static apb.Constants.UTF8;
+
 import static apb.utils.FileUtils.validateDirectory;
 import static apb.utils.StringUtils.nChars;
 
@@ -64,6 +80,21 @@ public class DownloadTask
 
     @Nullable private URLConnection connection;
 
+    /**
+     * Connect and read timeout in milliseconds, 0 means no timeout
+     */
+    private int timeout;
+
+    /**
+     * Whether the source could not be reached
+     */
+    private boolean unreachable;
+
+    /**
+     * Whether a source that does not exist is not an error
+     */
+    private boolean ignoreMissing;
+
     //~ Constructors .........................................................................................
 
     /**
@@ -132,8 +163,31 @@ public class DownloadTask
         return this;
     }
 
+    /**
+     * Set the timeout used when connecting to and reading from the source
+     * @param millis The timeout in milliseconds, 0 means wait forever
+     */
+    public DownloadTask withTimeout(int millis)
+    {
+        timeout = millis;
+        return this;
+    }
+
+    /**
+     * Do not fail if the source does not exist, leaving the destination untouched.
+     * Defaults to false.
+     * @param b true to ignore a missing source
+     */
+    public DownloadTask ignoringMissing(boolean b)
+    {
+        ignoreMissing = b;
+        return this;
+    }
+
     /**
      * Execute the download task
+     * If the source cannot be reached but there is a local copy of the file
+     * (and the update policy is not FORCE), the local copy is kept and only a warning is issued.
      */
     public void execute()
     {
@@ -147,12 +201,45 @@ public class DownloadTask
             }
         }
         catch (UnknownHostException e) {
-            env.handle("Unknown Host: " + e.getMessage());
+            unreachable = true;
+
+            if (!keepLocalCopy()) {
+                env.handle("Unknown Host: " + e.getMessage());
+            }
+        }
+        catch (FileNotFoundException e) {
+            if (!ignoreMissing) {
+                env.logSevere("Error downloading '%s' to '%s'\n", source, dest);
+                env.handle(e);
+            }
         }
         catch (IOException e) {
-            env.logSevere("Error downloading '%s' to '%s'\n", source, dest);
-            env.handle(e);
+            unreachable = e instanceof SocketException || e instanceof SocketTimeoutException;
+
+            if (!unreachable || !keepLocalCopy()) {
+                env.logSevere("Error downloading '%s' to '%s'\n", source, dest);
+                env.handle(e);
+            }
+        }
+    }
+
+    /**
+     * Whether the last execution failed because the source could not be reached
+     */
+    public boolean isUnreachable()
+    {
+        return unreachable;
+    }
+
+    private boolean keepLocalCopy()
+    {
+        final boolean result = dest.length() > 0 && !updatePolicy.equals(UpdatePolicy.FORCE);
+
+        if (result) {
+            env.logWarning("Cannot reach '%s', using the local copy.\n", source);
         }
+
+        return result;
     }
 
     private long getMDTM(@NotNull File file)
@@ -185,13 +272,43 @@ public class DownloadTask
         URLConnection c = getConnection();
         c.connect();
 
-        //next test for a 304 result (HTTP only)
-        // See if it is an ftp connection
+        boolean resume = false;
+
+        // See if it is an http connection
         if (c instanceof HttpURLConnection) {
+            final int code = ((HttpURLConnection) c).getResponseCode();
+
             // test for 401 result (HTTP only)
-            if (((HttpURLConnection) c).getResponseCode() == HTTP_UNAUTHORIZED) {
+            if (code == HTTP_UNAUTHORIZED) {
                 throw new BuildException("HTTP Authorization failure");
             }
+
+            if (code == HTTP_NOT_FOUND && ignoreMissing) {
+                logVerbose("Not found: %s\n", source);
+                return;
+            }
+
+            // The partial file cannot be resumed, discard it and start again from scratch
+            if (code == HTTP_RANGE_NOT_SATISFIABLE && getPartFile().length() > 0) {
+                logVerbose("Cannot resume download, restarting it\n");
+                getPartFile().delete();
+                getValidatorFile().delete();
+                ((HttpURLConnection) c).disconnect();
+                connection = null;
+                download();
+                return;
+            }
+
+            resume = code == HTTP_PARTIAL;
+
+            if (resume) {
+                if (!resumesPart(c)) {
+                    getPartFile().delete();
+                    throw new IOException("Unexpected range: " + c.getHeaderField("Content-Range"));
+                }
+
+                logVerbose("Resuming download at byte %d\n", getPartFile().length());
+            }
         }
 
         InputStream is = openInputStream(c);
@@ -200,10 +317,20 @@ public class DownloadTask
             env.handle("Can not download " + source + " to " + dest);
         }
         else {
-            download(is, c.getContentLength());
+            saveValidator(c);
+            download(is, c.getContentLength(), resume);
         }
     }
 
+    /**
+     * Check that a partial response starts where the partial file ends
+     */
+    private boolean resumesPart(URLConnection c)
+    {
+        final String range = c.getHeaderField("Content-Range");
+        return range != null && range.startsWith(BYTES_UNIT + " " + getPartFile().length() + "-");
+    }
+
     private boolean uptodate()
         throws IOException
     {
@@ -226,7 +353,8 @@ public class DownloadTask
             return true;
         }
 
-        final boolean uptodate = destTime >= getSourceTime();
+        final boolean uptodate =
+            getConnection() instanceof HttpURLConnection ? notModified() : destTime >= getSourceTime();
 
         if (uptodate) {
             dest.setLastModified(now);
@@ -235,6 +363,25 @@ public class DownloadTask
         return uptodate;
     }
 
+    /**
+     * The connection was opened with a conditional request (If-Modified-Since / If-None-Match),
+     * so the server answers with a 304 if the local file is up to date, or with the new content
+     * in the same round trip.
+     */
+    private boolean notModified()
+        throws IOException
+    {
+        final HttpURLConnection c = (HttpURLConnection) getConnection();
+        final boolean           result = c.getResponseCode() == HTTP_NOT_MODIFIED;
+
+        if (result) {
+            logVerbose("Remote file not modified\n");
+            c.disconnect();
+        }
+
+        return result;
+    }
+
     private long getSourceTime()
         throws IOException
     {
@@ -248,14 +395,19 @@ public class DownloadTask
         return result;
     }
 
-    private void download(InputStream is, int size)
+    /**
+     * Download to the partial file, appending to it when resuming.
+     * Once completed the partial file replaces the destination one.
+     * If the download fails the partial file is kept, so it can be resumed later.
+     */
+    private void download(InputStream is, int size, boolean resume)
         throws IOException
     {
         DownloadProgress progress = new DownloadProgress(env);
 
-        FileOutputStream fos = new FileOutputStream(dest);
+        final File       part = getPartFile();
+        FileOutputStream fos = new FileOutputStream(part, resume);
         progress.begin(size);
-        boolean finished = false;
 
         try {
             byte[] buffer = new byte[BUFFER_SIZE];
@@ -265,24 +417,103 @@ public class DownloadTask
                 fos.write(buffer, 0, length);
                 progress.advance(length);
             }
-
-            finished = true;
         }
         finally {
             StreamUtils.close(fos);
             StreamUtils.close(is);
+        }
 
-            // we have started to (over)write dest, but failed.
-            // Try to delete the garbage we'd otherwise leave
-            // behind.
-            if (!finished) {
-                dest.delete();
-            }
+        if ((dest.exists() && !dest.delete()) || !part.renameTo(dest)) {
+            FileUtils.copyFile(part, dest, false);
+            part.delete();
         }
 
         progress.end();
     }
 
+    /**
+     * The file used to store the content while it is being downloaded
+     */
+    @NotNull public File getPartFile()
+    {
+        return new File(dest.getPath() + PART_EXT);
+    }
+
+    /**
+     * The file where the validator (ETag or Last-Modified) of the remote file is kept.
+     * It is used to make conditional requests and to safely resume downloads.
+     * Validators are kept in the apb directory, named after the source and the destination,
+     * so nothing but the downloaded file is left in the destination directory.
+     */
+    @NotNull public File getValidatorFile()
+    {
+        final File dir = new File(FileUtils.getApbDir(), DOWNLOADS_DIR);
+
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update((source + "\n" + dest.getAbsolutePath()).getBytes(UTF8));
+            return new File(dir, StringUtils.encodeHex(md.digest()) + VALIDATOR_EXT);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new BuildException(e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    @Nullable private String readValidator()
+    {
+        final File file = getValidatorFile();
+
+        if (file.exists()) {
+            BufferedReader reader = null;
+
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+                final String result = reader.readLine();
+                return StringUtils.isEmpty(result) ? null : result;
+            }
+            catch (IOException e) {
+                // Just ignore it
+            }
+            finally {
+                StreamUtils.close(reader);
+            }
+        }
+
+        return null;
+    }
+
+    private void saveValidator(URLConnection c)
+        throws IOException
+    {
+        if (c instanceof HttpURLConnection) {
+            String validator = c.getHeaderField("ETag");
+
+            if (validator == null) {
+                validator = c.getHeaderField("Last-Modified");
+            }
+
+            final File file = getValidatorFile();
+
+            if (validator == null) {
+                file.delete();
+            }
+            else {
+                PrintWriter writer = null;
+
+                try {
+                    writer = new PrintWriter(new OutputStreamWriter(FileUtils.createOutputStream(file), UTF8));
+                    writer.println(validator);
+                }
+                finally {
+                    StreamUtils.close(writer);
+                }
+            }
+        }
+    }
+
     private InputStream openInputStream(URLConnection c)
     {
         for (int i = 0; i < NUMBER_RETRIES; i++) {
@@ -306,23 +537,65 @@ public class DownloadTask
             //set up the URL connection
             c = source.openConnection();
 
+            if (timeout > 0) {
+                c.setConnectTimeout(timeout);
+                c.setReadTimeout(timeout);
+            }
+
             // prepare Java 1.1 style credentials
             if (!user.isEmpty() || !password.isEmpty()) {
                 String encoding = StringUtils.encodeBase64((user + ":" + password).getBytes());
                 c.setRequestProperty("Authorization", "Basic " + encoding);
             }
 
+            if (c instanceof HttpURLConnection) {
+                prepareRequest(c);
+            }
+
             connection = c;
         }
 
         return c;
     }
 
+    /**
+     * Add the headers to resume a partial download,
+     * or to only get the content if it was modified since it was downloaded.
+     */
+    private void prepareRequest(URLConnection c)
+    {
+        final File   part = getPartFile();
+        final String validator = readValidator();
+
+        if (part.length() > 0 && validator != null) {
+            c.setRequestProperty("Range", BYTES_UNIT + "=" + part.length() + "-");
+            c.setRequestProperty("If-Range", validator);
+        }
+        else if (dest.exists() && !updatePolicy.equals(UpdatePolicy.FORCE)) {
+            c.setIfModifiedSince(dest.lastModified());
+
+            if (validator != null && isEntityTag(validator)) {
+                c.setRequestProperty("If-None-Match", validator);
+            }
+        }
+    }
+
+    private static boolean isEntityTag(String validator)
+    {
+        return validator.startsWith("\"") || validator.startsWith("W/");
+    }
+
     //~ Static fields/initializers ...........................................................................
 
     private static final long DOTS_PER_LINE = 50;
     private static final int  NUMBER_RETRIES = 3;
     private static final int  BUFFER_SIZE = 100 * 1024;
+    private static final int  HTTP_PARTIAL = 206;
+    private static final int  HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final String PART_EXT = ".part";
+    private static final String VALIDATOR_EXT = ".etag";
+    private static final String BYTES_UNIT = "bytes";
 
     //~ Inner Classes ........................................................................................
 
@@ -50,6 +50,7 @@ public class ExecTask
     @NotNull private final List<String>        args;
     @Nullable private List<String>             output;
     @NotNull private final Map<String, String> environment;
+    @Nullable private volatile Process         process;
 
     /**
      * The command to be executed
@@ -78,6 +79,7 @@ public class ExecTask
 
         try {
             p = createProcess();
+            process = p;
 
             loggerThread = redirectErrorStream ? null : logStream(p.getErrorStream(), true, true);
 
@@ -114,6 +116,18 @@ public class ExecTask
         return exitValue;
     }
 
+    /**
+     * Kill the process started by the task, if it is running
+     */
+    public void destroy()
+    {
+        final Process p = process;
+
+        if (p != null) {
+            p.destroy();
+        }
+    }
+
     public ExecTask outputTo(@NotNull List<String> o)
     {
         output = o;
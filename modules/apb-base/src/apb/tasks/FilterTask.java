@@ -52,6 +52,11 @@ public class FilterTask
 
     @NotNull private String encoding = ResourcesInfo.DEFAULT_ENCODING;
 
+    /**
+     * The filters combined into a single one when executing the task
+     */
+    @NotNull private List<Filter> combinedFilters;
+
     //~ Constructors .........................................................................................
 
     FilterTask(@NotNull List<FileSet> from, @NotNull File to)
@@ -67,6 +72,7 @@ public class FilterTask
         filters = new ArrayList<Filter>();
         linesToInsert = new ArrayList<String>();
         linesToAppend = new ArrayList<String>();
+        combinedFilters = filters;
     }
 
     //~ Methods ..............................................................................................
@@ -82,6 +88,12 @@ public class FilterTask
         return this;
     }
 
+    @NotNull @Override public FilterTask checkingContent(boolean b)
+    {
+        super.checkingContent(b);
+        return this;
+    }
+
     /**
     * When filtering replaces each substring of the input that matches the given <a
     * href="../util/regex/Pattern.html#sum">regular expression</a> with the
@@ -121,14 +133,24 @@ public class FilterTask
         return this;
     }
 
-    @Override protected void doCopyFile(File source, File dest)
-        throws IOException
+    /**
+     * Execute the filtering
+     */
+    @Override public void execute()
     {
         // By default filter expanding properties
         if (filters.isEmpty()) {
             filters.add(Filter.Factory.expandProperties(env));
         }
 
+        // Compile all the filters once for the whole task
+        combinedFilters = singletonList(Filter.Factory.combine(filters));
+        super.execute();
+    }
+
+    @Override protected void doCopyFile(File source, File dest)
+        throws IOException
+    {
         if (isVerbose()) {
             logVerbose("Filtering %s\n", source);
             logVerbose("       to %s\n", dest);
@@ -138,9 +160,46 @@ public class FilterTask
             }
         }
 
-        FileUtils.copyFileFiltering(source, dest, false, encoding, filters, linesToInsert, linesToAppend);
+        final CopyJournal journal = getJournal();
+
+        if (journal == null) {
+            FileUtils.copyFileFiltering(source, dest, false, encoding, combinedFilters, linesToInsert,
+                                        linesToAppend);
+        }
+        else {
+            filterIfChanged(source, dest, journal);
+        }
+    }
+
+    /**
+     * Filter to a temporary file and only replace the target if the result is different
+     */
+    private void filterIfChanged(File source, File dest, @NotNull CopyJournal journal)
+        throws IOException
+    {
+        final File tmp = new File(dest.getPath() + TMP_EXT);
+
+        try {
+            FileUtils.copyFileFiltering(source, tmp, false, encoding, combinedFilters, linesToInsert,
+                                        linesToAppend);
+
+            if (journal.sameContent(tmp, dest)) {
+                logVerbose("Unchanged %s\n", dest);
+            }
+            else if ((dest.exists() && !dest.delete()) || !tmp.renameTo(dest)) {
+                FileUtils.copyFile(tmp, dest, false);
+            }
+        }
+        finally {
+            journal.forget(tmp);
+            tmp.delete();
+        }
     }
 
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String TMP_EXT = ".tmp";
+
     //~ Inner Classes ........................................................................................
 
     public static class Builder
@@ -19,20 +19,31 @@
 package apb.tasks;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -46,12 +57,17 @@ import java.util.zip.ZipOutputStream;
 import apb.BuildException;
 import apb.Messages;
 
+import apb.metadata.DuplicateRule;
+
 import apb.utils.FileUtils;
+import apb.utils.StringUtils;
 
 import org.jetbrains.annotations.NotNull;
 
 import static java.util.Arrays.asList;
 
+import static apb.Constants.UTF8;
+
 import static apb.utils.StringUtils.isNotEmpty;
 //
 // User: emilio
@@ -67,20 +83,45 @@ public class JarTask
     private final boolean doCompress = true;
     private final File    jarFile;
 
+    /**
+     * Whether to generate a byte for byte reproducible archive
+     */
+    private boolean reproducible;
+
     private final int                         level = Deflater.DEFAULT_COMPRESSION;
     private final List<FileSet>               sources;
+
+    /**
+     * The path inside the jar where the files of a FileSet are placed (When not the root)
+     */
+    @NotNull private final Map<FileSet, String> paths;
     @NotNull private Manifest                 manifest;
     @NotNull private Map<String, Set<String>> services;
 
     private String comment;
 
+    /**
+     * Jars whose entries will be copied into this one
+     */
+    @NotNull private List<File> includedJars;
+
+    /**
+     * Rules to apply when an entry from an included jar is already present
+     */
+    @NotNull private Map<String, DuplicateRule> duplicateRules;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
     //~ Constructors .........................................................................................
 
     private JarTask(@NotNull File jarFile, @NotNull List<FileSet> sources)
     {
         this.jarFile = jarFile;
-        this.sources = sources;
+        this.sources = new ArrayList<FileSet>(sources);
+        paths = new HashMap<FileSet, String>();
         services = Collections.emptyMap();
+        includedJars = Collections.emptyList();
+        duplicateRules = Collections.emptyMap();
         manifest = new Manifest();
         manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
         manifest.getMainAttributes().putValue("Created-By", "APB");
@@ -161,17 +202,75 @@ public class JarTask
         manifest = new Manifest(is);
     }
 
+    /**
+     * Generate a reproducible archive.
+     * Entries are sorted, all of them get the same fixed timestamp and manifest and service files
+     * are written in a deterministic order.
+     * A digest of the inputs is kept next to the jar file (See {@link #getDigestFile()})
+     * so the jar is not rewritten when its contents have not changed.
+     * @param b true if the archive must be reproducible
+     */
+    public JarTask reproducible(boolean b)
+    {
+        reproducible = b;
+        return this;
+    }
+
+    /**
+     * Returns the file where the digest of the inputs is stored when building a reproducible archive
+     */
+    @NotNull public File getDigestFile()
+    {
+        return new File(jarFile.getPath() + DIGEST_EXT);
+    }
+
+    /**
+     * Add the files defined by the specified filesets under the given path inside the jar
+     * @param path The path inside the jar. For example: WEB-INF/classes
+     * @param fileSets The filesets to add
+     */
+    public JarTask includingAt(@NotNull String path, @NotNull List<FileSet> fileSets)
+    {
+        final String prefix = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+
+        for (FileSet fileSet : fileSets) {
+            sources.add(fileSet);
+            paths.put(fileSet, prefix);
+        }
+
+        return this;
+    }
+
     public void execute()
     {
-        long                    jarTimeStamp = checkJarFile();
-        Map<File, List<String>> files = new LinkedHashMap<File, List<String>>();
+        long                       jarTimeStamp = checkJarFile();
+        Map<FileSet, List<String>> files = new LinkedHashMap<FileSet, List<String>>();
 
         for (FileSet fileSet : sources) {
-            files.put(fileSet.getDir(), fileSet.list());
+            final List<String> list = fileSet.list();
+
+            if (reproducible) {
+                Collections.sort(list);
+            }
+
+            files.put(fileSet, list);
         }
 
-        if (!uptodate(jarTimeStamp, files)) {
-            buildJar(files);
+        if (!reproducible) {
+            if (!uptodate(jarTimeStamp, files)) {
+                buildJar(files);
+            }
+        }
+        else {
+            final File digestFile = getDigestFile();
+
+            if (jarTimeStamp != -1) {
+                jarTimeStamp = Math.max(jarTimeStamp, digestFile.lastModified());
+            }
+
+            if (!uptodate(jarTimeStamp, files)) {
+                buildReproducibleJar(files, digestFile);
+            }
         }
     }
 
@@ -187,18 +286,96 @@ public class JarTask
         return this;
     }
 
+    /**
+     * Copy the entries of the specified jars into this one.
+     * Entries are streamed directly from the jars, nothing is extracted.
+     * Manifests and signature files are skipped, services files are ignored too
+     * and must be merged by using {@link #withServices(java.util.Map)}. (See {@link #readServices(java.io.File)})
+     * @param jars The jars to include
+     */
+    public JarTask includingJars(@NotNull List<File> jars)
+    {
+        includedJars = jars;
+        return this;
+    }
+
+    /**
+     * The rules to apply when an entry from an included jar is already present.
+     * The key of the map is a pattern matched against the entry name, the first matching one is used.
+     * If none matches {@link DuplicateRule#WARN} is applied.
+     * @param rules The rules
+     */
+    public JarTask withDuplicateRules(@NotNull Map<String, DuplicateRule> rules)
+    {
+        duplicateRules = rules;
+        return this;
+    }
+
+    /**
+     * Read the services (META-INF/services) defined in a jar file
+     * @param jar The jar file
+     * @return A map from service to the set of providers for it
+     */
+    public static Map<String, Set<String>> readServices(@NotNull File jar)
+        throws IOException
+    {
+        final Map<String, Set<String>> result = new LinkedHashMap<String, Set<String>>();
+        final JarFile                  jarFile = new JarFile(jar, false);
+
+        try {
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                final String name = entry.getName();
+
+                if (!entry.isDirectory() && name.startsWith(SERVICES_DIR)) {
+                    final Set<String>    providers = new LinkedHashSet<String>();
+                    final BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(jarFile.getInputStream(entry), UTF8));
+
+                    try {
+                        String line;
+
+                        while ((line = reader.readLine()) != null) {
+                            final int comment = line.indexOf('#');
+                            line = (comment == -1 ? line : line.substring(0, comment)).trim();
+
+                            if (!line.isEmpty()) {
+                                providers.add(line);
+                            }
+                        }
+                    }
+                    finally {
+                        reader.close();
+                    }
+
+                    result.put(name.substring(SERVICES_DIR.length()), providers);
+                }
+            }
+        }
+        finally {
+            jarFile.close();
+        }
+
+        return result;
+    }
+
     /**
      * Check if the jar file is uptodate.
-     * (The timestamp for all files is lower than the jar one)
+     * (The timestamp for all files and included jars is lower than the jar one)
      * @param jarTimeStamp The timestamp for the jar file
      * @param files The set of files to add
      * @return true if the jar is 'uptodate'
      */
-    private static boolean uptodate(long jarTimeStamp, final Map<File, List<String>> files)
+    private boolean uptodate(long jarTimeStamp, final Map<FileSet, List<String>> files)
     {
-        for (File dir : files.keySet()) {
-            for (String fileName : files.get(dir)) {
-                File file = new File(dir, fileName);
+        for (File jar : includedJars) {
+            if (jar.lastModified() > jarTimeStamp) {
+                return false;
+            }
+        }
+
+        for (FileSet fileSet : files.keySet()) {
+            for (String fileName : files.get(fileSet)) {
+                File file = new File(fileSet.getDir(), fileName);
 
                 // Check timestamps
                 if (file.lastModified() > jarTimeStamp) {
@@ -224,7 +401,108 @@ public class JarTask
         return result;
     }
 
-    private void buildJar(Map<File, List<String>> files)
+    /**
+     * Build the jar only if the digest of the inputs differs from the one stored.
+     * If it does not, just touch the digest file so the timestamp check succeeds next time.
+     */
+    private void buildReproducibleJar(Map<FileSet, List<String>> files, File digestFile)
+    {
+        try {
+            manifest = sortedManifest(manifest);
+
+            final String digest = digest(files);
+
+            if (jarFile.exists() && digest.equals(readDigest(digestFile))) {
+                logVerbose("Contents unchanged for: %s\n", jarFile);
+                digestFile.setLastModified(System.currentTimeMillis());
+                return;
+            }
+
+            buildJar(files);
+
+            final FileOutputStream os = FileUtils.createOutputStream(digestFile);
+
+            try {
+                os.write(digest.getBytes(UTF8));
+            }
+            finally {
+                os.close();
+            }
+        }
+        catch (IOException ioe) {
+            digestFile.delete();
+            throw new BuildException("Problem creating: " + digestFile + " " + ioe.getMessage(), ioe);
+        }
+    }
+
+    private static String readDigest(File digestFile)
+        throws IOException
+    {
+        if (!digestFile.exists()) {
+            return "";
+        }
+
+        final FileInputStream is = new FileInputStream(digestFile);
+
+        try {
+            return FileUtils.toString(is).trim();
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Calculate a digest of everything that goes into the jar.
+     * (Entry names and contents, manifest, services and comment)
+     */
+    private String digest(Map<FileSet, List<String>> files)
+        throws IOException
+    {
+        final MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new BuildException(e);
+        }
+
+        final ByteArrayOutputStream mf = new ByteArrayOutputStream();
+        manifest.write(mf);
+        md.update(mf.toByteArray());
+        md.update(servicesContent().toString().getBytes(UTF8));
+
+        if (comment != null) {
+            md.update(comment.getBytes(UTF8));
+        }
+
+        for (FileSet fileSet : files.keySet()) {
+            for (String fileName : files.get(fileSet)) {
+                final File file = new File(fileSet.getDir(), fileName);
+
+                if (file.length() != 0 && !file.isDirectory()) {
+                    md.update(entryName(fileSet, fileName).getBytes(UTF8));
+                    md.update((byte) 0);
+                    FileUtils.updateDigest(md, file);
+                }
+            }
+        }
+
+        for (File jar : includedJars) {
+            md.update(jar.getName().getBytes(UTF8));
+            md.update((byte) 0);
+            FileUtils.updateDigest(md, jar);
+        }
+
+        for (Map.Entry<String, DuplicateRule> rule : duplicateRules.entrySet()) {
+            md.update((rule.getKey() + '=' + rule.getValue()).getBytes(UTF8));
+        }
+
+        return StringUtils.encodeHex(md.digest());
+    }
+
+    private void buildJar(Map<FileSet, List<String>> files)
     {
         try {
             env.logInfo("Building: %s\n", FileUtils.normalizePath(jarFile));
@@ -239,14 +517,20 @@ public class JarTask
                 Set<String> addedDirs = new HashSet<String>();
                 writeMetaInfEntries(jarOutputStream, addedDirs);
 
-                boolean writeManifest = true;
+                boolean     writeManifest = true;
+                Set<String> addedEntries = new HashSet<String>();
 
-                for (File dir : files.keySet()) {
-                    for (String fileName : files.get(dir)) {
-                        final File file = new File(dir, fileName);
+                for (FileSet fileSet : files.keySet()) {
+                    for (String fileName : files.get(fileSet)) {
+                        final File file = new File(fileSet.getDir(), fileName);
 
                         if (file.length() != 0 && !file.isDirectory()) {
-                            String normalizedName = fileName.replace(File.separatorChar, '/');
+                            String normalizedName = entryName(fileSet, fileName);
+
+                            if (!addedEntries.add(normalizedName)) {
+                                logVerbose("Skipping duplicated entry... %s\n", normalizedName);
+                                continue;
+                            }
 
                             if (JarFile.MANIFEST_NAME.equalsIgnoreCase(normalizedName)) {
                                 env.logWarning(Messages.MANIFEST_OVERRIDE(file.getPath()));
@@ -258,6 +542,10 @@ public class JarTask
                     }
                 }
 
+                for (File jar : includedJars) {
+                    copyJarEntries(jarOutputStream, jar, addedEntries, addedDirs);
+                }
+
                 if (writeManifest) {
                     writeManifest(jarOutputStream);
                 }
@@ -267,6 +555,10 @@ public class JarTask
             }
             finally {
                 closeJar(jarOutputStream, success);
+
+                if (!success) {
+                    jarFile.delete();
+                }
             }
         }
         catch (IOException ioe) {
@@ -275,6 +567,13 @@ public class JarTask
         }
     }
 
+    private String entryName(FileSet fileSet, String fileName)
+    {
+        final String path = paths.get(fileSet);
+        final String name = fileName.replace(File.separatorChar, '/');
+        return path == null ? name : path + name;
+    }
+
     private JarOutputStream openJar()
         throws IOException
     {
@@ -310,28 +609,131 @@ public class JarTask
                             Set<String> addedDirs)
         throws IOException
     {
+        JarEntry entry = new JarEntry(fileName);
+        setTime(entry);
+        writeToJar(jarOut, entry, is, addedDirs);
+    }
+
+    private void writeToJar(JarOutputStream jarOut, final JarEntry entry, final InputStream is,
+                            Set<String> addedDirs)
+        throws IOException
+    {
+        final String fileName = entry.getName();
         writeParentDirs(jarOut, fileName, addedDirs);
 
         logVerbose("Adding entry... %s\n", fileName);
 
-        JarEntry entry = new JarEntry(fileName);
         jarOut.putNextEntry(entry);
 
-        byte[] arr = new byte[1024];
-        int    n;
+        try {
+            int n;
 
-        while ((n = is.read(arr)) > 0) {
-            jarOut.write(arr, 0, n);
+            while ((n = is.read(buffer)) > 0) {
+                jarOut.write(buffer, 0, n);
+            }
+        }
+        finally {
+            is.close();
         }
 
-        is.close();
         jarOut.flush();
     }
 
+    /**
+     * Stream the entries of a jar into the one being built.
+     * Stored entries are kept stored, so their data is copied without being recompressed.
+     */
+    private void copyJarEntries(JarOutputStream jarOut, File jar, Set<String> addedEntries,
+                                Set<String> addedDirs)
+        throws IOException
+    {
+        logVerbose("Including jar... %s\n", jar);
+        final JarFile in = new JarFile(jar, false);
+
+        try {
+            for (JarEntry entry : Collections.list(in.entries())) {
+                final String name = entry.getName();
+
+                if (entry.isDirectory()) {
+                    writeParentDirs(jarOut, name, addedDirs);
+                }
+                else if (!skipIncludedEntry(name) && !isDuplicated(jar, name, addedEntries)) {
+                    final JarEntry target = new JarEntry(name);
+
+                    if (reproducible) {
+                        setTime(target);
+                    }
+                    else if (entry.getTime() != -1) {
+                        target.setTime(entry.getTime());
+                    }
+
+                    if (entry.getMethod() == ZipEntry.STORED) {
+                        target.setMethod(ZipEntry.STORED);
+                        target.setSize(entry.getSize());
+                        target.setCompressedSize(entry.getSize());
+                        target.setCrc(entry.getCrc());
+                    }
+
+                    writeToJar(jarOut, target, in.getInputStream(entry), addedDirs);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Entries from included jars that must not be copied.
+     * (Manifests, indexes and signatures that will not be valid in the new jar, and services that are merged)
+     */
+    private static boolean skipIncludedEntry(String name)
+    {
+        final String upper = name.toUpperCase();
+
+        return upper.startsWith("META-INF/") &&
+               (upper.equals(JarFile.MANIFEST_NAME) || upper.equals("META-INF/INDEX.LIST") ||
+                name.startsWith(SERVICES_DIR) ||
+                upper.indexOf('/', "META-INF/".length()) == -1 &&
+                (upper.endsWith(".SF") || upper.endsWith(".DSA") || upper.endsWith(".RSA") ||
+                 upper.endsWith(".EC")));
+    }
+
+    private boolean isDuplicated(File jar, String name, Set<String> addedEntries)
+    {
+        if (addedEntries.add(name)) {
+            return false;
+        }
+
+        switch (duplicateRuleFor(name)) {
+        case FAIL:
+            throw new BuildException("Duplicated entry '" + name + "' in: " + jar);
+        case WARN:
+            env.logWarning(Messages.DUPLICATED_ENTRY(name, jar.getPath()));
+            break;
+        }
+
+        return true;
+    }
+
+    private DuplicateRule duplicateRuleFor(String name)
+    {
+        final String path = name.replace('/', File.separatorChar);
+
+        for (Map.Entry<String, DuplicateRule> rule : duplicateRules.entrySet()) {
+            if (StringUtils.matchPath(StringUtils.normalizePath(rule.getKey()), path, true)) {
+                return rule.getValue();
+            }
+        }
+
+        return DuplicateRule.WARN;
+    }
+
     private void writeManifest(JarOutputStream jarOut)
         throws IOException
     {
         ZipEntry e = new ZipEntry(JarFile.MANIFEST_NAME);
+        setTime(e);
         jarOut.putNextEntry(e);
         manifest.write(new BufferedOutputStream(jarOut));
         jarOut.closeEntry();
@@ -340,16 +742,66 @@ public class JarTask
     private void writeMetaInfEntries(JarOutputStream jarOut, Set<String> addedDirs)
         throws IOException
     {
+        for (Map.Entry<String, String> e : servicesContent().entrySet()) {
+            String fileName = SERVICES_DIR + e.getKey();
+            writeToJar(jarOut, fileName, new ByteArrayInputStream(e.getValue().getBytes(UTF8)), addedDirs);
+        }
+    }
+
+    /**
+     * Returns the content of each service file, sorted by service and provider in reproducible mode
+     */
+    private Map<String, String> servicesContent()
+    {
+        Map<String, String> result =
+            reproducible ? new TreeMap<String, String>() : new LinkedHashMap<String, String>();
+
         for (Map.Entry<String, Set<String>> e : services.entrySet()) {
-            String        fileName = "META-INF/services/" + e.getKey();
             StringBuilder buff = new StringBuilder();
 
-            for (String provider : e.getValue()) {
+            for (String provider : reproducible ? new TreeSet<String>(e.getValue()) : e.getValue()) {
                 buff.append(provider).append("\r\n");
             }
 
-            writeToJar(jarOut, fileName, new ByteArrayInputStream(buff.toString().getBytes()), addedDirs);
+            result.put(e.getKey(), buff.toString());
         }
+
+        return result;
+    }
+
+    private void setTime(ZipEntry entry)
+    {
+        if (reproducible) {
+            entry.setTime(FIXED_TIMESTAMP);
+        }
+    }
+
+    /**
+     * Returns a copy of the manifest with the main attributes inserted in alphabetical order
+     * (Except for Manifest-Version that must be the first one)
+     */
+    private static Manifest sortedManifest(Manifest mf)
+    {
+        final Attributes                       main = mf.getMainAttributes();
+        final TreeMap<String, Attributes.Name> names = new TreeMap<String, Attributes.Name>();
+
+        for (Object name : main.keySet()) {
+            names.put(name.toString(), (Attributes.Name) name);
+        }
+
+        final Manifest   result = new Manifest();
+        final Attributes atts = result.getMainAttributes();
+        atts.put(Attributes.Name.MANIFEST_VERSION, main.getValue(Attributes.Name.MANIFEST_VERSION));
+
+        for (Attributes.Name name : names.values()) {
+            atts.put(name, main.get(name));
+        }
+
+        for (String entry : new TreeSet<String>(mf.getEntries().keySet())) {
+            result.getEntries().put(entry, mf.getAttributes(entry));
+        }
+
+        return result;
     }
 
     private void writeParentDirs(JarOutputStream jarOut, String fileName, Set<String> addedDirs)
@@ -371,6 +823,7 @@ public class JarTask
             String dirName = directories.get(i);
             logVerbose("Adding dir...   %s\n", dirName);
             JarEntry ze = new JarEntry(dirName);
+            setTime(ze);
             ze.setSize(0);
             ze.setMethod(ZipEntry.STORED);
             ze.setCrc(EMPTY_CRC);
@@ -383,6 +836,23 @@ public class JarTask
 
     private static final long EMPTY_CRC = new CRC32().getValue();
 
+    private static final int    BUFFER_SIZE = 8192;
+    private static final String SERVICES_DIR = "META-INF/services/";
+
+    /**
+     * The extension of the file where the digest of a reproducible jar is stored
+     */
+    public static final String DIGEST_EXT = ".digest";
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /**
+     * The timestamp for all entries in a reproducible jar.
+     * It is calculated in the local time zone so the stored (DOS) time is always the same.
+     */
+    private static final long FIXED_TIMESTAMP =
+        new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
+
     //~ Inner Classes ........................................................................................
 
     public static class Builder
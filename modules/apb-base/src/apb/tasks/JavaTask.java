@@ -34,7 +34,11 @@ import apb.metadata.PackageType;
 import apb.utils.FileUtils;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import static apb.Constants.CDS_DIR;
+import static apb.Constants.JAVA_CDS_PROPERTY;
+import static apb.Constants.JAVA_CDS_STORE_PROPERTY;
 import static apb.utils.CollectionUtils.addIfNotNull;
 //
 // User: emilio
@@ -117,8 +121,12 @@ public class JavaTask
         }
 
         argList.add("-Xmx" + memory + "m");
-        argList.add("-XX:PermSize=" + permGenSize + "m");
-        argList.add("-XX:MaxPermSize=" + maxPermGenSize + "m");
+
+        // The permanent generation was removed in Java 8, and newer JVMs reject these options
+        if (hasPermGen()) {
+            argList.add("-XX:PermSize=" + permGenSize + "m");
+            argList.add("-XX:MaxPermSize=" + maxPermGenSize + "m");
+        }
 
         // Pass properties
         for (Map.Entry<String, String> entry : properties.entrySet()) {
@@ -127,6 +135,12 @@ public class JavaTask
 
         argList.addAll(javaArgs);
 
+        final SharedArchive archive = sharedArchive();
+
+        if (archive != null) {
+            argList.addAll(archive.javaArgs());
+        }
+
         // add classpath
         if (!classPath.isEmpty()) {
             argList.add("-classpath");
@@ -139,7 +153,15 @@ public class JavaTask
 
         argList.add(jarOrClass);
         insertArguments(argList);
-        super.execute();
+
+        try {
+            super.execute();
+        }
+        finally {
+            if (archive != null) {
+                archive.finish();
+            }
+        }
     }
 
     /**
@@ -212,6 +234,42 @@ public class JavaTask
         return this;
     }
 
+    /**
+     * Whether the forked JVMs can share the classes they load through Class Data Sharing archives
+     */
+    public static boolean isClassSharingSupported()
+    {
+        return SharedArchive.isSupported();
+    }
+
+    /**
+     * The Class Data Sharing archive for the class path, unless it is disabled
+     * or the class data sharing options are specified in the java arguments
+     */
+    @Nullable private SharedArchive sharedArchive()
+    {
+        if (executeJar || !env.getBooleanProperty(JAVA_CDS_PROPERTY, true)) {
+            return null;
+        }
+
+        for (String arg : javaArgs) {
+            if (arg.startsWith("-Xshare") || arg.contains("SharedArchiveFile") ||
+                    arg.contains("ArchiveClassesAtExit")) {
+                return null;
+            }
+        }
+
+        final String dir = env.getProperty(JAVA_CDS_STORE_PROPERTY, "");
+        final File   store = dir.isEmpty() ? new File(FileUtils.getApbDir(), CDS_DIR) : new File(dir);
+        return SharedArchive.forClassPath(store, classPath);
+    }
+
+    private static boolean hasPermGen()
+    {
+        final String version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") && !version.equals("1.8");
+    }
+
     private static List<File> fileList(Environment env, DependencyList dependencies)
     {
         List<File> result = new ArrayList<File>();
@@ -0,0 +1,230 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import apb.BuildException;
+
+import apb.utils.StringUtils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Arrays.asList;
+
+import static apb.Constants.UTF8;
+
+/**
+ * A Class Data Sharing archive with the classes loaded by the JVMs forked with the same class path.
+ * The first JVM run with a class path creates the archive when it exits, and the following ones use it.
+ * The archive is named after the class path and the size and modification time of each of its jars,
+ * so it is created again when any of them changes.
+ * It is only used with Java 13 or later, and when all the entries of the class path are jar files.
+ */
+class SharedArchive
+{
+    //~ Instance fields ......................................................................................
+
+    /**
+     * The file the JVM is creating the archive in, if it is being created
+     */
+    @Nullable private File dump;
+
+    @NotNull private final File   dir;
+    @NotNull private final String prefix;
+    @NotNull private final File   file;
+
+    //~ Constructors .........................................................................................
+
+    private SharedArchive(@NotNull File dir, @NotNull String prefix, @NotNull String fingerprint)
+    {
+        // The JVM can run on another directory
+        this.dir = dir.getAbsoluteFile();
+        this.prefix = prefix;
+        file = new File(this.dir, prefix + fingerprint + JSA_EXT);
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * The archive for the class path, or null if the class path cannot be archived
+     * @param dir The directory where archives are kept
+     * @param classPath The class path of the JVM
+     */
+    @Nullable static SharedArchive forClassPath(@NotNull File dir, @NotNull List<File> classPath)
+    {
+        if (!isSupported() || classPath.isEmpty()) {
+            return null;
+        }
+
+        final StringBuilder paths = new StringBuilder(JAVA_HOME).append(JAVA_VERSION);
+        final StringBuilder fingerprint = new StringBuilder();
+
+        for (File f : classPath) {
+            // Directories (or missing files) prevent the JVM from creating the archive
+            if (!f.isFile()) {
+                return null;
+            }
+
+            paths.append(File.pathSeparatorChar).append(f.getAbsolutePath());
+            fingerprint.append(f.length()).append(':').append(f.lastModified()).append(';');
+        }
+
+        return new SharedArchive(dir, digest(paths) + '-', digest(fingerprint));
+    }
+
+    /**
+     * Whether the JVM can create archives at exit, it also needs the base archive of the JDK
+     */
+    static boolean isSupported()
+    {
+        final String version = System.getProperty("java.specification.version");
+
+        try {
+            if (version.startsWith("1.") || Integer.parseInt(version) < MIN_JAVA_VERSION) {
+                return false;
+            }
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+
+        for (String path : BASE_ARCHIVES) {
+            if (new File(JAVA_HOME, path).exists()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The arguments for the JVM: they use the archive if it exists, or create it if nobody else is doing it
+     */
+    @NotNull List<String> javaArgs()
+    {
+        if (file.exists()) {
+            return asList(USE_ARCHIVE + file.getPath(), NO_LOG);
+        }
+
+        if (claim(file)) {
+            try {
+                dir.mkdirs();
+                dump = File.createTempFile(prefix, DUMP_EXT, dir);
+                dump.delete();
+                return asList(CREATE_ARCHIVE + dump.getPath(), NO_LOG);
+            }
+            catch (IOException e) {
+                release(file);
+            }
+        }
+
+        return new ArrayList<String>();
+    }
+
+    /**
+     * Called after the JVM finishes, to publish the archive it created and remove the outdated ones
+     */
+    void finish()
+    {
+        final File d = dump;
+
+        if (d == null) {
+            return;
+        }
+
+        try {
+            if (d.length() == 0 || !d.renameTo(file)) {
+                d.delete();
+            }
+            else {
+                final File[] files = dir.listFiles();
+
+                for (File f : files == null ? new File[0] : files) {
+                    if (f.getName().startsWith(prefix) && f.getName().endsWith(JSA_EXT) && !f.equals(file)) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+        finally {
+            dump = null;
+            release(file);
+        }
+    }
+
+    private static synchronized boolean claim(@NotNull File archive)
+    {
+        return creating.add(archive);
+    }
+
+    private static synchronized void release(@NotNull File archive)
+    {
+        creating.remove(archive);
+    }
+
+    @NotNull private static String digest(@NotNull CharSequence s)
+    {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(s.toString().getBytes(UTF8));
+            return StringUtils.encodeHex(md.digest()).substring(0, DIGEST_LENGTH);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new BuildException(e);
+        }
+        catch (IOException e) {
+            throw new BuildException(e);
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final int MIN_JAVA_VERSION = 13;
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final String JAVA_HOME = System.getProperty("java.home");
+    private static final String JAVA_VERSION = System.getProperty("java.version");
+
+    private static final String[] BASE_ARCHIVES = { "lib/server/classes.jsa", "bin/server/classes.jsa" };
+
+    private static final String JSA_EXT = ".jsa";
+    private static final String DUMP_EXT = ".tmp";
+
+    private static final String USE_ARCHIVE = "-XX:SharedArchiveFile=";
+    private static final String CREATE_ARCHIVE = "-XX:ArchiveClassesAtExit=";
+
+    /**
+     * Archives that cannot be used (for example because a jar changed) are silently ignored
+     */
+    private static final String NO_LOG = "-Xlog:cds=off,cds+dynamic=off";
+
+    /**
+     * The archives being created by JVMs forked from this one
+     */
+    private static final Set<File> creating = new HashSet<File>();
+}
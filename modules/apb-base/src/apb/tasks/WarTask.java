@@ -18,13 +18,23 @@
 
 package apb.tasks;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import apb.Apb;
 
 import apb.utils.FileUtils;
+import apb.utils.StreamUtils;
+import apb.utils.StringUtils;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -70,28 +80,55 @@ public class WarTask
      */
     private List<File> jarsToPackage;
 
+    /**
+     * Whether to build the web application in the build directory before archiving it
+     */
+    private boolean exploded;
+
+    /**
+     * Whether to synchronize the build directory incrementally instead of copying on top of it
+     */
+    private boolean sync;
+
+    /**
+     * Whether to hard link the jars into the build directory instead of copying them
+     */
+    private boolean linkJars;
+
     //~ Constructors .........................................................................................
 
     private WarTask(@NotNull File warFile, @NotNull FileSet webAppDir, @NotNull File webAppBuildDir)
     {
-        validateDirectory(webAppBuildDir);
         this.warFile = warFile;
         this.webAppDir = webAppDir;
         this.webAppBuildDir = webAppBuildDir;
         classesToPackage = new ArrayList<FileSet>();
         jarsToPackage = new ArrayList<File>();
+        exploded = true;
     }
 
     //~ Methods ..............................................................................................
 
     public void execute()
     {
-        buildWebApp();
-        jar(warFile).from(webAppBuildDir).execute();
+        if (exploded) {
+            buildWebApp();
+            jar(warFile).from(webAppBuildDir).execute();
+        }
+        else {
+            buildArchive();
+        }
     }
 
     public void buildWebApp()
     {
+        validateDirectory(webAppBuildDir);
+
+        if (sync) {
+            syncWebApp();
+            return;
+        }
+
         copyExtraWebResources();
 
         copyWebApp();
@@ -108,6 +145,63 @@ public class WarTask
         return this;
     }
 
+    /**
+     * Whether to build the exploded web application in the build directory. Defaults to true.
+     * When false the web application directory, the classes and the jars are
+     * written straight into the war file, without being copied to the build directory first.
+     * (Note that {@link #copyExtraWebResources()} is only invoked when building the exploded web application)
+     * @param b false to write directly to the war file
+     */
+    public WarTask exploded(boolean b)
+    {
+        exploded = b;
+        return this;
+    }
+
+    /**
+     * Synchronize the exploded web application incrementally. Defaults to false.
+     * Only files that are new or changed are copied to the build directory, and files copied by a previous
+     * synchronization that are no longer part of the web application are deleted from it.
+     * Other files in the build directory (like the ones written by {@link #copyExtraWebResources()})
+     * are left untouched. The files copied are recorded in {@link #getSyncedFile()}.
+     * The list of changes is written to {@link #getChangesFile()}, one line per file:
+     * <code>A</code> (added), <code>M</code> (modified) or <code>D</code> (deleted) followed by the path.
+     * @param b true to synchronize the build directory
+     */
+    public WarTask sync(boolean b)
+    {
+        sync = b;
+        return this;
+    }
+
+    /**
+     * Hard link the jars into the exploded web application instead of copying them. Defaults to false.
+     * Jars are read-only inputs, so they can be safely shared with the build directory.
+     * If links are not supported by the platform the jars are copied.
+     * @param b true to link the jars
+     */
+    public WarTask linkingJars(boolean b)
+    {
+        linkJars = b;
+        return this;
+    }
+
+    /**
+     * The file where the changes to the exploded web application are written when synchronizing it
+     */
+    @NotNull public File getChangesFile()
+    {
+        return new File(webAppBuildDir.getPath() + CHANGES_EXT);
+    }
+
+    /**
+     * The file where the list of files copied to the exploded web application is kept when synchronizing it
+     */
+    @NotNull public File getSyncedFile()
+    {
+        return new File(webAppBuildDir.getPath() + SYNCED_EXT);
+    }
+
     public WarTask includeClasses(FileSet... sets)
     {
         return includeClasses(asList(sets));
@@ -136,6 +230,214 @@ public class WarTask
         }
     }
 
+    /**
+     * Write the war file directly from the sources.
+     * Classes and jars go first so they take precedence over the ones in the web application directory,
+     * as they do when copied on top of it in the exploded web application.
+     */
+    private void buildArchive()
+    {
+        final List<FileSet> classes = new ArrayList<FileSet>();
+
+        for (FileSet fileSet : classesToPackage) {
+            if (fileSet.getDir().exists()) {
+                classes.add(fileSet);
+            }
+        }
+
+        final List<FileSet> jars = new ArrayList<FileSet>();
+
+        for (File jar : jarsToPackage) {
+            if (jar.exists()) {
+                jars.add(FileSet.fromFile(jar));
+            }
+        }
+
+        final List<FileSet> webApp = new ArrayList<FileSet>();
+        final File          dir = webAppDir.getDir();
+
+        if (dir.exists()) {
+            webApp.add(webAppDir);
+        }
+        else {
+            env.logWarning("Source web application directory '%s' does not exist\n", dir.getAbsolutePath());
+        }
+
+        jar(warFile).from(Collections.<FileSet>emptyList())  //
+                    .includingAt(CLASSES_PATH, classes)  //
+                    .includingAt(LIB_PATH, jars)  //
+                    .includingAt("", webApp)  //
+                    .execute();
+    }
+
+    /**
+     * Bring the build directory in sync with the web application directory, the classes and the jars.
+     */
+    private void syncWebApp()
+    {
+        final Map<String, File> inputs = syncInputs();
+        final List<String>      changes = new ArrayList<String>();
+
+        // Remove the files copied before that are no longer in the web application
+        for (String entry : readLines(getSyncedFile())) {
+            final File target = new File(webAppBuildDir, entry.replace('/', File.separatorChar));
+
+            if (!inputs.containsKey(entry) && target.isFile()) {
+                logVerbose("Delete %s\n", target);
+
+                if (!target.delete()) {
+                    env.handle("Cannot delete: " + target);
+                }
+
+                removeEmptyParents(target.getParentFile());
+                changes.add("D " + entry);
+            }
+        }
+
+        // Add new & modified ones
+        for (Map.Entry<String, File> e : inputs.entrySet()) {
+            final File source = e.getValue();
+            final File target = new File(webAppBuildDir, e.getKey().replace('/', File.separatorChar));
+
+            if (!FileUtils.sameFile(source, target)) {
+                final boolean exists = target.exists();
+
+                if (!exists || env.forceBuild() || source.lastModified() > target.lastModified() ||
+                        source.length() != target.length()) {
+                    logVerbose("Copy %s\n", source);
+                    logVerbose("  to %s\n", target);
+
+                    try {
+                        copyOrLink(source, target);
+                    }
+                    catch (IOException ioe) {
+                        env.handle(ioe);
+                    }
+
+                    changes.add((exists ? "M " : "A ") + e.getKey());
+                }
+            }
+        }
+
+        handleDeploymentDescriptors();
+        copyExtraWebResources();
+        writeLines(getSyncedFile(), inputs.keySet());
+        writeChanges(changes);
+    }
+
+    /**
+     * The files that make the web application, mapped by their path inside it.
+     * Classes and jars override files in the web application directory.
+     */
+    private Map<String, File> syncInputs()
+    {
+        final Map<String, File> result = new TreeMap<String, File>();
+
+        if (webAppDir.getDir().exists()) {
+            addInputs(result, "", webAppDir);
+        }
+        else {
+            env.logWarning("Source web application directory '%s' does not exist\n",
+                           webAppDir.getDir().getAbsolutePath());
+        }
+
+        for (FileSet fileSet : classesToPackage) {
+            if (fileSet.getDir().exists()) {
+                addInputs(result, CLASSES_PATH, fileSet);
+            }
+        }
+
+        for (File jar : jarsToPackage) {
+            if (jar.exists()) {
+                result.put(LIB_PATH + jar.getName(), jar);
+            }
+        }
+
+        return result;
+    }
+
+    private static void addInputs(Map<String, File> inputs, String path, FileSet fileSet)
+    {
+        for (String fileName : fileSet.list()) {
+            inputs.put(path + fileName.replace(File.separatorChar, '/'), new File(fileSet.getDir(), fileName));
+        }
+    }
+
+    private void removeEmptyParents(File dir)
+    {
+        while (!FileUtils.sameFile(dir, webAppBuildDir)) {
+            final String[] files = dir.list();
+
+            if (files == null || files.length != 0 || !dir.delete()) {
+                break;
+            }
+
+            dir = dir.getParentFile();
+        }
+    }
+
+    private void writeChanges(List<String> changes)
+    {
+        final File changesFile = getChangesFile();
+
+        if (changes.isEmpty()) {
+            logVerbose("Web application '%s' is up to date\n", webAppBuildDir);
+        }
+        else {
+            env.logInfo("Synchronized %2d file%s\nin %s\n", changes.size(), changes.size() > 1 ? "s" : "",
+                        webAppBuildDir);
+        }
+
+        writeLines(changesFile, changes);
+    }
+
+    private void writeLines(File file, Collection<String> lines)
+    {
+        PrintWriter writer = null;
+
+        try {
+            writer = new PrintWriter(FileUtils.createWriter(file));
+
+            for (String line : lines) {
+                writer.println(line);
+            }
+        }
+        catch (IOException e) {
+            env.handle(e);
+        }
+        finally {
+            StreamUtils.close(writer);
+        }
+    }
+
+    @NotNull private List<String> readLines(File file)
+    {
+        final List<String> result = new ArrayList<String>();
+
+        if (file.exists()) {
+            BufferedReader reader = null;
+
+            try {
+                reader = new BufferedReader(new FileReader(file));
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        result.add(line);
+                    }
+                }
+            }
+            catch (IOException e) {
+                env.handle(e);
+            }
+            finally {
+                StreamUtils.close(reader);
+            }
+        }
+
+        return result;
+    }
+
     private void handleDeploymentDescriptors()
     {
         // Here we can copy web.xml & context.xml files if they are not in the default location
@@ -167,11 +469,32 @@ public class WarTask
         for (File jar : jarsToPackage) {
             if (jar.exists() && !FileUtils.sameFile(jar.getParentFile(), jarsDir)) {
                 validateDirectory(jarsDir);
-                CoreTasks.copy(jar).to(jarsDir).execute();
+                final CopyTask copy = CoreTasks.copy(jar).to(jarsDir);
+
+                if (linkJars) {
+                    copy.linking(JAR_PATTERN);
+                }
+
+                copy.execute();
             }
         }
     }
 
+    private void copyOrLink(File source, File target)
+        throws IOException
+    {
+        if (linkJars && StringUtils.match(JAR_PATTERN, source.getName(), true)) {
+            if (FileUtils.hardLink(source, target)) {
+                return;
+            }
+
+            // Do not write through a previous link
+            target.delete();
+        }
+
+        FileUtils.copyFile(source, target, false);
+    }
+
     //~ Static fields/initializers ...........................................................................
 
     private static final String WEB_INF_PATH = "WEB-INF";
@@ -179,8 +502,16 @@ public class WarTask
     private static final String META_INF_PATH = "META-INF";
 
     private static final String CLASSES_PATH = "WEB-INF/classes/";
+    private static final String JAR_PATTERN = "*.jar";
     public static final String  LIB_PATH = "WEB-INF/lib/";
 
+    /**
+     * The extensions of the files (next to the build directory) with the changes of the last
+     * synchronization, and with the files it copied
+     */
+    public static final String CHANGES_EXT = ".changes";
+    public static final String SYNCED_EXT = ".synced";
+
     //~ Inner Classes ........................................................................................
 
     public static class Builder
@@ -71,6 +71,7 @@ class CoverageBuilder
 
     @NotNull private final List<File>                     classesToTest;
     @NotNull private final List<File>                     filesDoDelete = new ArrayList<File>();
+    @NotNull private final List<File>                     shardFiles = new ArrayList<File>();
     @NotNull private final List<File>                     sourcesToTest;
     @Nullable private Map<CoverageReport.Column, Integer> coverageInfo;
     @NotNull private final String                         workingDirectory;
@@ -95,6 +96,14 @@ class CoverageBuilder
 
         args.addAll(Arrays.asList("-sp", makePath(sourcesToTest), "-in", COVERAGE_EM, "-in", COVERAGE_EC));
 
+        // Merge the data written by the shards
+        for (File file : shardFiles) {
+            if (file.exists()) {
+                args.add("-in");
+                args.add(file.getPath());
+            }
+        }
+
         for (CoverageReport report : processReports()) {
             args.add("-r");
             args.add(report.getType());
@@ -148,6 +157,35 @@ class CoverageBuilder
         for (File file : filesDoDelete) {
             file.delete();
         }
+
+        for (File file : shardFiles) {
+            file.delete();
+        }
+
+        shardFiles.clear();
+    }
+
+    /**
+     * The java argument that makes the processes of a shard write their coverage data to a file of their own,
+     * so processes running at the same time never write to the same file.
+     * The files are merged when the report is built.
+     * @param shard The number of the shard
+     * @return The argument, or null if coverage is not enabled
+     */
+    @Nullable public synchronized String shardCoverageArg(int shard)
+    {
+        if (!coverageEnabled) {
+            return null;
+        }
+
+        final File file = new File(workingDirectory, COVERAGE_SHARD + shard + ".ec");
+
+        if (!shardFiles.contains(file)) {
+            file.delete();
+            shardFiles.add(file);
+        }
+
+        return "-D" + COVERAGE_OUT_PROPERTY + "=" + file.getPath();
     }
 
     public void setEnabled(boolean b)
@@ -425,4 +463,7 @@ class CoverageBuilder
 
     private static final String COVERAGE_EM = "coverage.em";
     private static final String COVERAGE_EC = "coverage.ec";
+    private static final String COVERAGE_SHARD = "coverage-";
+
+    private static final String COVERAGE_OUT_PROPERTY = "emma.coverage.out.file";
 }
@@ -16,14 +16,20 @@
 
 package apb.testrunner;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.List;
@@ -32,12 +38,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import apb.Apb;
+import apb.testrunner.output.OutputHandler;
+import apb.testrunner.output.StreamingReport;
 import apb.testrunner.output.TestReport;
 import apb.utils.FileUtils;
 
 import static java.util.Arrays.asList;
 
 import static apb.Apb.exit;
+import static apb.Constants.UTF8;
 import static apb.utils.StringUtils.isEmpty;
 
 /**
@@ -65,6 +74,15 @@ public class Main
                            options.getExcludes(), options.getTestGroups());
         runner.setVerbose(options.isVerbose());
         runner.setFailEmpty(options.getFailEmpty());
+        runner.setParallelSuites(options.getParallelSuites());
+        runner.setParallelTests(options.getParallelTests());
+        runner.setImpactDir(options.getImpactDir());
+        runner.setFailFast(options.isFailFast());
+        runner.setHistory(options.getHistoryFile());
+
+        if (options.getOutputMemory() > 0) {
+            OutputHandler.setMemoryLimit(options.getOutputMemory() * 1024);
+        }
 
         run(runner, options);
     }
@@ -72,13 +90,22 @@ public class Main
     private static void run(TestRunner runner, TestRunnerOptions options)
         throws TestSetFailedException
     {
-        final ClassLoader classloader = createClassLoader(options);
+        final String singleTest = options.getSingleTest();
+
+        final List<File> path = classPath(options);
+
+        if (options.getWorkerPort() != 0) {
+            serve(options.getWorkerPort(), runner, options, path, singleTest);
+            exit(TestRunner.OK);
+        }
+
+        final ClassLoader classloader = createClassLoader(path, options.getImpactDir() != null);
 
         final TestSetCreator<?> creator = options.findCreator(classloader);
         final String            suite = options.getSuite();
-        final String            singleTest = options.getSingleTest();
 
         final String     reportSpecFile = options.getReportSpecFile();
+
         final TestReport report = restoreOutput(reportSpecFile);
 
         int r;
@@ -94,18 +121,87 @@ public class Main
         exit(r);
     }
 
-    private static ClassLoader createClassLoader(TestRunnerOptions options)
-        throws TestSetFailedException
+    /**
+     * Run as a worker: read the name of the suites to run from the launcher, one per line, and answer
+     * with the events of each one (See {@link StreamingReport}) followed by its result.
+     * Each suite loads its classes in a fresh {@link RecordingClassLoader} over the path, so the only
+     * things shared with the previous suites are the warm JVM and the libraries at the start of the path,
+     * which are resolved first in any case.
+     * The worker finishes when the launcher closes the connection.
+     */
+    private static void serve(int port, TestRunner runner, TestRunnerOptions options, List<File> path,
+                              String singleTest)
     {
+        Socket socket = null;
+
         try {
-            final List<String> path = options.getClassPath();
-            final List<File>   files = new ArrayList<File>(path.size());
+            final int         shared = RecordingClassLoader.leadingLibraries(path);
+            final ClassLoader libraries =
+                new URLClassLoader(FileUtils.toURLArray(path.subList(0, shared)),
+                                   ClassLoader.getSystemClassLoader());
+            final List<File>  suitePath = path.subList(shared, path.size());
 
-            for (String s : path) {
-                files.add(new File(s));
+            socket = new Socket(InetAddress.getByName(null), port);
+            final BufferedReader in =
+                new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            final PrintWriter    out =
+                new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8), true);
+
+            String suite;
+
+            while ((suite = in.readLine()) != null && !isEmpty(suite)) {
+                int r;
+
+                try {
+                    final ClassLoader loader = RecordingClassLoader.create(suitePath, libraries);
+                    r = runner.runOne(suite.replace('.', File.separatorChar) + ".class",
+                                      options.findCreator(loader), loader, new StreamingReport(out),
+                                      singleTest);
+                }
+                catch (TestSetFailedException e) {
+                    e.printStackTrace(System.err);
+                    r = TestRunner.ERROR;
+                }
+
+                out.println(TestWorker.RESULT + r);
             }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                }
+                catch (IOException ignore) {
+                    // Nothing to do
+                }
+            }
+        }
+    }
+
+    private static List<File> classPath(TestRunnerOptions options)
+    {
+        final List<String> path = options.getClassPath();
+        final List<File>   files = new ArrayList<File>(path.size());
+
+        for (String s : path) {
+            files.add(new File(s));
+        }
+
+        return files;
+    }
 
-            return new URLClassLoader(FileUtils.toURLArray(files));
+    /**
+     * Create the loader for the tests, recording the classes it loads if <code>recording</code> is true
+     */
+    private static ClassLoader createClassLoader(List<File> path, boolean recording)
+        throws TestSetFailedException
+    {
+        try {
+            return recording ? RecordingClassLoader.create(path, ClassLoader.getSystemClassLoader())
+                             : new URLClassLoader(FileUtils.toURLArray(path));
         }
         catch (MalformedURLException e) {
             throw new TestSetFailedException(e);
@@ -0,0 +1,120 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jetbrains.annotations.NotNull;
+
+import apb.utils.FileUtils;
+
+/**
+ * A class loader for the class path of the tests, that keeps the name of the classes it loads
+ * from directories (the classes of the project and the tests).
+ * It is a single loader over the whole path, so classes and resources are resolved in the order
+ * of the path, and the libraries see the test and project classes.
+ *
+ * As each class is loaded only once, the classes loaded so far are the only record that covers
+ * every class a suite may use: when the loader is shared by several suites a suite records
+ * the classes loaded by the previous ones too, and when the loader runs a single suite
+ * the record is exact.
+ */
+class RecordingClassLoader
+    extends URLClassLoader
+{
+    //~ Instance fields ......................................................................................
+
+    @NotNull private final Set<String> loaded = new TreeSet<String>();
+
+    //~ Constructors .........................................................................................
+
+    private RecordingClassLoader(@NotNull Collection<File> path, @NotNull ClassLoader parent)
+        throws MalformedURLException
+    {
+        super(FileUtils.toURLArray(path), parent);
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Create a loader for the path
+     * @param path The class path, in order
+     * @param parent The parent loader
+     */
+    @NotNull static RecordingClassLoader create(@NotNull Collection<File> path, @NotNull ClassLoader parent)
+        throws MalformedURLException
+    {
+        return new RecordingClassLoader(path, parent);
+    }
+
+    /**
+     * The number of libraries (jar files) at the start of the path, before any directory.
+     * Only these can be moved to a parent loader shared by several suites without changing
+     * the order in which classes are resolved
+     */
+    static int leadingLibraries(@NotNull List<File> path)
+    {
+        int result = 0;
+
+        while (result < path.size() && !path.get(result).isDirectory()) {
+            result++;
+        }
+
+        return result;
+    }
+
+    /**
+     * The names of the classes loaded so far
+     */
+    @NotNull synchronized Set<String> getLoadedClasses()
+    {
+        return new TreeSet<String>(loaded);
+    }
+
+    @Override protected Class<?> findClass(String name)
+        throws ClassNotFoundException
+    {
+        final Class<?> result = super.findClass(name);
+
+        if (isDirectory(result.getProtectionDomain().getCodeSource())) {
+            synchronized (this) {
+                loaded.add(name);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether the code source is a directory (the url of a directory ends with a slash)
+     */
+    private static boolean isDirectory(CodeSource source)
+    {
+        final URL location = source == null ? null : source.getLocation();
+        return location != null && location.getPath().endsWith("/");
+    }
+}
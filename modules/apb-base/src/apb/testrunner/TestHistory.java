@@ -0,0 +1,255 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import apb.utils.FileUtils;
+import apb.utils.StreamUtils;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The outcome and duration (in milliseconds) of the test suites in their last run.
+ * It is used to run first the suites that failed and then the slowest ones,
+ * and to balance the suites when they are split across several processes.
+ * Each entry has the duration of the suite, followed by ",failed" if it failed.
+ * @exclude
+ */
+public class TestHistory
+{
+    //~ Instance fields ......................................................................................
+
+    private boolean             dirty;
+    private boolean             loaded;
+    @NotNull private final File file;
+    @NotNull private Properties entries;
+
+    //~ Constructors .........................................................................................
+
+    public TestHistory(@NotNull File file)
+    {
+        this.file = file;
+        entries = new Properties();
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * The duration of the suite in its last run, or -1 if it was never run
+     */
+    public synchronized long duration(@NotNull String suite)
+    {
+        load();
+        final String value = entries.getProperty(suite);
+
+        if (value == null) {
+            return -1;
+        }
+
+        final int comma = value.indexOf(',');
+
+        try {
+            return Long.parseLong(comma == -1 ? value : value.substring(0, comma));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Whether the suite failed in its last run
+     */
+    public synchronized boolean failed(@NotNull String suite)
+    {
+        load();
+        final String value = entries.getProperty(suite);
+        return value != null && value.endsWith(FAILED);
+    }
+
+    /**
+     * Record the outcome and duration of a suite
+     */
+    public synchronized void record(@NotNull String suite, long millis, boolean failed)
+    {
+        load();
+        entries.setProperty(suite, failed ? millis + FAILED : String.valueOf(millis));
+        dirty = true;
+    }
+
+    /**
+     * Order the suites to run first the ones that failed in their last run, and then the slowest ones.
+     * Suites never run before are assumed to take the average duration.
+     */
+    @NotNull public synchronized List<String> order(@NotNull Collection<String> suites)
+    {
+        load();
+
+        final List<String> result = new ArrayList<String>(suites);
+        final long         average = averageDuration(result);
+
+        Collections.sort(result,
+                         new Comparator<String>() {
+                             public int compare(String s1, String s2)
+                             {
+                                 final boolean f1 = failed(s1);
+                                 final boolean f2 = failed(s2);
+
+                                 if (f1 != f2) {
+                                     return f1 ? -1 : 1;
+                                 }
+
+                                 final long d1 = estimate(s1, average);
+                                 final long d2 = estimate(s2, average);
+                                 return d1 < d2 ? 1 : d1 > d2 ? -1 : s1.compareTo(s2);
+                             }
+                         });
+        return result;
+    }
+
+    /**
+     * Split the suites into the specified number of groups with (approximately) the same total duration.
+     * Suites are assigned in the order defined by {@link #order} to the group with less work.
+     * Empty groups are not returned.
+     */
+    @NotNull public synchronized List<List<String>> split(@NotNull Collection<String> suites, int n)
+    {
+        final List<String>       sorted = order(suites);
+        final long               average = averageDuration(sorted);
+        final int                groups = Math.max(1, Math.min(n, sorted.size()));
+        final List<List<String>> result = new ArrayList<List<String>>(groups);
+        final long[]             totals = new long[groups];
+
+        for (int i = 0; i < groups; i++) {
+            result.add(new ArrayList<String>());
+        }
+
+        for (String suite : sorted) {
+            int lightest = 0;
+
+            for (int i = 1; i < groups; i++) {
+                if (totals[i] < totals[lightest]) {
+                    lightest = i;
+                }
+            }
+
+            result.get(lightest).add(suite);
+            totals[lightest] += estimate(suite, average);
+        }
+
+        result.removeAll(Collections.singleton(Collections.<String>emptyList()));
+        return result;
+    }
+
+    /**
+     * Write the history back, if it was modified.
+     * The history is just a hint, so it does not fail if it cannot be written
+     */
+    public synchronized void save()
+    {
+        if (!dirty) {
+            return;
+        }
+
+        OutputStream os = null;
+
+        try {
+            os = FileUtils.createOutputStream(file);
+            entries.store(os, null);
+            dirty = false;
+        }
+        catch (IOException e) {
+            // Ignore
+        }
+        finally {
+            StreamUtils.close(os);
+        }
+    }
+
+    /**
+     * The history file in the specified reports directory
+     */
+    @NotNull public static File historyFile(@NotNull File reportsDir)
+    {
+        return new File(reportsDir, HISTORY_FILE);
+    }
+
+    private long estimate(@NotNull String suite, long average)
+    {
+        final long d = duration(suite);
+        return d < 0 ? average : d;
+    }
+
+    private long averageDuration(@NotNull List<String> suites)
+    {
+        long total = 0;
+        int  known = 0;
+
+        for (String suite : suites) {
+            final long d = duration(suite);
+
+            if (d >= 0) {
+                total += d;
+                known++;
+            }
+        }
+
+        return known == 0 ? 1 : Math.max(1, total / known);
+    }
+
+    private void load()
+    {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+
+        if (file.exists()) {
+            InputStream is = null;
+
+            try {
+                is = new FileInputStream(file);
+                entries.load(is);
+            }
+            catch (IOException e) {
+                // An invalid history is just ignored
+                entries = new Properties();
+            }
+            finally {
+                StreamUtils.close(is);
+            }
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String HISTORY_FILE = "test-history.properties";
+    private static final String FAILED = ",failed";
+}
@@ -0,0 +1,285 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import apb.utils.FileUtils;
+import apb.utils.StreamUtils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static apb.Constants.UTF8;
+
+/**
+ * The classes each test suite loaded in its last successful run.
+ * It is used to run only the suites affected by the classes that changed since the previous run.
+ * The record is a directory with a file per suite listing the classes it loaded, plus a snapshot
+ * of the modification time of the classes and libraries in the test classpath.
+ * @exclude
+ */
+public class TestImpact
+{
+    //~ Instance fields ......................................................................................
+
+    @NotNull private final File dir;
+
+    //~ Constructors .........................................................................................
+
+    public TestImpact(@NotNull File dir)
+    {
+        this.dir = dir;
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Take a snapshot of the modification time of the classes in the directories and the libraries
+     * of the classpath
+     */
+    @NotNull public static Map<String, Long> snapshot(@NotNull Collection<File> classPath)
+    {
+        final Map<String, Long> result = new TreeMap<String, Long>();
+
+        for (File entry : classPath) {
+            if (entry.isDirectory()) {
+                final int prefix = entry.getAbsolutePath().length() + 1;
+
+                for (File f : FileUtils.listAllFilesWithExt(entry, CLASS_EXT)) {
+                    final String path = f.getAbsolutePath();
+                    final String name = path.substring(prefix, path.length() - CLASS_EXT.length());
+                    result.put(name.replace(File.separatorChar, '.'), f.lastModified());
+                }
+            }
+            else if (entry.exists()) {
+                result.put(LIBRARY_PREFIX + entry.getAbsolutePath(), entry.lastModified());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The suites affected by the changes between the last saved snapshot and the current one.
+     * These are the suites that loaded any of the changed classes, plus the ones without a record
+     * (never run, or failed in their last run).
+     * If there is no previous snapshot, or a library changed, all suites are affected.
+     */
+    @NotNull public List<String> affected(@NotNull Collection<String> suites, @NotNull Map<String, Long> current)
+    {
+        final Set<String>  changed = changedClasses(current);
+        final List<String> result = new ArrayList<String>();
+
+        for (String suite : suites) {
+            final Set<String> classes = changed == null ? null : read(suite);
+
+            if (classes == null || intersects(classes, changed)) {
+                result.add(suite);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Save the snapshot the next changes will be compared with
+     */
+    public void save(@NotNull Map<String, Long> snapshot)
+    {
+        final Properties entries = new Properties();
+
+        for (Map.Entry<String, Long> e : snapshot.entrySet()) {
+            entries.setProperty(e.getKey(), String.valueOf(e.getValue()));
+        }
+
+        OutputStream os = null;
+
+        try {
+            os = FileUtils.createOutputStream(snapshotFile());
+            entries.store(os, null);
+        }
+        catch (IOException e) {
+            // Without a snapshot all suites will be run the next time
+        }
+        finally {
+            StreamUtils.close(os);
+        }
+    }
+
+    /**
+     * Record the classes loaded by a suite
+     */
+    public void record(@NotNull String suite, @NotNull Collection<String> classes)
+    {
+        PrintWriter writer = null;
+
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(FileUtils.createOutputStream(suiteFile(suite)), UTF8));
+
+            for (String c : classes) {
+                writer.println(c);
+            }
+        }
+        catch (IOException e) {
+            forget(suite);
+        }
+        finally {
+            StreamUtils.close(writer);
+        }
+    }
+
+    /**
+     * Forget the classes of a suite, so it is run the next time
+     */
+    public void forget(@NotNull String suite)
+    {
+        suiteFile(suite).delete();
+    }
+
+    /**
+     * The directory with the impact record for the tests in the specified directory
+     */
+    @NotNull public static File impactDir(@NotNull File testClasses)
+    {
+        return new File(testClasses.getAbsoluteFile().getParentFile(), testClasses.getName() + IMPACT_EXT);
+    }
+
+    /**
+     * The classes that changed since the saved snapshot, or null if all of them must be considered changed
+     */
+    @Nullable private Set<String> changedClasses(@NotNull Map<String, Long> current)
+    {
+        final File file = snapshotFile();
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        final Properties previous = new Properties();
+        InputStream      is = null;
+
+        try {
+            is = new FileInputStream(file);
+            previous.load(is);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            StreamUtils.close(is);
+        }
+
+        final Set<String> result = new HashSet<String>();
+
+        for (Map.Entry<String, Long> e : current.entrySet()) {
+            if (!String.valueOf(e.getValue()).equals(previous.getProperty(e.getKey()))) {
+                result.add(e.getKey());
+            }
+        }
+
+        for (String name : previous.stringPropertyNames()) {
+            if (!current.containsKey(name)) {
+                result.add(name);
+            }
+        }
+
+        for (String name : result) {
+            if (name.startsWith(LIBRARY_PREFIX)) {
+                return null;
+            }
+        }
+
+        return result;
+    }
+
+    @Nullable private Set<String> read(@NotNull String suite)
+    {
+        final File file = suiteFile(suite);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        final Set<String> result = new HashSet<String>();
+        BufferedReader    reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            StreamUtils.close(reader);
+        }
+
+        return result;
+    }
+
+    private static boolean intersects(@NotNull Set<String> classes, @NotNull Set<String> changed)
+    {
+        for (String c : changed) {
+            if (classes.contains(c)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @NotNull private File suiteFile(@NotNull String suite)
+    {
+        return new File(dir, suite + SUITE_EXT);
+    }
+
+    @NotNull private File snapshotFile()
+    {
+        return new File(dir, SNAPSHOT_FILE);
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String CLASS_EXT = ".class";
+    private static final String IMPACT_EXT = ".impact";
+    private static final String SUITE_EXT = ".classes";
+    private static final String SNAPSHOT_FILE = "snapshot.properties";
+    private static final String LIBRARY_PREFIX = "lib:";
+}
@@ -22,22 +22,26 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.ServerSocket;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import apb.Apb;
 import apb.BuildException;
+import apb.Constants;
 import apb.Environment;
 import apb.ModuleHelper;
 import apb.Proxy;
@@ -48,10 +52,15 @@ import apb.metadata.TestModule;
 
 import apb.tasks.JavaTask;
 
+import apb.testrunner.output.OutputHandler;
+import apb.testrunner.output.StreamingReport;
 import apb.testrunner.output.TestReport;
+import apb.testrunner.output.TestReportBroadcaster;
+import apb.testrunner.output.TimingsReport;
 
 import apb.utils.ClassUtils;
 import apb.utils.FileUtils;
+import apb.utils.ParallelUtils;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -108,6 +117,16 @@ public class TestLauncher
      */
     private final boolean failOnError;
 
+    /**
+     * Stop running suites after the first one that fails
+     */
+    private final boolean failFast;
+
+    /**
+     * Run only the suites affected by the changes since the previous run
+     */
+    private final boolean onlyAffectedTests;
+
     private final boolean                  isApbTest;
     @NotNull private final CoverageBuilder coverageBuilder;
     @NotNull private final CoverageInfo    coverage;
@@ -132,6 +151,51 @@ public class TestLauncher
      */
     private final int maxMemory;
 
+    /**
+     * The number of suites to run concurrently
+     */
+    private final int parallelSuites;
+
+    /**
+     * The number of test methods of each suite to run concurrently
+     */
+    private final int parallelTests;
+
+    /**
+     * The kilobytes of the output of each suite to keep in memory
+     */
+    private final int outputMemory;
+
+    /**
+     * The number of suites each forked process runs when running each suite in its own process
+     */
+    private final int suitesPerFork;
+
+    /**
+     * The number of forked processes the suites are split into
+     */
+    private final int shards;
+
+    /**
+     * The seconds a forked suite can go without reporting events (0 means no limit)
+     */
+    private final int suiteTimeout;
+
+    /**
+     * The outcome and durations of the suites in previous runs
+     */
+    @Nullable private TestHistory history;
+
+    /**
+     * Set once a suite fails, when running in fail fast mode
+     */
+    @NotNull private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * The directory with the record of the classes loaded by each suite
+     */
+    @NotNull private final File impactDir;
+
     /**
      * The list of tests to exclude
      */
@@ -200,13 +264,15 @@ public class TestLauncher
         env = Apb.getEnv();
         this.classPath = new LinkedHashSet<File>(classPath);
 
-        report = reports;
+        // The durations are written once, whatever the reports of the module
+        report = new TestReportBroadcaster(Arrays.<TestReport>asList(reports, new TimingsReport()));
 
         coverage = testModule.coverage;
         fork = testModule.fork;
         forkPerSuite = testModule.forkPerSuite;
         failIfEmpty = testModule.failIfEmpty;
         failOnError = testModule.failOnError;
+        failFast = testModule.failFast;
         this.testClasses = testClasses;
 
         if (isNotEmpty(testModule.runOnly)) {
@@ -230,7 +296,9 @@ public class TestLauncher
 
         enableDebugger = testModule.enableDebugger;
 
-        if (forkPerSuite || enableDebugger || isCoverageEnabled()) {
+        shards = testModule.shards;
+
+        if (forkPerSuite || shards > 1 || enableDebugger || isCoverageEnabled()) {
             fork = true;
         }
 
@@ -238,6 +306,13 @@ public class TestLauncher
         coverageBuilder.setEnabled(isCoverageEnabled());
 
         maxMemory = testModule.memory;
+        parallelSuites = testModule.parallelSuites;
+        parallelTests = testModule.parallelTests;
+        outputMemory = testModule.outputMemory;
+        suitesPerFork = testModule.suitesPerFork;
+        suiteTimeout = testModule.suiteTimeout;
+        impactDir = TestImpact.impactDir(testClasses);
+        onlyAffectedTests = testModule.onlyAffectedTests && !isNotEmpty(testModule.runOnly);
         permGenMemory = testModule.permGenMemory;
         maxPermGenMemory = testModule.maxPermGenMemory;
 
@@ -280,6 +355,11 @@ public class TestLauncher
             showJavaArgs();
         }
 
+        if (onlyAffectedTests && !selectAffectedTests()) {
+            env.logInfo("No tests affected by the changes.\n");
+            return;
+        }
+
         int result = fork ? executeOutOfProcess() : executeInProcess();
 
         if (result == TestRunner.NO_TESTS) {
@@ -300,6 +380,54 @@ public class TestLauncher
         }
     }
 
+    /**
+     * Restrict the tests to the suites affected by the changes since the previous run
+     * (or all of them, if the '--all-tests' option was specified).
+     * The affected suites are forgotten until they succeed again.
+     * @return false if there are no tests to run
+     */
+    private boolean selectAffectedTests()
+    {
+        final List<File> cp = new ArrayList<File>(classPath);
+        cp.add(testClasses);
+
+        final Set<String> tests;
+
+        try {
+            tests =
+                listTests(createClassLoader(cp), testCreator, testClasses, includes, excludes, singleTest);
+        }
+        catch (TestSetFailedException e) {
+            throw new BuildException(e);
+        }
+
+        if (tests.isEmpty()) {
+            return true;
+        }
+
+        final TestImpact        impact = new TestImpact(impactDir);
+        final Map<String, Long> snapshot = TestImpact.snapshot(cp);
+        final List<String>      affected =
+            env.getBooleanProperty(Constants.TESTS_ALL_PROPERTY, false) ? new ArrayList<String>(tests)
+                                                                        : impact.affected(tests, snapshot);
+
+        for (String suite : affected) {
+            impact.forget(suite);
+        }
+
+        impact.save(snapshot);
+
+        if (affected.size() < tests.size()) {
+            env.logInfo("Running %d of %d suites, affected by the changes.\n", affected.size(), tests.size());
+
+            if (!affected.isEmpty()) {
+                setTests(affected.toArray(new String[affected.size()]));
+            }
+        }
+
+        return !affected.isEmpty();
+    }
+
     private static Map<String, String> expandProperties(final Environment         env,
                                                         final Map<String, String> properties,
                                                         List<String>              useProperties)
@@ -421,27 +549,43 @@ public class TestLauncher
         }
     }
 
-    private int executeOutOfProcess()
+    /**
+     * Create a loader for the tests that records the classes they load (See {@link TestImpact}).
+     * It is a single loader over the class path, as the one created when nothing is recorded
+     */
+    private ClassLoader createRecordingClassLoader(Collection<File> classPathUrls)
     {
-        File reportSpecsFile = reportSpecs();
+        try {
+            ClassLoader classLoader =
+                RecordingClassLoader.create(classPathUrls, Thread.currentThread().getContextClassLoader());
+            classLoader.setDefaultAssertionStatus(enableAssertions);
+            return classLoader;
+        }
+        catch (MalformedURLException e) {
+            throw new BuildException(e);
+        }
+    }
 
+    private int executeOutOfProcess()
+    {
         coverageBuilder.startRun();
 
         try {
-            return forkPerSuite
-                   ? executeEachSuite(reportSpecsFile)
-                   : invokeRunner(testCreator, reportSpecsFile, null, listToString(testGroups, ":"));
+            return forkPerSuite || shards > 1 ? executeEachSuite()
+                                               : invokeRunner(listToString(testGroups, ":"));
         }
         catch (Exception e) {
             throw new BuildException(e);
         }
         finally {
             coverageBuilder.stopRun(report);
-            reportSpecsFile.delete();
         }
     }
 
-    private int executeEachSuite(@NotNull File reportSpecsFile)
+    /**
+     * Run the suites in worker processes, feeding the events they send into the report
+     */
+    private int executeEachSuite()
         throws Exception
     {
         List<File> cp = new ArrayList<File>(classPath);
@@ -458,22 +602,200 @@ public class TestLauncher
 
         int result = TestRunner.OK;
 
-        for (String testSet : tests) {
+        if (shards > 1) {
+            result = executeShards(tests, testReport, listToString(testGroups, ":"));
+        }
+        else {
+            final StreamingReport.Receiver receiver = new StreamingReport.Receiver(testReport, false);
             result =
-                worseResult(result,
-                            invokeRunner(testCreator, reportSpecsFile, testSet,
-                                         listToString(testGroups, ":")));
+                executeOnWorkers(history().order(tests), receiver, listToString(testGroups, ":"),
+                                 suitesPerFork, null);
         }
 
+        history().save();
         testReport.stopRun();
         return result;
     }
 
-    private int invokeRunner(@NotNull String creator, @NotNull File reportSpecsFile, @Nullable String suite,
-                             @NotNull String groups)
+    /**
+     * Run all the suites in a single process, that generates the reports itself
+     */
+    private int invokeRunner(@NotNull String groups)
+    {
+        final File reportSpecsFile = reportSpecs();
+
+        try {
+            final JavaTask java =
+                javaRunner(runnerArgs(groups, "--report-specs-file", reportSpecsFile.getAbsolutePath(),
+                                      "--history", historyFile().getPath()));
+            java.execute();
+            return java.getExitValue();
+        }
+        finally {
+            reportSpecsFile.delete();
+        }
+    }
+
+    /**
+     * Split the suites into shards with similar durations, and run the shards at the same time.
+     * Each shard runs in a single process, unless <code>forkPerSuite</code> is set.
+     * The shards share no files: their events are streamed back and replayed into the report one suite at a
+     * time, and each shard writes its coverage data to its own file.
+     */
+    private int executeShards(@NotNull Set<String> tests, @NotNull final TestReport testReport,
+                              @NotNull final String groups)
+    {
+        final int                     suitesPerWorker = forkPerSuite ? suitesPerFork : Integer.MAX_VALUE;
+        final List<Callable<Integer>> jobs = new ArrayList<Callable<Integer>>();
+
+        for (final List<String> shard : history().split(tests, shards)) {
+            final String coverageArg = coverageBuilder.shardCoverageArg(jobs.size());
+
+            jobs.add(new Callable<Integer>() {
+                    public Integer call()
+                        throws IOException
+                    {
+                        final StreamingReport.Receiver receiver =
+                            new StreamingReport.Receiver(testReport, true);
+                        return executeOnWorkers(shard, receiver, groups, suitesPerWorker, coverageArg);
+                    }
+                });
+        }
+
+        int result = TestRunner.OK;
+
+        for (Integer r : ParallelUtils.run(shards, jobs)) {
+            result = worseResult(result, r);
+        }
+
+        return result;
+    }
+
+    /**
+     * Run the suites in forked workers, each one running up to the specified number of suites.
+     * A worker is replaced as soon as one of its suites fails.
+     * In fail fast mode, no more suites are started once a suite fails in any of the workers.
+     * The optional java argument is added to every worker.
+     */
+    private int executeOnWorkers(@NotNull Collection<String>       tests,
+                                 @NotNull StreamingReport.Receiver receiver, @NotNull String groups,
+                                 int suitesPerWorker, @Nullable String javaArg)
+        throws IOException
+    {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName(null));
+        TestWorker         worker = null;
+        int                result = TestRunner.OK;
+
+        try {
+            for (String testSet : tests) {
+                if (stopped.get()) {
+                    break;
+                }
+
+                if (worker == null) {
+                    final List<String> args =
+                        runnerArgs(groups, "--worker", String.valueOf(server.getLocalPort()));
+                    final JavaTask java = javaRunner(args);
+
+                    if (javaArg != null) {
+                        java.addJavaArg(javaArg);
+                    }
+
+                    worker = TestWorker.start(java, server, suiteTimeout);
+                }
+
+                final long start = System.currentTimeMillis();
+                int        r;
+
+                try {
+                    r = worker.run(testSet, receiver);
+                    history().record(testSet, System.currentTimeMillis() - start, r != TestRunner.OK);
+                }
+                catch (IOException e) {
+                    receiver.abort(e);
+                    env.logWarning("Test worker failed running: %s (%s)\n", testSet, e.getMessage());
+                    r = TestRunner.ERROR;
+                }
+
+                result = worseResult(result, r);
+                stopIfFailed(r);
+
+                if (r != TestRunner.OK || worker.getSuitesRun() >= suitesPerWorker) {
+                    result = worseResult(result, stopWorker(worker));
+                    worker = null;
+                }
+            }
+
+            if (worker != null) {
+                result = worseResult(result, stopWorker(worker));
+                worker = null;
+            }
+        }
+        finally {
+            if (worker != null) {
+                stopWorker(worker);
+            }
+
+            server.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Stop a worker, reporting an error if its process failed
+     */
+    private int stopWorker(@NotNull TestWorker worker)
+    {
+        try {
+            worker.stop();
+            return TestRunner.OK;
+        }
+        catch (IOException e) {
+            env.logWarning("%s\n", e.getMessage());
+            return TestRunner.ERROR;
+        }
+    }
+
+    /**
+     * In fail fast mode, stop running suites if the result is a failure
+     */
+    private void stopIfFailed(int result)
+    {
+        if (failFast && result != TestRunner.OK && stopped.compareAndSet(false, true)) {
+            env.logWarning("Stopping after the first failed suite.\n");
+        }
+    }
+
+    /**
+     * The history of the suites, kept in the reports directory
+     */
+    @NotNull private synchronized TestHistory history()
+    {
+        TestHistory result = history;
+
+        if (result == null) {
+            history = result = new TestHistory(historyFile());
+        }
+
+        return result;
+    }
+
+    @NotNull private File historyFile()
+    {
+        final File dir = reportDir;
+        return TestHistory.historyFile(dir != null ? dir : testClasses.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * The arguments for the test runner
+     * @param groups The test groups to run
+     * @param options Additional options for the runner
+     */
+    @NotNull private List<String> runnerArgs(@NotNull String groups, @NotNull String... options)
     {
         // Create Arguments for Java Command
-        List<String> args = new ArrayList<String>();
+        List<String> args = new ArrayList<String>(asList(options));
 
         // testrunner arguments
         if (env.isVerbose()) {
@@ -484,6 +806,23 @@ public class TestLauncher
             args.add("-f");
         }
 
+        if (failFast) {
+            args.add("--fail-fast");
+        }
+
+        if (parallelSuites > 1) {
+            args.add("-p");
+            args.add(String.valueOf(parallelSuites));
+        }
+
+        if (parallelTests > 1) {
+            args.add("--parallel-tests");
+            args.add(String.valueOf(parallelTests));
+        }
+
+        args.add("--output-memory");
+        args.add(String.valueOf(outputMemory));
+
         args.add("-c");
 
         final Set<File> cp = new LinkedHashSet<File>();
@@ -499,20 +838,14 @@ public class TestLauncher
 
         args.add(makePath(cp));
 
-        if (suite == null) {
-            if (!includes.isEmpty()) {
-                args.add("-i");
-                args.add(makePathFromStrings(includes));
-            }
-
-            if (!excludes.isEmpty()) {
-                args.add("-e");
-                args.add(makePathFromStrings(excludes));
-            }
+        if (!includes.isEmpty()) {
+            args.add("-i");
+            args.add(makePathFromStrings(includes));
         }
-        else {
-            args.add("-s");
-            args.add(suite.replace('.', '/'));
+
+        if (!excludes.isEmpty()) {
+            args.add("-e");
+            args.add(makePathFromStrings(excludes));
         }
 
         if (isNotEmpty(singleTest)) {
@@ -520,6 +853,11 @@ public class TestLauncher
             args.add(singleTest);
         }
 
+        if (onlyAffectedTests) {
+            args.add("--impact");
+            args.add(impactDir.getPath());
+        }
+
         if (!groups.isEmpty()) {
             args.add("-g");
             args.add(groups);
@@ -533,10 +871,7 @@ public class TestLauncher
         }
 
         args.add("--creator");
-        args.add(creator);
-
-        args.add("--report-specs-file");
-        args.add(reportSpecsFile.getAbsolutePath());
+        args.add(testCreator);
 
         // Add the test directory
         args.add(testClasses.getAbsolutePath());
@@ -545,7 +880,14 @@ public class TestLauncher
         // This must be done after ALL arguments are added
         escapeDollars(args);
 
-        // Execute  the java command
+        return args;
+    }
+
+    @NotNull private JavaTask javaRunner(@NotNull List<String> args)
+    {
+        final File[] runnerPath = runnerClassPath();
+
+        // Create the java command
         JavaTask java =
             java(TESTRUNNER_MAIN, args).withClassPath(asStrings(runnerPath))  //
                                        .maxMemory(maxMemory)  //
@@ -568,9 +910,7 @@ public class TestLauncher
 
         java.enableAssertions(enableAssertions);
 
-        java.execute();
-
-        return java.getExitValue();
+        return java;
     }
 
     private File[] runnerClassPath()
@@ -641,9 +981,22 @@ public class TestLauncher
 
         try {
             TestRunner      runner = new TestRunner(testClasses, reportDir, includes, excludes, testGroups);
-            final Set<File> cp = new HashSet<File>(classPath);
+            runner.setParallelSuites(parallelSuites);
+            runner.setParallelTests(parallelTests);
+            runner.setFailFast(failFast);
+            runner.setHistory(historyFile());
+
+            if (outputMemory > 0) {
+                OutputHandler.setMemoryLimit(outputMemory * 1024);
+            }
+
+            if (onlyAffectedTests) {
+                runner.setImpactDir(impactDir);
+            }
+            // Keep the order of the class path, as the forked runners do
+            final Set<File> cp = new LinkedHashSet<File>(classPath);
             cp.add(testClasses);
-            final ClassLoader loader = createClassLoader(cp);
+            final ClassLoader loader = onlyAffectedTests ? createRecordingClassLoader(cp) : createClassLoader(cp);
             return runner.run(testCreator, report, loader, singleTest);
         }
         catch (Exception e) {
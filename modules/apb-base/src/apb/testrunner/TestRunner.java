@@ -26,10 +26,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import apb.testrunner.output.RecordingReport;
 import apb.testrunner.output.TestReport;
 
 import apb.utils.DirectoryScanner;
+import apb.utils.ParallelUtils;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -44,8 +48,21 @@ class TestRunner
     //~ Instance fields ......................................................................................
 
     private boolean failEmpty;
+    private boolean failFast;
+    private int     parallelSuites = 1;
+    private int     parallelTests = 1;
     private boolean verbose;
 
+    /**
+     * The outcome and duration of the suites in previous runs, used to order them
+     */
+    @Nullable private TestHistory history;
+
+    /**
+     * The record of the classes loaded by each suite, if it must be kept
+     */
+    @Nullable private TestImpact impact;
+
     @NotNull private final File basedir;
     @NotNull private final File outputDir;
 
@@ -91,22 +108,35 @@ class TestRunner
                    String singleTest)
         throws TestSetFailedException
     {
-        final Collection<TestSet> tests =
-            loadTests(testsClassLoader, creator, basedir, includes, excludes, singleTest).values();
+        final Collection<TestSet<?>> tests =
+            order(loadTests(testsClassLoader, creator, basedir, includes, excludes, singleTest));
 
         report = report.init(outputDir);
         report.startRun(tests.size());
 
         int exit = OK;
 
-        for (TestSet<?> testSet : tests) {
-            boolean ok = testSet.run(testsClassLoader, report, testGroups);
+        if (parallelSuites > 1 && tests.size() > 1) {
+            exit = runConcurrently(tests, report, testsClassLoader);
+        }
+        else {
+            for (TestSet<?> testSet : tests) {
+                boolean ok = runSuite(testSet, report, testsClassLoader);
 
-            if (!ok) {
-                exit = ERROR;
+                if (!ok) {
+                    exit = ERROR;
+                }
+
+                if (failFast && (!ok || report.getSuitesFailed() > 0)) {
+                    break;
+                }
             }
         }
 
+        if (history != null) {
+            history.save();
+        }
+
         report.stopRun();
 
         return exit == OK ? exitValue(report) : ERROR;
@@ -120,7 +150,7 @@ class TestRunner
         TestSet<?> testSet = loadTest(testsClassLoader, creator, suite, singleTest);
 
         if (testSet != null) {
-            testSet.run(testsClassLoader, report, testGroups);
+            runSuite(testSet, report, testsClassLoader);
         }
 
         return exitValue(report);
@@ -136,20 +166,194 @@ class TestRunner
         failEmpty = v;
     }
 
+    /**
+     * Keep a record of the classes loaded by each suite in the specified directory
+     * (See {@link TestImpact})
+     */
+    public void setImpactDir(@Nullable File dir)
+    {
+        impact = dir == null ? null : new TestImpact(dir);
+    }
+
+    /**
+     * Run first the suites that failed in the previous run and then the slowest ones,
+     * recording the outcome and duration of each suite in the specified file (See {@link TestHistory})
+     */
+    public void setHistory(@Nullable File file)
+    {
+        history = file == null ? null : new TestHistory(file);
+    }
+
+    /**
+     * Stop running suites after the first one that fails
+     */
+    public void setFailFast(boolean b)
+    {
+        failFast = b;
+    }
+
+    /**
+     * Set the number of suites to be run concurrently
+     */
+    public void setParallelSuites(int n)
+    {
+        parallelSuites = n;
+    }
+
+    /**
+     * Set the number of tests of each suite to be run concurrently
+     */
+    public void setParallelTests(int n)
+    {
+        parallelTests = n;
+    }
+
     public boolean isVerbose()
     {
         return verbose;
     }
 
-    private static <T> Map<String, TestSet> loadTests(ClassLoader testsClassLoader, TestSetCreator<T> creator,
-                                                      File basedir, List<String> includes,
-                                                      List<String> excludes, String singleTest)
+    /**
+     * Run the suites using a pool of threads.
+     * Each suite runs against its own {@link RecordingReport} that captures the output of the thread,
+     * and once the suite finishes its events are replayed into the shared report, one suite at a time.
+     */
+    private int runConcurrently(@NotNull Collection<TestSet<?>> tests, @NotNull final TestReport report,
+                                @NotNull final ClassLoader testsClassLoader)
+    {
+        final List<Callable<Boolean>> jobs = new ArrayList<Callable<Boolean>>(tests.size());
+        final AtomicBoolean           failed = new AtomicBoolean();
+
+        for (final TestSet<?> testSet : tests) {
+            jobs.add(new Callable<Boolean>() {
+                    public Boolean call()
+                        throws TestSetFailedException
+                    {
+                        if (failFast && failed.get()) {
+                            return true;
+                        }
+
+                        final RecordingReport recorder = new RecordingReport();
+                        recorder.startCapture();
+
+                        try {
+                            final boolean ok = runSuite(testSet, recorder, testsClassLoader);
+
+                            synchronized (report) {
+                                recorder.replay(report);
+                            }
+
+                            if (!ok || recorder.getSuitesFailed() > 0) {
+                                failed.set(true);
+                            }
+
+                            return ok;
+                        }
+                        finally {
+                            recorder.stopCapture();
+                        }
+                    }
+                });
+        }
+
+        int exit = OK;
+
+        for (Boolean ok : ParallelUtils.run(parallelSuites, jobs)) {
+            if (!ok) {
+                exit = ERROR;
+            }
+        }
+
+        return exit;
+    }
+
+    /**
+     * Run a suite, recording its outcome and duration if the history is being kept
+     */
+    private boolean runSuite(@NotNull TestSet<?> testSet, @NotNull TestReport report,
+                             @NotNull ClassLoader testsClassLoader)
+        throws TestSetFailedException
+    {
+        final TestHistory h = history;
+
+        if (h == null) {
+            return runSuiteRecordingClasses(testSet, report, testsClassLoader);
+        }
+
+        final int     failed = report.getSuitesFailed();
+        final long    start = System.currentTimeMillis();
+        final boolean ok = runSuiteRecordingClasses(testSet, report, testsClassLoader);
+        final long    millis = System.currentTimeMillis() - start;
+        h.record(testSet.getName(), millis, !ok || report.getSuitesFailed() != failed);
+        return ok;
+    }
+
+    /**
+     * Run a suite.
+     * If the classes loaded by the suites are being recorded, and the tests are loaded by a
+     * {@link RecordingClassLoader}, the classes it has loaded once the suite finishes are recorded for it.
+     * The classes are only recorded if the suite succeeds, so a failed suite is always run again.
+     */
+    private boolean runSuiteRecordingClasses(@NotNull TestSet<?> testSet, @NotNull TestReport report,
+                                             @NotNull ClassLoader testsClassLoader)
         throws TestSetFailedException
     {
-        Map<String, TestSet> testSets = new TreeMap<String, TestSet>();
+        testSet.setParallelTests(parallelTests);
+
+        final int     failed = report.getSuitesFailed();
+        final boolean ok = testSet.run(testsClassLoader, report, testGroups);
+        final TestImpact ti = impact;
+
+        if (ti != null && testsClassLoader instanceof RecordingClassLoader) {
+            if (ok && report.getSuitesFailed() == failed) {
+                ti.record(testSet.getName(), ((RecordingClassLoader) testsClassLoader).getLoadedClasses());
+            }
+            else {
+                ti.forget(testSet.getName());
+            }
+        }
+
+        return ok;
+    }
+
+    /**
+     * The suites in the order defined by the history, or by name if there is no history
+     */
+    @NotNull private Collection<TestSet<?>> order(@NotNull Map<String, TestSet<?>> tests)
+    {
+        final TestHistory h = history;
+
+        if (h == null) {
+            return tests.values();
+        }
+
+        final List<TestSet<?>> result = new ArrayList<TestSet<?>>(tests.size());
+
+        for (String name : h.order(tests.keySet())) {
+            result.add(tests.get(name));
+        }
+
+        return result;
+    }
+
+    private static <T> Map<String, TestSet<?>> loadTests(ClassLoader testsClassLoader,
+                                                         TestSetCreator<T> creator, File basedir,
+                                                         List<String> includes, List<String> excludes,
+                                                         String singleTest)
+        throws TestSetFailedException
+    {
+        Map<String, TestSet<?>> testSets = new TreeMap<String, TestSet<?>>();
+
+        final TestSetCreator.Discovery discovery =
+            creator instanceof TestSetCreator.Discovery ? (TestSetCreator.Discovery) creator : null;
 
         // Load tests
         for (String file : collectTests(basedir, excludes, includes)) {
+            // Do not load the classes that are not tests
+            if (discovery != null && !discovery.isTestClass(className(file), testsClassLoader)) {
+                continue;
+            }
+
             TestSet<T> testSet = loadTest(testsClassLoader, creator, file, singleTest);
 
             if (testSet != null) {
@@ -182,8 +386,7 @@ class TestRunner
         throws TestSetFailedException
     {
         try {
-            String className = file.replace(File.separatorChar, '.');
-            className = className.substring(0, className.length() - ".class".length());
+            final String className = className(file);
 
             final Thread      currentThread = Thread.currentThread();
             final ClassLoader prevClassloader = currentThread.getContextClassLoader();
@@ -201,6 +404,15 @@ class TestRunner
         }
     }
 
+    /**
+     * The name of the class in the specified class file
+     */
+    private static String className(String file)
+    {
+        final String result = file.replace(File.separatorChar, '.');
+        return result.substring(0, result.length() - ".class".length());
+    }
+
     private static List<String> collectTests(File basedir, List<String> excludes, List<String> includes)
         throws TestSetFailedException
     {
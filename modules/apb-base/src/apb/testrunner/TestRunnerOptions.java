@@ -32,6 +32,7 @@ import apb.utils.OptionParser;
 
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import static apb.Apb.exit;
 
@@ -51,8 +52,14 @@ class TestRunnerOptions
     private final Option<String>                  creator;
     private final Option<String>                  excludes;
     private final Option<Boolean>                 failEmpty;
+    private final Option<Boolean>                 failFast;
+    private final Option<String>                  history;
+    private final Option<String>                  impact;
     private final Option<String>                  includes;
     private final Option<String>                  output;
+    private final Option<Integer>                 outputMemory;
+    private final Option<Integer>                 parallelSuites;
+    private final Option<Integer>                 parallelTests;
     private final Option<Boolean>                 quiet;
     private final Option<String>                  reports;
     private final Option<String>                  reportSpecs;
@@ -61,6 +68,7 @@ class TestRunnerOptions
     private final Option<String>                  testGroups;
     private final Option<String>                  type;
     private final Option<Boolean>                 verbose;
+    private final Option<Integer>                 workerPort;
     @NotNull private final TestSetCreator.Factory factory;
 
     //~ Constructors .........................................................................................
@@ -87,6 +95,19 @@ class TestRunnerOptions
         output = addOption('o', "output", Messages.OUTPUT_FOR_REPORTS, "<directory>");
         creator = addOption("creator", "A class defining a creator for a test type.", "<class>");
         singleTest = addOption("single-test", "Define a single test to be run.", "<test-name>");
+        failFast = addBooleanOption('\0', "fail-fast", "Stop running suites after the first failure.");
+        history = addOption("history", "Order the suites using the outcome of the previous run.", "<file>");
+        impact = addOption("impact", "Record the classes loaded by each suite in the directory.", "<directory>");
+        parallelSuites = addIntegerOption('p', "parallel-suites", "The number of suites to run concurrently.", "<n>");
+        parallelSuites.setValue("1");
+        parallelTests =
+            addIntegerOption('\0', "parallel-tests", "The number of concurrent tests per suite.", "<n>");
+        parallelTests.setValue("1");
+        outputMemory =
+            addIntegerOption('\0', "output-memory", "Kilobytes of captured output to keep in memory.", "<kb>");
+        outputMemory.setValue("0");
+        workerPort = addIntegerOption('w', "worker", "Run the suites received from a local port.", "<port>");
+        workerPort.setValue("0");
 
         for (String testType : factory.names()) {
             type.addValidValue(testType);
@@ -183,6 +204,46 @@ class TestRunnerOptions
         return result;
     }
 
+    public int getParallelSuites()
+    {
+        return parallelSuites.getValue();
+    }
+
+    public int getParallelTests()
+    {
+        return parallelTests.getValue();
+    }
+
+    public boolean isFailFast()
+    {
+        return failFast.getValue();
+    }
+
+    @Nullable public File getHistoryFile()
+    {
+        final String file = history.getValue();
+        return isEmpty(file) ? null : new File(file);
+    }
+
+    @Nullable public File getImpactDir()
+    {
+        final String dir = impact.getValue();
+        return isEmpty(dir) ? null : new File(dir);
+    }
+
+    /**
+     * The kilobytes of output to keep in memory for each suite, 0 to use the default
+     */
+    public int getOutputMemory()
+    {
+        return outputMemory.getValue();
+    }
+
+    public int getWorkerPort()
+    {
+        return workerPort.getValue();
+    }
+
     public String getSingleTest()
     {
         return singleTest.getValue();
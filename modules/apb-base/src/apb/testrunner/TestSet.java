@@ -32,6 +32,8 @@ public abstract class TestSet<T>
 {
     //~ Instance fields ......................................................................................
 
+    private int parallelTests = 1;
+
     private final Class<T> testClass;
 
     //~ Constructors .........................................................................................
@@ -57,6 +59,24 @@ public abstract class TestSet<T>
         return testClass;
     }
 
+    /**
+     * The number of tests of the set to run concurrently
+     */
+    public int getParallelTests()
+    {
+        return parallelTests;
+    }
+
+    /**
+     * Set the number of tests of the set to run concurrently.
+     * The events of the tests run concurrently must be sent to the report through a
+     * {@link apb.testrunner.output.ParallelTestsReport}.
+     */
+    public void setParallelTests(int n)
+    {
+        parallelTests = n;
+    }
+
     public boolean run(@NotNull ClassLoader testsClassLoader, @NotNull TestReport report,
                        @NotNull List<String> testGroups)
         throws TestSetFailedException
@@ -49,6 +49,21 @@ public interface TestSetCreator<T>
 
     //~ Inner Classes ........................................................................................
 
+    /**
+     * Implemented by the creators that can tell which classes are tests without loading them
+     * @exclude
+     */
+    interface Discovery
+    {
+        /**
+         * Whether the class can be a test.
+         * It must be true when this cannot be known without loading the class.
+         * @param className The name of the class
+         * @param classLoader The loader used to read the class file of the class and its superclasses
+         */
+        boolean isTestClass(@NotNull String className, @NotNull ClassLoader classLoader);
+    }
+
     /**
      * A factory for TestSetCreator implementations
      * @exclude
@@ -0,0 +1,266 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import apb.tasks.JavaTask;
+
+import apb.testrunner.output.StreamingReport;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static apb.Constants.UTF8;
+
+/**
+ * A forked test runner that keeps running the suites it receives through a local socket,
+ * so the start up of the Java VM is paid once for several suites.
+ * The events of the suites are sent back through the same socket as they happen.
+ */
+public class TestWorker
+{
+    //~ Instance fields ......................................................................................
+
+    /**
+     * Whether a failure of the worker has already been reported
+     */
+    private boolean failed;
+
+    private int                           suitesRun;
+    private final int                     timeout;
+    @NotNull private final BufferedReader in;
+    @NotNull private final PrintWriter    out;
+    @NotNull private final WorkerProcess  process;
+    @NotNull private final Socket         socket;
+
+    //~ Constructors .........................................................................................
+
+    private TestWorker(@NotNull WorkerProcess process, @NotNull Socket socket, int timeout)
+        throws IOException
+    {
+        this.process = process;
+        this.socket = socket;
+        this.timeout = timeout;
+        socket.setSoTimeout(timeout * 1000);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), UTF8), true);
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Start the worker process and wait for it to connect to the server socket
+     * @param java The command that starts the worker
+     * @param server The socket the worker connects to
+     * @param timeout The seconds a suite can run without sending events, before the worker is considered
+     *                hung (0 means no limit)
+     * @throws IOException If the worker finished, or did not connect in time
+     */
+    @NotNull public static TestWorker start(@NotNull JavaTask java, @NotNull ServerSocket server, int timeout)
+        throws IOException
+    {
+        final WorkerProcess process = new WorkerProcess(java);
+        process.start();
+
+        server.setSoTimeout(ACCEPT_TIMEOUT);
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+
+        while (true) {
+            try {
+                return new TestWorker(process, server.accept(), timeout);
+            }
+            catch (SocketTimeoutException e) {
+                if (!process.isAlive()) {
+                    throw process.failure("Test worker finished before accepting suites");
+                }
+
+                if (System.currentTimeMillis() > deadline) {
+                    process.java.destroy();
+                    process.waitFor();
+                    throw new IOException("Test worker did not connect in " + CONNECT_TIMEOUT / 1000 +
+                                          " seconds");
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a suite in the worker
+     * @param suite The name of the suite class
+     * @param receiver The receiver for the events of the suite
+     * @return The result of the suite
+     * @throws IOException If the worker died, or stopped answering, while running the suite
+     */
+    public int run(@NotNull String suite, @NotNull StreamingReport.Receiver receiver)
+        throws IOException
+    {
+        out.println(suite);
+
+        try {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    suitesRun++;
+                    return Integer.parseInt(line.substring(RESULT.length()).trim());
+                }
+
+                receiver.accept(line);
+            }
+        }
+        catch (SocketTimeoutException e) {
+            failed = true;
+            throw new IOException("Test worker did not answer in " + timeout + " seconds");
+        }
+        catch (NumberFormatException e) {
+            failed = true;
+            throw new IOException("Invalid answer from test worker: " + e.getMessage());
+        }
+
+        failed = true;
+        process.waitFor();
+        throw process.failure("Test worker finished unexpectedly");
+    }
+
+    /**
+     * The number of suites run by the worker
+     */
+    public int getSuitesRun()
+    {
+        return suitesRun;
+    }
+
+    /**
+     * Ask the worker to finish and wait for it, killing it if it does not finish in time
+     * @throws IOException If the worker process failed, and the failure was not reported yet
+     */
+    public void stop()
+        throws IOException
+    {
+        try {
+            socket.close();
+        }
+        catch (IOException ignore) {
+            // Nothing to do
+        }
+
+        if (!process.waitFor()) {
+            process.java.destroy();
+            process.waitFor();
+        }
+
+        if (!failed && !process.succeeded()) {
+            failed = true;
+            throw process.failure("Test worker failed");
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    /**
+     * The prefix of the line with the result of a suite
+     */
+    static final String RESULT = "=";
+
+    private static final int ACCEPT_TIMEOUT = 500;
+
+    /**
+     * The time to wait for a new worker process to connect
+     */
+    private static final int CONNECT_TIMEOUT = 60 * 1000;
+
+    /**
+     * The time to wait for the worker process to finish, once the connection is closed
+     */
+    private static final int STOP_TIMEOUT = 10 * 1000;
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * The thread that runs the worker process, keeping how it finished
+     */
+    private static class WorkerProcess
+        extends Thread
+    {
+        @Nullable private volatile RuntimeException error;
+        @NotNull private final JavaTask             java;
+
+        WorkerProcess(@NotNull JavaTask java)
+        {
+            super("apb-test-worker");
+            this.java = java;
+            setDaemon(true);
+        }
+
+        @Override public void run()
+        {
+            try {
+                java.execute();
+            }
+            catch (RuntimeException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Wait for the process to finish
+         * @return true if the process finished
+         */
+        boolean waitFor()
+        {
+            try {
+                join(STOP_TIMEOUT);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return !isAlive();
+        }
+
+        boolean succeeded()
+        {
+            return !isAlive() && error == null && java.getExitValue() == 0;
+        }
+
+        /**
+         * An exception describing how the process finished
+         */
+        @NotNull IOException failure(@NotNull String message)
+        {
+            final RuntimeException e = error;
+
+            if (e != null) {
+                final IOException result = new IOException(message + " (" + e.getMessage() + ")");
+                result.initCause(e);
+                return result;
+            }
+
+            return new IOException(message + (isAlive() ? "" : " (exit code " + java.getExitValue() + ")"));
+        }
+    }
+}
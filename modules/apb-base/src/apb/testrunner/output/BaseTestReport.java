@@ -19,6 +19,7 @@
 package apb.testrunner.output;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -37,6 +38,7 @@ public abstract class BaseTestReport
     protected File          reportsDir;
 
     @Nullable protected transient OutputHandler out;
+    @Nullable private transient TestTimings     timings;
 
     protected final String fileName;
 
@@ -54,12 +56,18 @@ public abstract class BaseTestReport
     public void startRun(int n)
     {
         super.startRun(n);
+        timings = new TestTimings();
     }
 
     @Override
     public void startSuite(@NotNull String suiteName)
     {
         super.startSuite(suiteName);
+
+        if (timings != null) {
+            timings.startSuite(suiteName, currentNanos());
+        }
+
         OutputHandler.getInstance().init(showOutput);
     }
 
@@ -67,22 +75,61 @@ public abstract class BaseTestReport
     public void endSuite()
     {
         super.endSuite();
+
+        if (timings != null) {
+            timings.endSuite(currentNanos());
+        }
+
         OutputHandler.getInstance().restore();
     }
 
+    @Override
+    public void startTest(@NotNull String testName)
+    {
+        super.startTest(testName);
+
+        if (timings != null) {
+            timings.startTest(testName, currentNanos());
+        }
+    }
+
+    @Override
+    public void endTest()
+    {
+        super.endTest();
+
+        if (timings != null) {
+            timings.endTest(currentNanos());
+        }
+    }
+
     @Override
     public void stopRun()
     {
         OutputHandler.reset();
     }
 
-    protected abstract void printOutput(String title, String content);
+    /**
+     * The durations of the suites and tests run so far
+     */
+    @Nullable TestTimings getTimings()
+    {
+        return timings;
+    }
+
+    protected abstract void printOutput(String title, OutputBuffer content)
+        throws IOException;
 
     protected void appendOutAndErr()
     {
         if (showOutput) {
-            printOutput(SYSTEM_OUT, OutputHandler.getInstance().getOutput());
-            printOutput(SYSTEM_ERR, OutputHandler.getInstance().getError());
+            try {
+                printOutput(SYSTEM_OUT, OutputHandler.getInstance().getOutput());
+                printOutput(SYSTEM_ERR, OutputHandler.getInstance().getError());
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
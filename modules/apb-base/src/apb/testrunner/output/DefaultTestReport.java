@@ -88,12 +88,12 @@ public abstract class DefaultTestReport
 
     public long getSuiteTimeElapsed()
     {
-        return System.currentTimeMillis() - suiteStartTime;
+        return currentTime() - suiteStartTime;
     }
 
     public long getTimeElapsed()
     {
-        return System.currentTimeMillis() - startTime;
+        return currentTime() - startTime;
     }
 
     @Override public int getSuitesFailed()
@@ -129,7 +129,7 @@ public abstract class DefaultTestReport
     @Override public void startRun(int n)
     {
         totalSuites = n;
-        startTime = System.currentTimeMillis();
+        startTime = currentTime();
         coverageClass = coverageMethod = coverageBlock = coverageLine = -1;
     }
 
@@ -149,7 +149,7 @@ public abstract class DefaultTestReport
         currentSuite = suiteName;
         suiteTestsRun = 0;
         suiteTestFailures = 0;
-        suiteStartTime = System.currentTimeMillis();
+        suiteStartTime = currentTime();
     }
 
     @Override public void endSuite()
@@ -208,7 +208,39 @@ public abstract class DefaultTestReport
         return coverageLine;
     }
 
+    /**
+     * The current time, or the time the event being replayed was recorded
+     * (See {@link RecordingReport})
+     */
+    protected static long currentTime()
+    {
+        final long[] time = replayTime.get();
+        return time == null ? System.currentTimeMillis() : time[0];
+    }
+
+    /**
+     * The value of the high resolution timer now, or when the event being replayed was recorded.
+     * It can only be used to measure elapsed time.
+     */
+    protected static long currentNanos()
+    {
+        final long[] time = replayTime.get();
+        return time == null ? System.nanoTime() : time[1];
+    }
+
+    static void setReplayTime(long time, long nanos)
+    {
+        replayTime.set(new long[] { time, nanos });
+    }
+
+    static void clearReplayTime()
+    {
+        replayTime.remove();
+    }
+
     //~ Static fields/initializers ...........................................................................
 
     private static final long serialVersionUID = 2748763729187869689L;
+
+    private static final ThreadLocal<long[]> replayTime = new ThreadLocal<long[]>();
 }
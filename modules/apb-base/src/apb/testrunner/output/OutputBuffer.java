@@ -0,0 +1,325 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A buffer for the output captured from tests.
+ * It is kept in memory up to a limit, and from then on in a temporary file,
+ * that is deleted when the buffer is deleted or closed.
+ */
+public class OutputBuffer
+    extends OutputStream
+{
+    //~ Instance fields ......................................................................................
+
+    private final int limit;
+    private long      size;
+    private long      threshold;
+
+    @Nullable private File         file;
+    @Nullable private OutputStream fileStream;
+    @Nullable private Memory       memory;
+    @Nullable private Runnable     overflowAction;
+
+    //~ Constructors .........................................................................................
+
+    /**
+     * Create a buffer
+     * @param limit The number of bytes to keep in memory
+     */
+    public OutputBuffer(int limit)
+    {
+        this.limit = limit;
+        memory = new Memory();
+    }
+
+    //~ Methods ..............................................................................................
+
+    @Override public void write(int b)
+        throws IOException
+    {
+        synchronized (this) {
+            target(1).write(b);
+            size++;
+        }
+
+        checkOverflow();
+    }
+
+    @Override public void write(@NotNull byte[] b, int off, int len)
+        throws IOException
+    {
+        synchronized (this) {
+            target(len).write(b, off, len);
+            size += len;
+        }
+
+        checkOverflow();
+    }
+
+    @Override public synchronized void flush()
+        throws IOException
+    {
+        if (fileStream != null) {
+            fileStream.flush();
+        }
+    }
+
+    /**
+     * The number of bytes captured
+     */
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Whether the output did not fit in memory and was moved to a file
+     */
+    public synchronized boolean isSpilled()
+    {
+        return file != null;
+    }
+
+    /**
+     * A reader for the captured output, decoded with the default encoding as the PrintStreams that write it
+     */
+    @NotNull public synchronized Reader openReader()
+        throws IOException
+    {
+        final Memory m = memory;
+        final File   f = file;
+
+        if (m == null && f == null) {
+            return new StringReader("");
+        }
+
+        flush();
+        return new InputStreamReader(f == null ? m.open() : new FileInputStream(f));
+    }
+
+    /**
+     * Take the output captured so far, leaving the buffer empty to go on capturing.
+     * Closing the reader deletes the temporary file the output was moved to (if any)
+     */
+    @NotNull public synchronized Reader drain()
+        throws IOException
+    {
+        final Memory       m = memory;
+        final File         f = file;
+        final OutputStream fs = fileStream;
+
+        if (m == null && f == null) {
+            return new StringReader("");
+        }
+
+        size = 0;
+
+        if (m != null) {
+            final byte[] bytes = m.toByteArray();
+            m.reset();
+            return new InputStreamReader(new ByteArrayInputStream(bytes));
+        }
+
+        if (fs != null) {
+            fs.close();
+        }
+
+        file = null;
+        fileStream = null;
+        memory = new Memory();
+
+        return new InputStreamReader(new FileInputStream(f) {
+                @Override public void close()
+                    throws IOException
+                {
+                    super.close();
+                    f.delete();
+                }
+            });
+    }
+
+    /**
+     * Run an action each time a write leaves the buffer with at least the specified number of bytes.
+     * The action runs in the writing thread, outside the lock of the buffer, and it usually drains it
+     * @param threshold The number of bytes
+     * @param action The action, or null to remove it
+     */
+    public synchronized void onOverflow(long threshold, @Nullable Runnable action)
+    {
+        this.threshold = threshold;
+        overflowAction = action;
+    }
+
+    /**
+     * Copy the captured output to a writer
+     */
+    public void writeTo(@NotNull Writer w)
+        throws IOException
+    {
+        final Reader reader = openReader();
+
+        try {
+            final char[] buffer = new char[BUFFER_SIZE];
+            int          n;
+
+            while ((n = reader.read(buffer)) != -1) {
+                w.write(buffer, 0, n);
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Closing the buffer discards the captured output (See {@link #delete})
+     */
+    @Override public void close()
+    {
+        delete();
+    }
+
+    /**
+     * Discard the captured output, deleting the temporary file if there is one
+     */
+    public synchronized void delete()
+    {
+        memory = null;
+
+        if (fileStream != null) {
+            try {
+                fileStream.close();
+            }
+            catch (IOException ignore) {
+                // Nothing to do
+            }
+
+            fileStream = null;
+        }
+
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * The captured output as a String. Use it only when the output is known to be small
+     */
+    @Override public String toString()
+    {
+        final StringWriter result = new StringWriter();
+
+        try {
+            writeTo(result);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return result.toString();
+    }
+
+    private void checkOverflow()
+    {
+        final Runnable action;
+
+        synchronized (this) {
+            action = size >= threshold ? overflowAction : null;
+        }
+
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * The stream to write to, moving the output to a file if it is going to exceed the limit
+     */
+    @NotNull private OutputStream target(int len)
+        throws IOException
+    {
+        final OutputStream fs = fileStream;
+
+        if (fs != null) {
+            return fs;
+        }
+
+        final Memory m = memory;
+
+        if (m == null) {
+            throw new IOException("Output buffer already deleted");
+        }
+
+        if (m.size() + len <= limit) {
+            return m;
+        }
+
+        final File f = File.createTempFile("apb-output", null);
+        file = f;
+
+        final OutputStream result = new BufferedOutputStream(new FileOutputStream(f));
+        m.writeTo(result);
+        memory = null;
+        fileStream = result;
+        return result;
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final int BUFFER_SIZE = 8192;
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * An in memory buffer that can be read without copying it
+     */
+    private static class Memory
+        extends ByteArrayOutputStream
+    {
+        @NotNull synchronized InputStream open()
+        {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
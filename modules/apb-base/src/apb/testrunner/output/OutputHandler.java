@@ -18,13 +18,23 @@
 
 package apb.testrunner.output;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 import apb.utils.FileUtils;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
 /**
- * Manages the Standard error and Standard Output for tests
+ * Manages the Standard error and Standard Output for tests.
+ * Output is captured per thread, so suites running concurrently do not mix their output:
+ * while capturing, System.out and System.err are replaced by streams that write to
+ * the handler of the current thread (or to the original streams when the thread is not capturing).
+ * Threads started by a capturing thread share its handler.
+ * The output is kept in memory up to a limit, and then in a temporary file (See {@link OutputBuffer}).
+ * @exclude
  */
 
 //
@@ -32,17 +42,16 @@ import apb.utils.FileUtils;
 // Date: Jun 19, 2009
 // Time: 11:12:46 AM
 
-class OutputHandler
+public class OutputHandler
 {
     //~ Instance fields ......................................................................................
 
     private boolean ignoreOutput;
 
-    private ByteArrayOutputStream errorByteStream, outputByteStream;
+    @Nullable private OutputBuffer errorBuffer, outputBuffer;
 
     private int         count;
     private PrintStream out, err;
-    private PrintStream prevOut, prevErr;
 
     //~ Constructors .........................................................................................
 
@@ -50,18 +59,46 @@ class OutputHandler
 
     //~ Methods ..............................................................................................
 
-    public static synchronized OutputHandler getInstance()
+    /**
+     * The handler for the current thread
+     */
+    public static OutputHandler getInstance()
     {
-        if (instance == null) {
-            instance = new OutputHandler();
+        OutputHandler result = current.get();
+
+        if (result == null) {
+            result = new OutputHandler();
+            current.set(result);
         }
 
-        return instance;
+        return result;
     }
 
+    /**
+     * Forget the handler of the current thread and its output, and restore the original streams
+     * if no other thread is capturing its output.
+     */
     public static void reset()
     {
-        instance = null;
+        final OutputHandler handler = current.get();
+
+        if (handler != null) {
+            if (handler.count > 0) {
+                handler.count = 1;
+                handler.restore();
+            }
+
+            handler.deleteBuffers();
+            current.remove();
+        }
+    }
+
+    /**
+     * Set the number of bytes of the output (and error) of a suite to keep in memory
+     */
+    public static void setMemoryLimit(int bytes)
+    {
+        memoryLimit = bytes;
     }
 
     public void restore()
@@ -69,33 +106,25 @@ class OutputHandler
         if (--count <= 0) {
             count = 0;
 
+            // Flush instead of closing the streams, the output is available until the capture starts again
             if (out != null) {
-                out.close();
+                out.flush();
                 out = null;
             }
 
             if (err != null) {
-                err.close();
+                err.flush();
                 err = null;
             }
 
-            if (prevOut != null) {
-                System.setOut(prevOut);
-                prevOut = null;
-            }
-
-            if (prevErr != null) {
-                System.setErr(prevErr);
-                prevErr = null;
-            }
+            release();
         }
     }
 
     public void init(boolean showOutput)
     {
         if (count++ == 0) {
-            prevOut = System.out;
-            prevErr = System.err;
+            acquire();
 
             if (showOutput) {
                 memoryOutput();
@@ -109,35 +138,156 @@ class OutputHandler
         }
     }
 
-    public String getOutput()
+    /**
+     * The output captured, it is available until the capture is started again
+     */
+    @NotNull public OutputBuffer getOutput()
+    {
+        final OutputBuffer result = outputBuffer;
+        return result == null ? new OutputBuffer(0) : result;
+    }
+
+    /**
+     * The error output captured, it is available until the capture is started again
+     */
+    @NotNull public OutputBuffer getError()
     {
-        return outputByteStream == null ? "" : outputByteStream.toString();
+        final OutputBuffer result = errorBuffer;
+        return result == null ? new OutputBuffer(0) : result;
     }
 
-    public String getError()
+    /**
+     * Add text to the captured output (or error), as if the current thread had written it
+     */
+    public void append(@NotNull String text, boolean error)
     {
-        return errorByteStream == null ? "" : errorByteStream.toString();
+        final PrintStream stream = error ? err : out;
+
+        if (stream != null) {
+            stream.print(text);
+        }
     }
 
     private void memoryOutput()
     {
+        deleteBuffers();
         ignoreOutput = false;
-        outputByteStream = new ByteArrayOutputStream();
-        errorByteStream = new ByteArrayOutputStream();
-        out = new PrintStream(outputByteStream);
-        System.setOut(out);
-        err = new PrintStream(errorByteStream);
-        System.setErr(err);
+        outputBuffer = new OutputBuffer(memoryLimit);
+        errorBuffer = new OutputBuffer(memoryLimit);
+        out = new PrintStream(outputBuffer, true);
+        err = new PrintStream(errorBuffer, true);
     }
 
     private void nullOutput()
     {
+        deleteBuffers();
         ignoreOutput = true;
-        System.setOut(FileUtils.nullOutputStream());
-        System.setErr(FileUtils.nullOutputStream());
+        out = FileUtils.nullOutputStream();
+        err = FileUtils.nullOutputStream();
+    }
+
+    private void deleteBuffers()
+    {
+        if (outputBuffer != null) {
+            outputBuffer.delete();
+            outputBuffer = null;
+        }
+
+        if (errorBuffer != null) {
+            errorBuffer.delete();
+            errorBuffer = null;
+        }
+    }
+
+    /**
+     * Install the routing streams if this is the first handler capturing output
+     */
+    private static synchronized void acquire()
+    {
+        if (capturing++ == 0) {
+            originalOut = System.out;
+            originalErr = System.err;
+            System.setOut(new PrintStream(new Router(false), true));
+            System.setErr(new PrintStream(new Router(true), true));
+        }
+    }
+
+    /**
+     * Restore the original streams if this is the last handler capturing output
+     */
+    private static synchronized void release()
+    {
+        if (--capturing <= 0) {
+            capturing = 0;
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
     }
 
     //~ Static fields/initializers ...........................................................................
 
-    private static OutputHandler instance;
+    /**
+     * The default number of bytes to keep in memory for each stream (1 megabyte)
+     */
+    public static final int DEFAULT_MEMORY_LIMIT = 1024 * 1024;
+
+    private static int          capturing;
+    private static volatile int memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private static PrintStream  originalOut, originalErr;
+
+    private static final ThreadLocal<OutputHandler> current =
+        new InheritableThreadLocal<OutputHandler>() {
+            @Override protected OutputHandler childValue(OutputHandler parent)
+            {
+                // Only share the handler with threads started while capturing
+                return parent != null && parent.count > 0 ? parent : null;
+            }
+        };
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * A stream that writes to the capture of the current thread
+     */
+    private static class Router
+        extends OutputStream
+    {
+        private final boolean error;
+
+        Router(boolean error)
+        {
+            this.error = error;
+        }
+
+        @Override public void write(int b)
+        {
+            target().write(b);
+        }
+
+        @Override public void write(@NotNull byte[] b, int off, int len)
+        {
+            target().write(b, off, len);
+        }
+
+        @Override public void flush()
+            throws IOException
+        {
+            target().flush();
+        }
+
+        @NotNull private PrintStream target()
+        {
+            final OutputHandler handler = current.get();
+            final PrintStream   stream =
+                handler == null || handler.count == 0 ? null : error ? handler.err : handler.out;
+
+            if (stream != null) {
+                return stream;
+            }
+
+            synchronized (OutputHandler.class) {
+                return error ? originalErr : originalOut;
+            }
+        }
+    }
 }
@@ -0,0 +1,212 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A report that routes the events of the tests of a suite run concurrently by several threads.
+ * The events of each test are recorded by the thread running it, and replayed (with their original timing)
+ * into the target report once the test ends, one test at a time.
+ * A test that ends with a failure or a skip (and not with <code>endTest</code>) is replayed when its thread
+ * starts another test, or when the suite ends.
+ */
+public class ParallelTestsReport
+    implements TestReport
+{
+    //~ Instance fields ......................................................................................
+
+    @NotNull private final TestReport target;
+
+    /**
+     * The recorders of all the threads, to replay the pending events when the suite ends
+     */
+    @NotNull private final List<RecordingReport> recorders = new ArrayList<RecordingReport>();
+
+    @NotNull private final ThreadLocal<RecordingReport> recorder =
+        new ThreadLocal<RecordingReport>() {
+            @Override protected RecordingReport initialValue()
+            {
+                final RecordingReport result = new RecordingReport();
+
+                synchronized (recorders) {
+                    recorders.add(result);
+                }
+
+                return result;
+            }
+        };
+
+    //~ Constructors .........................................................................................
+
+    public ParallelTestsReport(@NotNull TestReport target)
+    {
+        this.target = target;
+    }
+
+    //~ Methods ..............................................................................................
+
+    public void startTest(@NotNull String testName)
+    {
+        final RecordingReport r = recorder.get();
+        replay(r);
+        r.startTest(testName);
+    }
+
+    public void endTest()
+    {
+        final RecordingReport r = recorder.get();
+
+        if (r.getCurrentTest() == null) {
+            synchronized (target) {
+                target.endTest();
+            }
+        }
+        else {
+            r.endTest();
+            replay(r);
+        }
+    }
+
+    public void failure(@NotNull Throwable t)
+    {
+        final RecordingReport r = recorder.get();
+
+        if (r.getCurrentTest() == null) {
+            synchronized (target) {
+                target.failure(t);
+            }
+        }
+        else {
+            r.failure(t);
+        }
+    }
+
+    public void skip()
+    {
+        final RecordingReport r = recorder.get();
+
+        if (r.getCurrentTest() == null) {
+            synchronized (target) {
+                target.skip();
+            }
+        }
+        else {
+            r.skip();
+        }
+    }
+
+    /**
+     * The test being run by the current thread
+     */
+    @Nullable public String getCurrentTest()
+    {
+        return recorder.get().getCurrentTest();
+    }
+
+    @Nullable public String getCurrentSuite()
+    {
+        return target.getCurrentSuite();
+    }
+
+    public void startSuite(@NotNull String suiteName)
+    {
+        synchronized (target) {
+            target.startSuite(suiteName);
+        }
+    }
+
+    public void endSuite()
+    {
+        flush();
+
+        synchronized (target) {
+            target.endSuite();
+        }
+    }
+
+    public void startRun(int n)
+    {
+        target.startRun(n);
+    }
+
+    public void stopRun()
+    {
+        target.stopRun();
+    }
+
+    public void coverage(int clazz, int method, int block, int line)
+    {
+        target.coverage(clazz, method, block, line);
+    }
+
+    public int getSuitesRun()
+    {
+        return target.getSuitesRun();
+    }
+
+    public int getSuitesFailed()
+    {
+        return target.getSuitesFailed();
+    }
+
+    public int getTotalSuites()
+    {
+        return target.getTotalSuites();
+    }
+
+    @NotNull public TestReport init(@NotNull File reportsDir)
+    {
+        return new ParallelTestsReport(target.init(reportsDir));
+    }
+
+    /**
+     * Replay the pending events of all the threads into the target report.
+     * It must be invoked once all the tests of the suite have been run.
+     */
+    public void flush()
+    {
+        synchronized (recorders) {
+            for (RecordingReport r : recorders) {
+                replay(r);
+            }
+        }
+    }
+
+    /**
+     * Replay the pending events of a test into the target report
+     */
+    private void replay(@NotNull RecordingReport r)
+    {
+        synchronized (target) {
+            r.replay(target);
+        }
+
+        r.forgetTest();
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final long serialVersionUID = 5372649117053470386L;
+}
@@ -0,0 +1,239 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A report that records the events of suites run in a worker thread, so they can be later
+ * replayed (with their original timing) into a report shared by several threads.
+ * While recording, the output of the thread is captured, and it is available to the target report
+ * when the events are replayed.
+ */
+public class RecordingReport
+    implements TestReport
+{
+    //~ Instance fields ......................................................................................
+
+    @Nullable private String currentSuite;
+    @Nullable private String currentTest;
+
+    @NotNull private final List<Event> events = new ArrayList<Event>();
+
+    private int suitesFailed;
+    private int suitesRun;
+    private int suiteFailures;
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Start capturing the output of the current thread
+     */
+    public void startCapture()
+    {
+        OutputHandler.getInstance().init(true);
+    }
+
+    /**
+     * Stop capturing the output of the current thread
+     */
+    public void stopCapture()
+    {
+        OutputHandler.getInstance().restore();
+    }
+
+    /**
+     * Replay the recorded events into the target report, and forget them.
+     * It must be invoked from the thread that recorded them, before the capture is stopped.
+     * @param target The report to send the events to
+     */
+    public synchronized void replay(@NotNull TestReport target)
+    {
+        try {
+            for (Event event : events) {
+                DefaultTestReport.setReplayTime(event.time, event.nanos);
+                event.sendTo(target);
+            }
+        }
+        finally {
+            DefaultTestReport.clearReplayTime();
+            events.clear();
+        }
+    }
+
+    public synchronized void startSuite(@NotNull String suiteName)
+    {
+        currentSuite = suiteName;
+        suiteFailures = 0;
+        record(Kind.START_SUITE, suiteName, null);
+    }
+
+    public synchronized void endSuite()
+    {
+        suitesRun++;
+
+        if (suiteFailures > 0) {
+            suitesFailed++;
+        }
+
+        record(Kind.END_SUITE, null, null);
+    }
+
+    public synchronized void startTest(@NotNull String testName)
+    {
+        currentTest = testName;
+        record(Kind.START_TEST, testName, null);
+    }
+
+    public synchronized void endTest()
+    {
+        record(Kind.END_TEST, null, null);
+    }
+
+    public synchronized void failure(@NotNull Throwable t)
+    {
+        suiteFailures++;
+        record(Kind.FAILURE, null, t);
+    }
+
+    public synchronized void skip()
+    {
+        record(Kind.SKIP, null, null);
+    }
+
+    /**
+     * Forget the current test, once it can no longer receive events
+     */
+    public synchronized void forgetTest()
+    {
+        currentTest = null;
+    }
+
+    @Nullable public synchronized String getCurrentTest()
+    {
+        return currentTest;
+    }
+
+    @Nullable public synchronized String getCurrentSuite()
+    {
+        return currentSuite;
+    }
+
+    /**
+     * Run level events go straight to the shared report, so they are ignored here
+     */
+    public void coverage(int clazz, int method, int block, int line) {}
+
+    public void startRun(int n) {}
+
+    public void stopRun() {}
+
+    public synchronized int getSuitesRun()
+    {
+        return suitesRun;
+    }
+
+    public synchronized int getSuitesFailed()
+    {
+        return suitesFailed;
+    }
+
+    public int getTotalSuites()
+    {
+        return 0;
+    }
+
+    @NotNull public TestReport init(@NotNull File reportsDir)
+    {
+        return this;
+    }
+
+    private void record(@NotNull Kind kind, @Nullable String name, @Nullable Throwable cause)
+    {
+        // Keep the original time of the events being replayed from another recording
+        final long time = DefaultTestReport.currentTime();
+        events.add(new Event(kind, name, cause, time, DefaultTestReport.currentNanos()));
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final long serialVersionUID = -4391784520368325763L;
+
+    //~ Enums ................................................................................................
+
+    private enum Kind
+    {
+        START_SUITE,
+        END_SUITE,
+        START_TEST,
+        END_TEST,
+        FAILURE,
+        SKIP
+    }
+
+    //~ Inner Classes ........................................................................................
+
+    private static class Event
+    {
+        @NotNull private final Kind       kind;
+        @Nullable private final String    name;
+        @Nullable private final Throwable cause;
+        private final long                time;
+        private final long                nanos;
+
+        Event(@NotNull Kind kind, @Nullable String name, @Nullable Throwable cause, long time, long nanos)
+        {
+            this.kind = kind;
+            this.name = name;
+            this.cause = cause;
+            this.time = time;
+            this.nanos = nanos;
+        }
+
+        @SuppressWarnings("ConstantConditions")
+        void sendTo(@NotNull TestReport report)
+        {
+            switch (kind) {
+            case START_SUITE:
+                report.startSuite(name);
+                break;
+            case END_SUITE:
+                report.endSuite();
+                break;
+            case START_TEST:
+                report.startTest(name);
+                break;
+            case END_TEST:
+                report.endTest();
+                break;
+            case FAILURE:
+                report.failure(cause);
+                break;
+            case SKIP:
+                report.skip();
+                break;
+            }
+        }
+    }
+}
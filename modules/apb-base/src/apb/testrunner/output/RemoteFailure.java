@@ -0,0 +1,91 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A failure that happened in another process.
+ * It keeps the type, message and stack trace of the original one, so it is reported in the same way.
+ */
+public class RemoteFailure
+    extends Throwable
+{
+    //~ Instance fields ......................................................................................
+
+    @NotNull private final String trace;
+    @NotNull private final String type;
+
+    //~ Constructors .........................................................................................
+
+    public RemoteFailure(@NotNull String type, @Nullable String message, @NotNull String trace)
+    {
+        super(message);
+        this.type = type;
+        this.trace = trace;
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * The class name of the original failure
+     */
+    @NotNull public String getType()
+    {
+        return type;
+    }
+
+    @Override public String toString()
+    {
+        final String message = getLocalizedMessage();
+        return message == null ? type : type + ": " + message;
+    }
+
+    @Override public void printStackTrace(PrintStream s)
+    {
+        s.print(trace);
+    }
+
+    @Override public void printStackTrace(PrintWriter s)
+    {
+        s.print(trace);
+    }
+
+    @Override public synchronized Throwable fillInStackTrace()
+    {
+        // The stack trace is the one of the original failure
+        return this;
+    }
+
+    /**
+     * The type of a failure: its class name, or the one of the original failure for remote ones
+     */
+    @NotNull public static String typeOf(@NotNull Throwable t)
+    {
+        return t instanceof RemoteFailure ? ((RemoteFailure) t).getType() : t.getClass().getName();
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final long serialVersionUID = 5106478342215623879L;
+}
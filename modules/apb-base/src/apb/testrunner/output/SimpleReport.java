@@ -18,6 +18,7 @@ package apb.testrunner.output;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
@@ -80,6 +81,9 @@ public class SimpleReport
                           getTotalTestsRun(), getTotalSkipped(), getTimeElapsed() / ONE_SECOND);
             printFailures(getTotalFailures());
         }
+        else {
+            printTimings();
+        }
 
         output.flush();
 
@@ -124,12 +128,13 @@ public class SimpleReport
         return result;
     }
 
-    @Override protected void printOutput(String title, String content)
+    @Override protected void printOutput(String title, OutputBuffer content)
+        throws IOException
     {
-        if (content != null && content.length() > 0) {
+        if (!content.isEmpty()) {
             output.println();
             printTitle(title.equals(SYSTEM_ERR) ? "Standard Error" : "Standard Output");
-            output.print(content);
+            content.writeTo(output);
             printSeparator();
         }
     }
@@ -185,6 +190,50 @@ public class SimpleReport
         }
     }
 
+    /**
+     * Print the slowest tests, how their durations are distributed,
+     * and how much time was spent in setup compared to the tests themselves
+     */
+    private void printTimings()
+    {
+        final TestTimings timings = getTimings();
+
+        if (timings == null || timings.slowestTests().isEmpty()) {
+            return;
+        }
+
+        printTitle("Slowest Tests");
+
+        for (TestTimings.Timing t : timings.slowestTests()) {
+            output.printf("%10.3f s  %s.%s%n", TestTimings.toSeconds(t.nanos), t.suite, t.getTest());
+        }
+
+        printTitle("Test Durations");
+
+        final int[]  histogram = timings.histogram();
+        final long[] limits = TestTimings.HISTOGRAM_LIMITS;
+
+        for (int i = 0; i < histogram.length; i++) {
+            final long   limit = i < limits.length ? limits[i] : limits[limits.length - 1];
+            final String range = (i < limits.length ? "<  " : ">= ") + formatMillis(limit);
+            output.printf("%12s %6d tests%n", range, histogram[i]);
+        }
+
+        final long   setup = timings.getSetupNanos();
+        final long   tests = timings.getTestNanos();
+        final double total = Math.max(1, setup + tests);
+
+        printTitle("Time");
+        output.printf("%12s %10.3f s (%5.1f%%)%n", "setup", TestTimings.toSeconds(setup), 100 * setup / total);
+        output.printf("%12s %10.3f s (%5.1f%%)%n", "tests", TestTimings.toSeconds(tests), 100 * tests / total);
+        printSeparator();
+    }
+
+    private static String formatMillis(long millis)
+    {
+        return millis < ONE_SECOND ? millis + " ms" : (long) (millis / ONE_SECOND) + " s";
+    }
+
     private void printSeparator()
     {
         output.println(StringUtils.nChars(LINE_LENGTH, '-'));
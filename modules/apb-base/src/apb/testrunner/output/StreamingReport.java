@@ -0,0 +1,404 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+import apb.utils.StreamUtils;
+import apb.utils.StringUtils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A report used by forked test runners to send their events, as they happen, to the launcher process
+ * that feeds them into its own reports (See {@link Receiver}).
+ * Each event is a line with a one character code followed by its (escaped) arguments.
+ * The output of a suite is captured and sent in chunks at the end of each test, or as soon as it grows
+ * past a threshold, so the launcher gets it even if the test hangs or the runner dies.
+ */
+public class StreamingReport
+    implements TestReport
+{
+    //~ Instance fields ......................................................................................
+
+    @Nullable private String currentSuite;
+    @Nullable private String currentTest;
+
+    @NotNull private final transient PrintWriter out;
+    @Nullable private transient OutputHandler  handler;
+
+    private int suitesFailed;
+    private int suitesRun;
+    private int suiteFailures;
+
+    //~ Constructors .........................................................................................
+
+    /**
+     * Create a report that sends the events to the specified writer
+     * @param out The writer, it should flush every line so the events are received as they happen
+     */
+    public StreamingReport(@NotNull PrintWriter out)
+    {
+        this.out = out;
+    }
+
+    //~ Methods ..............................................................................................
+
+    public void startSuite(@NotNull String suiteName)
+    {
+        currentSuite = suiteName;
+        suiteFailures = 0;
+        send(START_SUITE, escape(suiteName));
+
+        final OutputHandler h = OutputHandler.getInstance();
+        h.init(true);
+        handler = h;
+
+        final Runnable flush =
+            new Runnable() {
+                public void run()
+                {
+                    flushOutput();
+                }
+            };
+        h.getOutput().onOverflow(OUTPUT_THRESHOLD, flush);
+        h.getError().onOverflow(OUTPUT_THRESHOLD, flush);
+    }
+
+    public void endSuite()
+    {
+        suitesRun++;
+
+        if (suiteFailures > 0) {
+            suitesFailed++;
+        }
+
+        flushOutput();
+
+        final OutputHandler h = OutputHandler.getInstance();
+        h.getOutput().delete();
+        h.getError().delete();
+        h.restore();
+        handler = null;
+        send(END_SUITE, "");
+    }
+
+    public void startTest(@NotNull String testName)
+    {
+        currentTest = testName;
+        send(START_TEST, escape(testName));
+    }
+
+    public void endTest()
+    {
+        flushOutput();
+        send(END_TEST, "");
+    }
+
+    public void failure(@NotNull Throwable t)
+    {
+        suiteFailures++;
+        final String message = t.getMessage();
+        send(FAILURE,
+             escape(RemoteFailure.typeOf(t)) + SEPARATOR + escape(StringUtils.getStackTrace(t)) +
+             (message == null ? "" : SEPARATOR + escape(message)));
+    }
+
+    public void skip()
+    {
+        send(SKIP, "");
+    }
+
+    @Nullable public String getCurrentTest()
+    {
+        return currentTest;
+    }
+
+    @Nullable public String getCurrentSuite()
+    {
+        return currentSuite;
+    }
+
+    /**
+     * The launcher brackets the run and computes the coverage itself, so these events are not sent
+     */
+    public void coverage(int clazz, int method, int block, int line) {}
+
+    public void startRun(int n) {}
+
+    public void stopRun() {}
+
+    public int getSuitesRun()
+    {
+        return suitesRun;
+    }
+
+    public int getSuitesFailed()
+    {
+        return suitesFailed;
+    }
+
+    public int getTotalSuites()
+    {
+        return 0;
+    }
+
+    @NotNull public TestReport init(@NotNull File reportsDir)
+    {
+        return this;
+    }
+
+    /**
+     * Send the output of the suite captured since the last time.
+     * It is synchronized so the chunks of concurrent flushes are not reordered
+     */
+    private synchronized void flushOutput()
+    {
+        final OutputHandler h = handler;
+
+        if (h != null) {
+            sendChunks(OUTPUT, h.getOutput());
+            sendChunks(ERROR, h.getError());
+        }
+    }
+
+    private void sendChunks(char code, @NotNull OutputBuffer output)
+    {
+        Reader reader = null;
+
+        try {
+            reader = output.drain();
+            final char[] buffer = new char[CHUNK_SIZE];
+            int          length = 0;
+            int          n;
+
+            while ((n = reader.read(buffer, length, CHUNK_SIZE - length)) != -1) {
+                length += n;
+
+                if (length == CHUNK_SIZE) {
+                    // Do not split surrogate pairs
+                    final boolean split = Character.isHighSurrogate(buffer[length - 1]);
+                    send(code, escape(new String(buffer, 0, split ? length - 1 : length)));
+                    length = 0;
+
+                    if (split) {
+                        buffer[length++] = buffer[CHUNK_SIZE - 1];
+                    }
+                }
+            }
+
+            if (length > 0) {
+                send(code, escape(new String(buffer, 0, length)));
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            StreamUtils.close(reader);
+        }
+    }
+
+    private void send(char code, @NotNull String args)
+    {
+        out.println(code + args);
+    }
+
+    @NotNull private static String escape(@NotNull String s)
+    {
+        final StringBuilder result = new StringBuilder(s.length());
+
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+
+            switch (c) {
+            case '\\':
+                result.append("\\\\");
+                break;
+            case '\n':
+                result.append("\\n");
+                break;
+            case '\r':
+                result.append("\\r");
+                break;
+            case SEPARATOR:
+                result.append("\\t");
+                break;
+            default:
+                result.append(c);
+            }
+        }
+
+        return result.toString();
+    }
+
+    @NotNull private static String unescape(@NotNull String s)
+    {
+        final StringBuilder result = new StringBuilder(s.length());
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                result.append(c == 'n' ? '\n' : c == 'r' ? '\r' : c == 't' ? SEPARATOR : c);
+            }
+            else {
+                result.append(c);
+            }
+        }
+
+        return result.toString();
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final char START_SUITE = 'S';
+    private static final char END_SUITE = 'E';
+    private static final char START_TEST = 'T';
+    private static final char END_TEST = 't';
+    private static final char FAILURE = 'F';
+    private static final char SKIP = 'K';
+    private static final char OUTPUT = 'O';
+    private static final char ERROR = 'R';
+
+    private static final char SEPARATOR = '\t';
+    private static final int  CHUNK_SIZE = 8192;
+    private static final int  OUTPUT_THRESHOLD = 8 * CHUNK_SIZE;
+
+    private static final long serialVersionUID = -2206358811329213713L;
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * Feeds the events sent by a {@link StreamingReport} into a report.
+     * The output of a suite is captured by the thread receiving the events, so the target report
+     * gets it as if the suite had run in that thread.
+     * When the target report is shared with other receivers, the events of each suite are recorded
+     * and sent to the target once the suite finishes.
+     */
+    public static class Receiver
+    {
+        private boolean                   suiteOpen;
+        private final boolean             shared;
+        @Nullable private RecordingReport recorder;
+        @NotNull private final TestReport target;
+
+        public Receiver(@NotNull TestReport target, boolean shared)
+        {
+            this.target = target;
+            this.shared = shared;
+        }
+
+        /**
+         * Feed an event into the target report
+         * @param line The line with the event
+         * @return false if the line is not an event
+         */
+        public boolean accept(@NotNull String line)
+        {
+            if (line.isEmpty()) {
+                return false;
+            }
+
+            final String args = line.substring(1);
+
+            switch (line.charAt(0)) {
+            case START_SUITE:
+                OutputHandler.getInstance().init(true);
+                recorder = shared ? new RecordingReport() : null;
+                suiteOpen = true;
+                report().startSuite(unescape(args));
+                break;
+            case END_SUITE:
+                report().endSuite();
+                finishSuite();
+                break;
+            case START_TEST:
+                report().startTest(unescape(args));
+                break;
+            case END_TEST:
+                report().endTest();
+                break;
+            case FAILURE:
+                report().failure(decodeFailure(args));
+                break;
+            case SKIP:
+                report().skip();
+                break;
+            case OUTPUT:
+                OutputHandler.getInstance().append(unescape(args), false);
+                break;
+            case ERROR:
+                OutputHandler.getInstance().append(unescape(args), true);
+                break;
+            default:
+                return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Finish the suite being received (if any) with the specified failure,
+         * because the sender will not send more events
+         */
+        public void abort(@NotNull Throwable cause)
+        {
+            if (suiteOpen) {
+                report().failure(cause);
+                report().endSuite();
+                finishSuite();
+            }
+        }
+
+        @NotNull private static RemoteFailure decodeFailure(@NotNull String args)
+        {
+            final String[] fields = args.split(String.valueOf(SEPARATOR), 3);
+            return new RemoteFailure(unescape(fields[0]), fields.length < 3 ? null : unescape(fields[2]),
+                                     fields.length < 2 ? "" : unescape(fields[1]));
+        }
+
+        @NotNull private TestReport report()
+        {
+            final RecordingReport r = recorder;
+            return r == null ? target : r;
+        }
+
+        private void finishSuite()
+        {
+            final RecordingReport r = recorder;
+
+            if (r != null) {
+                synchronized (target) {
+                    r.replay(target);
+                }
+
+                recorder = null;
+            }
+
+            suiteOpen = false;
+            OutputHandler.getInstance().restore();
+        }
+    }
+}
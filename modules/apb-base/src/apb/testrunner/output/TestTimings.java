@@ -0,0 +1,334 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import apb.utils.StreamUtils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static apb.Constants.UTF8;
+
+/**
+ * The durations of the suites and tests of a run, used to find where the time goes.
+ * The time of a suite not spent running its tests is accounted as setup: loading and initializing
+ * the classes, building the suite, and running the methods executed once per suite.
+ * Only the totals, the histogram and the {@link #SLOWEST} slowest suites and tests are kept,
+ * so the memory used does not depend on the number of tests.
+ */
+class TestTimings
+{
+    //~ Instance fields ......................................................................................
+
+    private int  suitesRun;
+    private long suiteStart;
+    private long suiteTests;
+    private long testStart;
+    private int  testsRun;
+
+    /**
+     * The total time spent running tests, and in the suites outside their tests
+     */
+    private long setupNanos;
+    private long testNanos;
+
+    @Nullable private String suite;
+    @Nullable private String test;
+
+    @NotNull private final int[] histogram = new int[HISTOGRAM_LIMITS.length + 1];
+
+    /**
+     * The slowest suites and tests, with the fastest of them at the head
+     */
+    @NotNull private final PriorityQueue<Timing> suites =
+        new PriorityQueue<Timing>(SLOWEST + 1, FASTEST_FIRST);
+    @NotNull private final PriorityQueue<Timing> tests =
+        new PriorityQueue<Timing>(SLOWEST + 1, FASTEST_FIRST);
+
+    //~ Methods ..............................................................................................
+
+    void startSuite(@NotNull String suiteName, long nanos)
+    {
+        suite = suiteName;
+        suiteStart = nanos;
+        suiteTests = 0;
+    }
+
+    void endSuite(long nanos)
+    {
+        if (suite != null) {
+            endTest(nanos);
+
+            final Timing t = new Timing(suite, null, nanos - suiteStart, suiteTests);
+            suitesRun++;
+            testNanos += t.testNanos;
+            setupNanos += t.getSetupNanos();
+            keep(suites, t);
+            suite = null;
+        }
+    }
+
+    void startTest(@NotNull String testName, long nanos)
+    {
+        test = testName;
+        testStart = nanos;
+    }
+
+    void endTest(long nanos)
+    {
+        if (test != null && suite != null) {
+            final long elapsed = nanos - testStart;
+            testsRun++;
+            histogram[range(elapsed)]++;
+            keep(tests, new Timing(suite, test, elapsed, elapsed));
+            suiteTests += elapsed;
+            test = null;
+        }
+    }
+
+    /**
+     * The slowest tests, the slowest first
+     */
+    @NotNull List<Timing> slowestTests()
+    {
+        return slowestFirst(tests);
+    }
+
+    /**
+     * The slowest suites, the slowest first
+     */
+    @NotNull List<Timing> slowestSuites()
+    {
+        return slowestFirst(suites);
+    }
+
+    /**
+     * The number of tests in each of the {@link #HISTOGRAM_LIMITS} ranges, plus the slower ones
+     */
+    @NotNull int[] histogram()
+    {
+        return histogram.clone();
+    }
+
+    /**
+     * The time spent running tests
+     */
+    long getTestNanos()
+    {
+        return testNanos;
+    }
+
+    /**
+     * The time spent in the suites outside their tests
+     */
+    long getSetupNanos()
+    {
+        return setupNanos;
+    }
+
+    /**
+     * Write the timings as a JSON document
+     */
+    void writeJson(@NotNull File file)
+        throws IOException
+    {
+        Writer w = null;
+
+        try {
+            w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+            w.write("{\n  \"time\": " + seconds(testNanos) + ",\n");
+            w.write("  \"setup\": " + seconds(setupNanos) + ",\n");
+            w.write("  \"suitesRun\": " + suitesRun + ",\n");
+            w.write("  \"testsRun\": " + testsRun + ",\n");
+            w.write("  \"histogram\": [");
+
+            for (int i = 0; i < histogram.length; i++) {
+                w.write(i == 0 ? "\n" : ",\n");
+                w.write("    { \"below\": ");
+                w.write(i < HISTOGRAM_LIMITS.length ? seconds(HISTOGRAM_LIMITS[i] * NANOS_PER_MILLI)
+                                                    : "null");
+                w.write(", \"count\": " + histogram[i] + " }");
+            }
+
+            w.write("\n  ],\n  \"suites\": [");
+
+            final List<Timing> slowestSuites = slowestSuites();
+
+            for (int i = 0; i < slowestSuites.size(); i++) {
+                final Timing t = slowestSuites.get(i);
+                w.write(i == 0 ? "\n" : ",\n");
+                w.write("    { \"name\": " + quote(t.suite) + ", \"time\": " + seconds(t.nanos));
+                w.write(", \"setup\": " + seconds(t.getSetupNanos()) + " }");
+            }
+
+            w.write("\n  ],\n  \"tests\": [");
+
+            final List<Timing> slowestTests = slowestTests();
+
+            for (int i = 0; i < slowestTests.size(); i++) {
+                final Timing t = slowestTests.get(i);
+                w.write(i == 0 ? "\n" : ",\n");
+                w.write("    { \"suite\": " + quote(t.suite) + ", \"name\": " + quote(t.getTest()));
+                w.write(", \"time\": " + seconds(t.nanos) + " }");
+            }
+
+            w.write("\n  ]\n}\n");
+        }
+        finally {
+            StreamUtils.close(w);
+        }
+    }
+
+    /**
+     * The elapsed time in seconds, formatted independently of the locale
+     */
+    @NotNull static String seconds(long nanos)
+    {
+        return String.format(Locale.ENGLISH, "%.6f", toSeconds(nanos));
+    }
+
+    /**
+     * The elapsed time in seconds
+     */
+    static double toSeconds(long nanos)
+    {
+        return nanos / (double) NANOS_PER_SECOND;
+    }
+
+    /**
+     * Add the timing to the slowest ones, dropping the fastest if there are too many
+     */
+    private static void keep(@NotNull PriorityQueue<Timing> slowest, @NotNull Timing t)
+    {
+        slowest.add(t);
+
+        if (slowest.size() > SLOWEST) {
+            slowest.poll();
+        }
+    }
+
+    @NotNull private static List<Timing> slowestFirst(@NotNull PriorityQueue<Timing> slowest)
+    {
+        final List<Timing> result = new ArrayList<Timing>(slowest);
+        Collections.sort(result, Collections.reverseOrder(FASTEST_FIRST));
+        return result;
+    }
+
+    /**
+     * The index of the histogram range for the duration
+     */
+    private static int range(long nanos)
+    {
+        int i = 0;
+
+        while (i < HISTOGRAM_LIMITS.length && nanos >= HISTOGRAM_LIMITS[i] * NANOS_PER_MILLI) {
+            i++;
+        }
+
+        return i;
+    }
+
+    @NotNull private static String quote(@NotNull String s)
+    {
+        final StringBuilder result = new StringBuilder(s.length() + 2).append('"');
+
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                result.append(c);
+            }
+        }
+
+        return result.append('"').toString();
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    /**
+     * The upper limits (in milliseconds) of the ranges of the duration histogram
+     */
+    static final long[] HISTOGRAM_LIMITS = { 1, 10, 100, 1000, 10000 };
+
+    /**
+     * The number of slowest suites and tests kept
+     */
+    static final int SLOWEST = 10;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final Comparator<Timing> FASTEST_FIRST =
+        new Comparator<Timing>() {
+            public int compare(Timing t1, Timing t2)
+            {
+                return t1.nanos < t2.nanos ? -1 : t1.nanos > t2.nanos ? 1 : 0;
+            }
+        };
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * The duration of a suite or a test
+     */
+    static class Timing
+    {
+        final long               nanos;
+        final long               testNanos;
+        @NotNull final String    suite;
+        @Nullable private final String test;
+
+        Timing(@NotNull String suite, @Nullable String test, long nanos, long testNanos)
+        {
+            this.suite = suite;
+            this.test = test;
+            this.nanos = nanos;
+            this.testNanos = testNanos;
+        }
+
+        @NotNull String getTest()
+        {
+            return test == null ? "" : test;
+        }
+
+        long getSetupNanos()
+        {
+            return Math.max(0, nanos - testNanos);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner.output;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A report that writes the durations of the suites and tests to {@link #TIMINGS_FILE}.
+ * The test launcher adds one to the reports of the module, so the file is written once per run
+ * however many reports are generated.
+ */
+public class TimingsReport
+    extends BaseTestReport
+{
+    //~ Constructors .........................................................................................
+
+    public TimingsReport()
+    {
+        super(false, "");
+    }
+
+    //~ Methods ..............................................................................................
+
+    @Override public void stopRun()
+    {
+        super.stopRun();
+
+        final TestTimings timings = getTimings();
+
+        if (timings != null && reportsDir != null) {
+            try {
+                reportsDir.mkdirs();
+                timings.writeJson(new File(reportsDir, TIMINGS_FILE));
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @NotNull @Override public TimingsReport init(@NotNull File dir)
+    {
+        final TimingsReport result = new TimingsReport();
+        result.reportsDir = dir;
+        return result;
+    }
+
+    @Override protected void printOutput(String title, OutputBuffer content) {}
+
+    //~ Static fields/initializers ...........................................................................
+
+    /** The file (in the reports directory) the durations of the suites and tests are written to */
+    public static final String TIMINGS_FILE = "test-timings.json";
+
+    private static final long serialVersionUID = -3046583427613720563L;
+}
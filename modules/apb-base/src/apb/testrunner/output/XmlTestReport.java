@@ -16,55 +16,71 @@
 
 package apb.testrunner.output;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 import java.util.TimeZone;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Text;
-
 import apb.Environment;
+import apb.utils.FileUtils;
+import apb.utils.StreamUtils;
 import apb.utils.StringUtils;
-import apb.utils.XmlUtils;
 
+import static apb.Constants.UTF8;
+
+/**
+ * A report with an XML file per suite, in the format used by JUnit.
+ * The elements are written as soon as they are complete to a temporary file, that is copied to the
+ * report once the suite finishes and its totals are known, so the memory used does not depend
+ * on the number of tests or the size of their output.
+ * Only the test being run is kept in memory while it has failures, as they can still be added to it.
+ */
 public class XmlTestReport
     extends BaseTestReport
 {
     //~ Instance fields ......................................................................................
 
     /**
-     * The XML document.
+     * The elements of the suite written so far
+     */
+    @Nullable private transient Writer body;
+
+    /**
+     * The file with the elements of the suite
      */
-    private Document doc;
+    @Nullable private transient File bodyFile;
 
     /**
-     * tests that failed.
+     * The last test with failures, while it can still be modified.
      */
-    private final Set<String> failedTests = new HashSet<String>();
+    @Nullable private transient Testcase failedTest;
 
     /**
-     * Element for the current test.
+     * The host name and start time of the suite
      */
-    private final Map<CharSequence, Element> testElements = new HashMap<CharSequence, Element>();
+    private String hostname;
+    private String timestamp;
 
     /**
-     * Timing helper.
+     * The qualified name and start time of the current test
      */
-    private final Map<String, Long> testStarts = new HashMap<String, Long>();
+    @Nullable private String testKey;
+    private long             testStart;
 
     //~ Constructors .........................................................................................
 
@@ -78,39 +94,42 @@ public class XmlTestReport
     @Override public void startSuite(@NotNull String suiteName)
     {
         super.startSuite(suiteName);
+        discardBody();
 
-        doc = getDocumentBuilder().newDocument();
-
-        final Element rootElement = doc.createElement(TESTSUITE);
-        doc.appendChild(rootElement);
-
-        rootElement.setAttribute(ATTR_NAME, suiteName);
-        rootElement.setAttribute(ATTR_PKG, suiteName.substring(0, suiteName.lastIndexOf('.')));
-
-        //add the timestamp
-        final String timestamp = timestamp();
-        rootElement.setAttribute(TIMESTAMP, timestamp);
-
-        //and the hostname.
-        rootElement.setAttribute(HOSTNAME, getHostname());
+        timestamp = timestamp();
+        hostname = getHostname();
+        failedTest = null;
 
-        // Output properties
-        Element propsElement = doc.createElement(PROPERTIES);
-        rootElement.appendChild(propsElement);
+        try {
+            final File file = File.createTempFile("testsuite", ".xml");
+            bodyFile = file;
+            body = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+            writeEmptyElement(INDENT, PROPERTIES);
+        }
+        catch (IOException e) {
+            discardBody();
+            throw new RuntimeException(e);
+        }
     }
 
     @Override public void endSuite()
     {
         if (suiteOpen) {
             super.endSuite();
-            final Element rootElement = doc.getDocumentElement();
-            rootElement.setAttribute(ATTR_TESTS, String.valueOf(getSuiteTestsRun()));
-            rootElement.setAttribute(ATTR_FAILURES, String.valueOf(getSuiteTestFailures()));
-            rootElement.setAttribute(ATTR_SKIPPED, String.valueOf(getSuiteTestSkipped()));
-            rootElement.setAttribute(ATTR_TIME, String.valueOf((getSuiteTimeElapsed() / ONE_SECOND)));
-
-            if (getSuiteTestsRun() > 0) {
-                writeDocument(doc);
+
+            try {
+                writeFailedTest();
+                closeBody();
+
+                if (getSuiteTestsRun() > 0) {
+                    writeReport();
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            finally {
+                discardBody();
             }
         }
     }
@@ -118,35 +137,26 @@ public class XmlTestReport
     @Override public void startTest(@NotNull String testName)
     {
         super.startTest(testName);
-        testStarts.put(qualify(testName), System.currentTimeMillis());
+        testKey = qualify(testName);
+        testStart = currentTime();
     }
 
     @Override public void endTest()
     {
         super.endTest();
-        final String test = getCurrentTest();
 
-        final String fullTestName = qualify(test);
+        final Testcase test = currentTestcase();
 
-        if (!testStarts.containsKey(fullTestName)) {
-            startTest(test);
-        }
-
-        Element currentTest;
-
-        if (!failedTests.contains(fullTestName)) {
-            currentTest = doc.createElement(TESTCASE);
-            currentTest.setAttribute(ATTR_NAME, test == null ? UNKNOWN : test);
-            currentTest.setAttribute(ATTR_CLASSNAME, getCurrentSuite());
-            doc.getDocumentElement().appendChild(currentTest);
-            testElements.put(fullTestName, currentTest);
-        }
-        else {
-            currentTest = testElements.get(fullTestName);
+        // A test with failures is written when it can no longer change
+        if (test != failedTest) {
+            try {
+                writeFailedTest();
+                write(test);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
-
-        long elapsed = System.currentTimeMillis() - testStarts.get(fullTestName);
-        currentTest.setAttribute(ATTR_TIME, String.valueOf((elapsed / ONE_SECOND)));
     }
 
     @Override public void failure(@NotNull Throwable t)
@@ -162,11 +172,27 @@ public class XmlTestReport
         return result;
     }
 
-    @Override protected void printOutput(String title, String content)
+    @Override protected void printOutput(String title, OutputBuffer content)
+        throws IOException
     {
-        Element nested = doc.createElement(title);
-        doc.getDocumentElement().appendChild(nested);
-        nested.appendChild(doc.createCDATASection(content));
+        writeFailedTest();
+
+        if (content.isEmpty()) {
+            writeEmptyElement(INDENT, title);
+        }
+        else {
+            final Writer w = body();
+            final Reader reader = content.openReader();
+
+            try {
+                w.write(INDENT + '<' + title + '>');
+                writeCData(w, reader);
+                w.write("</" + title + '>' + LINE_SEPARATOR);
+            }
+            finally {
+                reader.close();
+            }
+        }
     }
 
     private static String timestamp()
@@ -177,24 +203,140 @@ public class XmlTestReport
         return dateFormat.format(new Date());
     }
 
-    private static DocumentBuilder getDocumentBuilder()
+    private static String getHostname()
     {
         try {
-            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            return InetAddress.getLocalHost().getHostName();
         }
-        catch (Exception exc) {
-            throw new ExceptionInInitializerError(exc);
+        catch (UnknownHostException e) {
+            return "localhost";
         }
     }
 
-    private static String getHostname()
+    /**
+     * Write a value escaped as the DOM serializer does.
+     * The characters XML does not allow are written as the replacement character.
+     * @param attribute Whether the value is an attribute or the content of an element
+     */
+    private static void writeEscaped(@NotNull Writer w, @NotNull String s, boolean attribute)
+        throws IOException
     {
-        try {
-            return InetAddress.getLocalHost().getHostName();
+        for (int i = 0, length = s.length(); i < length; i++) {
+            final char c = s.charAt(i);
+
+            switch (c) {
+            case '&':
+                w.write("&amp;");
+                break;
+            case '<':
+                w.write("&lt;");
+                break;
+            case '>':
+                w.write("&gt;");
+                break;
+            case '"':
+                w.write(attribute ? "&quot;" : "\"");
+                break;
+            default:
+                if (i + 1 < length && Character.isSurrogatePair(c, s.charAt(i + 1))) {
+                    writeCharRef(w, Character.toCodePoint(c, s.charAt(++i)));
+                }
+                else if (!isXmlChar(c)) {
+                    w.write(REPLACEMENT);
+                }
+                else if (attribute ? c < ' ' : c < ' ' && c != '\t' && c != '\n' || c >= DEL && c < NBSP) {
+                    writeCharRef(w, c);
+                }
+                else {
+                    w.write(c);
+                }
+            }
         }
-        catch (UnknownHostException e) {
-            return "localhost";
+    }
+
+    /**
+     * Write text as CDATA sections, splitting them where the text contains their end.
+     * The characters XML does not allow are written as the replacement character.
+     */
+    private static void writeCData(@NotNull Writer w, @NotNull Reader reader)
+        throws IOException
+    {
+        final char[] buffer = new char[BUFFER_SIZE];
+        boolean      open = false;
+
+        // The number of consecutive ']' at the end of the section
+        int brackets = 0;
+
+        // A high surrogate waiting for its pair, that can come in the next buffer
+        char high = 0;
+        int  n;
+
+        while ((n = reader.read(buffer)) != -1) {
+            if (n > 0 && !open) {
+                w.write(CDATA_START);
+                open = true;
+            }
+
+            for (int i = 0; i < n; i++) {
+                final char c = buffer[i];
+
+                if (high != 0) {
+                    if (Character.isLowSurrogate(c)) {
+                        w.write(high);
+                        w.write(c);
+                        high = 0;
+                        continue;
+                    }
+
+                    w.write(REPLACEMENT);
+                    high = 0;
+                }
+
+                if (Character.isHighSurrogate(c)) {
+                    high = c;
+                    brackets = 0;
+                }
+                else if (c == '>' && brackets >= 2) {
+                    w.write(CDATA_END + CDATA_START + ">");
+                    brackets = 0;
+                }
+                else {
+                    w.write(isXmlChar(c) ? c : REPLACEMENT);
+                    brackets = c == ']' ? brackets + 1 : 0;
+                }
+            }
+        }
+
+        if (high != 0) {
+            w.write(REPLACEMENT);
         }
+
+        if (open) {
+            w.write(CDATA_END);
+        }
+    }
+
+    /**
+     * Whether XML 1.0 allows the character, when it is not part of a surrogate pair
+     */
+    private static boolean isXmlChar(char c)
+    {
+        return c < ' ' ? c == '\t' || c == '\n' || c == '\r'
+                       : (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) && c < '\ufffe';
+    }
+
+    private static void writeCharRef(@NotNull Writer w, int codePoint)
+        throws IOException
+    {
+        w.write("&#" + codePoint + ';');
+    }
+
+    private static void writeAttribute(@NotNull Writer w, @NotNull String name, @NotNull String value)
+        throws IOException
+    {
+        w.write(' ' + name + "=\"");
+        writeEscaped(w, value, true);
+        w.write('"');
     }
 
     private String qualify(String test)
@@ -202,38 +344,192 @@ public class XmlTestReport
         return getCurrentSuite() + '-' + test;
     }
 
+    /**
+     * The element for the current test: the one with failures if it is still being run, or a new one
+     */
+    @NotNull private Testcase currentTestcase()
+    {
+        final String test = getCurrentTest();
+        final String key = qualify(test);
+
+        if (!key.equals(testKey)) {
+            startTest(test);
+        }
+
+        final Testcase failed = failedTest;
+        final Testcase result =
+            failed != null && failed.key.equals(key) ? failed
+                                                     : new Testcase(key, test == null ? UNKNOWN : test);
+        result.elapsed = currentTime() - testStart;
+        return result;
+    }
+
     private void formatError(String type, String test, Throwable t)
     {
+        final Failure failure = new Failure(type, t);
+
+        try {
+            if (test != null) {
+                // End the test, and keep it until no more failures can be added
+                super.endTest();
+
+                final Testcase testcase = currentTestcase();
+
+                if (testcase != failedTest) {
+                    writeFailedTest();
+                    failedTest = testcase;
+                }
+
+                testcase.failures.add(failure);
+            }
+            else {
+                writeFailedTest();
+                write(INDENT, failure);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeFailedTest()
+        throws IOException
+    {
+        final Testcase test = failedTest;
+
         if (test != null) {
-            endTest();
-            failedTests.add(qualify(test));
+            failedTest = null;
+            write(test);
         }
+    }
 
-        Element nested = doc.createElement(type);
+    private void write(@NotNull Testcase test)
+        throws IOException
+    {
+        final Writer w = body();
+        w.write(INDENT + '<' + TESTCASE);
+        writeAttribute(w, ATTR_CLASSNAME, getCurrentSuite());
+        writeAttribute(w, ATTR_NAME, test.name);
+        writeAttribute(w, ATTR_TIME, String.valueOf(test.elapsed / ONE_SECOND));
+
+        if (test.failures.isEmpty()) {
+            w.write("/>" + LINE_SEPARATOR);
+        }
+        else {
+            w.write('>' + LINE_SEPARATOR);
 
-        Element currentTest = test != null ? testElements.get(qualify(test)) : doc.getDocumentElement();
+            for (Failure failure : test.failures) {
+                write(INDENT + INDENT, failure);
+            }
 
-        currentTest.appendChild(nested);
+            w.write(INDENT + "</" + TESTCASE + '>' + LINE_SEPARATOR);
+        }
+    }
 
-        String message = t.getMessage();
+    private void write(@NotNull String indent, @NotNull Failure failure)
+        throws IOException
+    {
+        final Writer w = body();
+        w.write(indent + '<' + failure.type);
 
-        if (message != null && message.length() > 0) {
-            nested.setAttribute(ATTR_MESSAGE, t.getMessage());
+        if (failure.message != null && failure.message.length() > 0) {
+            writeAttribute(w, ATTR_MESSAGE, failure.message);
         }
 
-        nested.setAttribute(ATTR_TYPE, t.getClass().getName());
+        writeAttribute(w, ATTR_TYPE, failure.exceptionType);
 
-        String strace = StringUtils.getStackTrace(t);
-        Text   trace = doc.createTextNode(strace);
-        nested.appendChild(trace);
+        if (failure.trace.length() == 0) {
+            w.write("/>" + LINE_SEPARATOR);
+        }
+        else {
+            w.write('>');
+            writeEscaped(w, failure.trace, false);
+            w.write("</" + failure.type + '>' + LINE_SEPARATOR);
+        }
     }
 
-    private void writeDocument(@NotNull Document document)
+    private void writeEmptyElement(@NotNull String indent, @NotNull String name)
+        throws IOException
+    {
+        body().write(indent + '<' + name + "/>" + LINE_SEPARATOR);
+    }
+
+    /**
+     * Write the report of the suite: its element with the totals, followed by the elements written so far
+     */
+    private void writeReport()
+        throws IOException
     {
         final String suite = getCurrentSuite();
+        final File   file = bodyFile;
 
-        if (suite != null) {
-            XmlUtils.writeDocument(document, reportFile(suite, ".xml"));
+        if (suite == null || file == null) {
+            return;
+        }
+
+        Writer w = null;
+        Reader r = null;
+
+        try {
+            final File report = reportFile(suite, ".xml");
+            w = new BufferedWriter(new OutputStreamWriter(FileUtils.createOutputStream(report), UTF8));
+            w.write(XML_DECLARATION + LINE_SEPARATOR + '<' + TESTSUITE);
+            writeAttribute(w, ATTR_FAILURES, String.valueOf(getSuiteTestFailures()));
+            writeAttribute(w, HOSTNAME, hostname);
+            writeAttribute(w, ATTR_NAME, suite);
+            writeAttribute(w, ATTR_PKG, suite.substring(0, suite.lastIndexOf('.')));
+            writeAttribute(w, ATTR_SKIPPED, String.valueOf(getSuiteTestSkipped()));
+            writeAttribute(w, ATTR_TESTS, String.valueOf(getSuiteTestsRun()));
+            writeAttribute(w, ATTR_TIME, String.valueOf((getSuiteTimeElapsed() / ONE_SECOND)));
+            writeAttribute(w, TIMESTAMP, timestamp);
+            w.write('>' + LINE_SEPARATOR);
+
+            r = new InputStreamReader(new FileInputStream(file), UTF8);
+            final char[] buffer = new char[BUFFER_SIZE];
+            int          n;
+
+            while ((n = r.read(buffer)) != -1) {
+                w.write(buffer, 0, n);
+            }
+
+            w.write("</" + TESTSUITE + '>' + LINE_SEPARATOR);
+        }
+        finally {
+            StreamUtils.close(r);
+            StreamUtils.close(w);
+        }
+    }
+
+    @NotNull private Writer body()
+    {
+        final Writer w = body;
+
+        if (w == null) {
+            throw new IllegalStateException("No suite started");
+        }
+
+        return w;
+    }
+
+    private void closeBody()
+        throws IOException
+    {
+        final Writer w = body;
+
+        if (w != null) {
+            body = null;
+            w.close();
+        }
+    }
+
+    private void discardBody()
+    {
+        StreamUtils.close(body);
+        body = null;
+
+        if (bodyFile != null) {
+            bodyFile.delete();
+            bodyFile = null;
         }
     }
 
@@ -261,6 +557,21 @@ public class XmlTestReport
     /** constant for unnnamed testsuites/cases */
     private static final String UNKNOWN = "unknown";
 
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"" + UTF8 + "\"?>";
+    private static final String CDATA_START = "<![CDATA[";
+    private static final String CDATA_END = "]]>";
+    private static final String INDENT = "    ";
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /** The range of control characters written as references in the content of elements */
+    private static final char DEL = '\u007f';
+    private static final char NBSP = '\u00a0';
+
+    /** The character written in place of the ones XML does not allow */
+    private static final char REPLACEMENT = '\ufffd';
+
+    private static final int BUFFER_SIZE = 8192;
+
     //~ Inner Classes ........................................................................................
 
     public static class Builder
@@ -288,4 +599,40 @@ public class XmlTestReport
             return this;
         }
     }
+
+    /**
+     * A testcase element, with its failures
+     */
+    private static class Testcase
+    {
+        private long                         elapsed;
+        @NotNull private final List<Failure> failures = new ArrayList<Failure>();
+        @NotNull private final String        key;
+        @NotNull private final String        name;
+
+        Testcase(@NotNull String key, @NotNull String name)
+        {
+            this.key = key;
+            this.name = name;
+        }
+    }
+
+    /**
+     * A failure element
+     */
+    private static class Failure
+    {
+        @NotNull private final String  exceptionType;
+        @Nullable private final String message;
+        @NotNull private final String  trace;
+        @NotNull private final String  type;
+
+        Failure(@NotNull String type, @NotNull Throwable t)
+        {
+            this.type = type;
+            exceptionType = RemoteFailure.typeOf(t);
+            message = t.getMessage();
+            trace = StringUtils.getStackTrace(t);
+        }
+    }
 }
@@ -19,9 +19,12 @@
 package apb.utils;
 
 import java.io.*;
+import java.lang.reflect.Array;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
 import java.util.*;
 
 import apb.Apb;
@@ -341,15 +344,20 @@ public class FileUtils
                                          List<String> linesToInsert, List<String> linesToAppend)
         throws IOException
     {
+        final Charset  charset = Charset.forName(encoding);
         BufferedReader reader = null;
-        PrintWriter    writer = null;
+        BufferedWriter writer = null;
 
         try {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(from), encoding));
-            writer = new PrintWriter(new OutputStreamWriter(createOutputStream(to, append), encoding));
+            reader =
+                new BufferedReader(new InputStreamReader(new FileInputStream(from), charset), FILTER_BUFFER_SIZE);
+            writer =
+                new BufferedWriter(new OutputStreamWriter(createOutputStream(to, append), charset),
+                                   FILTER_BUFFER_SIZE);
 
             for (String s : linesToInsert) {
-                writer.println(s);
+                writer.write(s);
+                writer.newLine();
             }
 
             String line;
@@ -359,11 +367,13 @@ public class FileUtils
                     line = filter.filter(line);
                 }
 
-                writer.println(line);
+                writer.write(line);
+                writer.newLine();
             }
 
             for (String s : linesToAppend) {
-                writer.println(s);
+                writer.write(s);
+                writer.newLine();
             }
         }
         finally {
@@ -402,6 +412,66 @@ public class FileUtils
         }
     }
 
+    /**
+     * Create a hard link to a file, replacing the target if it already exists.
+     * Links are created using <code>java.nio.file.Files</code> when available,
+     * so this method returns false when running on a JVM older than 1.7
+     * or if the file system does not support hard links.
+     *
+     * @param existing The existing file
+     * @param link     The link to create
+     * @return true if the link was created, false otherwise
+     */
+    public static boolean hardLink(@NotNull File existing, @NotNull File link)
+    {
+        try {
+            final Class<?> files = Class.forName("java.nio.file.Files");
+
+            link.getParentFile().mkdirs();
+
+            if (link.exists() && !link.delete()) {
+                return false;
+            }
+
+            ClassUtils.invokeStatic(files, "createLink", ClassUtils.invoke(link, "toPath"),
+                                    ClassUtils.invoke(existing, "toPath"));
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a symbolic link to a file, replacing the target if it already exists.
+     * As with {@link #hardLink(File, File)} this requires a 1.7 or later JVM
+     *
+     * @param existing The existing file
+     * @param link     The link to create
+     * @return true if the link was created, false otherwise
+     */
+    public static boolean symbolicLink(@NotNull File existing, @NotNull File link)
+    {
+        try {
+            final Class<?> files = Class.forName("java.nio.file.Files");
+            final Class<?> attribute = Class.forName("java.nio.file.attribute.FileAttribute");
+
+            link.getParentFile().mkdirs();
+
+            if (link.exists() && !link.delete()) {
+                return false;
+            }
+
+            ClassUtils.invokeStatic(files, "createSymbolicLink", ClassUtils.invoke(link, "toPath"),
+                                    ClassUtils.invoke(existing.getAbsoluteFile(), "toPath"),
+                                    Array.newInstance(attribute, 0));
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * Create a FileOutputStream, creates the intermediate directories if necessary
      *
@@ -746,6 +816,32 @@ public class FileUtils
         }
     }
 
+    /**
+     * Feed the content of a file into a MessageDigest
+     *
+     * @param digest The digest to update
+     * @param file   The file to read
+     * @throws IOException If the file cannot be read
+     */
+    public static void updateDigest(@NotNull MessageDigest digest, @NotNull File file)
+        throws IOException
+    {
+        FileInputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int    n;
+
+            while ((n = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        finally {
+            StreamUtils.close(is);
+        }
+    }
+
     public static void touch(@NotNull File f, long time)
         throws IOException
     {
@@ -970,6 +1066,9 @@ public class FileUtils
             }
         };
 
+    private static final int BUFFER_SIZE = 8192;
+    private static final int FILTER_BUFFER_SIZE = 64 * 1024;
+
     public static final String JAVA_HOME = System.getenv("JAVA_HOME");
     public static final String java_home = System.getProperty("java.home");
 }
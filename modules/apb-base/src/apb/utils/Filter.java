@@ -18,9 +18,16 @@
 
 package apb.utils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import apb.Environment;
+
+import org.jetbrains.annotations.NotNull;
 //
 // User: emilio
 // Date: Sep 29, 2009
@@ -47,7 +54,7 @@ public interface Filter
         */
         public static Filter expandProperties(final Environment env)
         {
-            return new Filter() {
+            return new MatchingFilter(PROPERTY_START) {
                 public String filter(String str)
                 {
                     return env.expand(str);
@@ -76,7 +83,7 @@ public interface Filter
         public static Filter replaceAll(String regex, final String replacement)
         {
             final Pattern pattern = Pattern.compile(regex);
-            return new Filter() {
+            return new MatchingFilter(regex) {
                 public String filter(String str)
                 {
                     return pattern.matcher(str).replaceAll(replacement);
@@ -88,5 +95,99 @@ public interface Filter
                 }
             };
         }
+
+        /**
+         * Combine a list of filters into a single one that applies them in order.
+         * When all the filters are created by this factory, their regular expressions are
+         * compiled once into a single pattern, and lines not matching it are returned
+         * without applying any of the filters.
+         * The resulting filter can be safely used from different threads, as long as the
+         * original ones can.
+         *
+         * @param filters The filters to combine
+         */
+        public static Filter combine(List<Filter> filters)
+        {
+            final Filter[] fs = filters.toArray(new Filter[filters.size()]);
+            final Pattern  trigger = combinedTrigger(fs);
+
+            return new Filter() {
+                private final ThreadLocal<Matcher> matcher =
+                    new ThreadLocal<Matcher>() {
+                        @Override protected Matcher initialValue()
+                        {
+                            return trigger == null ? null : trigger.matcher("");
+                        }
+                    };
+
+                public String filter(String str)
+                {
+                    final Matcher m = matcher.get();
+
+                    if (m != null && !m.reset(str).find()) {
+                        return str;
+                    }
+
+                    for (Filter f : fs) {
+                        str = f.filter(str);
+                    }
+
+                    return str;
+                }
+
+                public String toString()
+                {
+                    return Arrays.asList(fs).toString();
+                }
+            };
+        }
+
+        /**
+         * Build a pattern that matches whenever any of the filters may modify a string.
+         * Returns null if it cannot be built
+         */
+        private static Pattern combinedTrigger(Filter[] filters)
+        {
+            final List<String> regexs = new ArrayList<String>();
+
+            for (Filter filter : filters) {
+                // Back references cannot be combined because group numbers change
+                if (!(filter instanceof MatchingFilter)) {
+                    return null;
+                }
+
+                final String regex = ((MatchingFilter) filter).regex;
+
+                if (BACK_REFERENCE.matcher(regex).find()) {
+                    return null;
+                }
+
+                regexs.add("(?:" + regex + ")");
+            }
+
+            try {
+                return regexs.isEmpty() ? null : Pattern.compile(CollectionUtils.listToString(regexs, "|"));
+            }
+            catch (PatternSyntaxException e) {
+                return null;
+            }
+        }
+
+        private static final String  PROPERTY_START = "\\$";
+        private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+    }
+
+    /**
+     * A filter that leaves unchanged the strings not matching a regular expression
+     */
+    abstract static class MatchingFilter
+        implements Filter
+    {
+        @NotNull private final String regex;
+
+        MatchingFilter(@NotNull String regex)
+        {
+            this.regex = regex;
+        }
     }
 }
@@ -0,0 +1,141 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import apb.BuildException;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Utilities to run a set of independent jobs on a bounded pool of threads
+ */
+public class ParallelUtils
+{
+    //~ Constructors .........................................................................................
+
+    private ParallelUtils() {}
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * The default number of threads to use for I/O bound jobs
+     */
+    public static int defaultThreads()
+    {
+        return Math.min(Runtime.getRuntime().availableProcessors() * 2, MAX_THREADS);
+    }
+
+    /**
+     * Run all the jobs using at most the specified number of threads, and wait for all of them to finish.
+     * The threads are created from the calling one so they inherit the current Environment.
+     * If only one thread is requested (or there is only one job), jobs are run in the calling thread.
+     *
+     * @param threads The maximum number of threads to use
+     * @param jobs    The jobs to run
+     * @return The results of the jobs in the same order
+     * @throws BuildException wrapping the first checked exception thrown by a job.
+     * Unchecked exceptions are rethrown as is.
+     */
+    @NotNull public static <T> List<T> run(int threads, @NotNull List<? extends Callable<T>> jobs)
+    {
+        final List<T> result = new ArrayList<T>(jobs.size());
+
+        if (threads <= 1 || jobs.size() <= 1) {
+            for (Callable<T> job : jobs) {
+                try {
+                    result.add(job.call());
+                }
+                catch (RuntimeException e) {
+                    throw e;
+                }
+                catch (Exception e) {
+                    throw new BuildException(e);
+                }
+            }
+
+            return result;
+        }
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(threads, jobs.size()), new DaemonThreadFactory());
+
+        try {
+            final List<Future<T>> futures = new ArrayList<Future<T>>(jobs.size());
+
+            for (Callable<T> job : jobs) {
+                futures.add(executor.submit(job));
+            }
+
+            for (Future<T> future : futures) {
+                result.add(future.get());
+            }
+
+            return result;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BuildException(e);
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new BuildException(cause);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final int MAX_THREADS = 8;
+
+    //~ Inner Classes ........................................................................................
+
+    private static class DaemonThreadFactory
+        implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(@NotNull Runnable r)
+        {
+            final Thread thread = new Thread(r, "apb-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
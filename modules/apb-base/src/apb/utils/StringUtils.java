@@ -336,6 +336,22 @@ public class StringUtils
         return Base64.decode(str);
     }
 
+    /**
+     * Encode the given bytes as a lowercase hexadecimal String
+     * @param bytes The bytes to encode
+     * @return An hexadecimal String with 2 digits per byte
+     */
+    public static String encodeHex(@NotNull byte[] bytes)
+    {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            result.append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+        }
+
+        return result.toString();
+    }
+
     /**
      * Truncate the first string to the second one length if longer
      * @param string The string to be truncated
@@ -539,4 +555,5 @@ strLoop:
 
     @NonNls private static final String MATCH_ANYTHING_PATTERN = "**";
     private static final String         specialSaveChars = "=: \t\r\n\f#!";
+    private static final char[]         HEX_DIGITS = "0123456789abcdef".toCharArray();
 }
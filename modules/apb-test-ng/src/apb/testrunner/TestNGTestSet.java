@@ -20,6 +20,7 @@ package apb.testrunner;
 
 import java.util.List;
 
+import apb.testrunner.output.ParallelTestsReport;
 import apb.testrunner.output.TestReport;
 
 import org.jetbrains.annotations.NotNull;
@@ -67,15 +68,36 @@ public class TestNGTestSet
 
         tng.setVerbose(0);
 
-        TestListenerAdaptor reporter = new TestListenerAdaptor(report);
+        final int                 threads = getParallelTests();
+        final ParallelTestsReport parallelReport = threads > 1 ? new ParallelTestsReport(report) : null;
+
+        if (parallelReport != null) {
+            tng.setParallel(PARALLEL_METHODS);
+            tng.setThreadCount(threads);
+        }
+
+        TestListenerAdaptor reporter =
+            new TestListenerAdaptor(parallelReport == null ? report : parallelReport);
         tng.addListener((Object) reporter);
 
         //tng.setOutputDirectory( report.getAbsolutePath() );
         final Class[] tcs = { getTestClass() };
         tng.setTestClasses(tcs);
-        tng.run();
+
+        try {
+            tng.run();
+        }
+        finally {
+            if (parallelReport != null) {
+                parallelReport.flush();
+            }
+        }
     }
 
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String PARALLEL_METHODS = "methods";
+
     //~ Inner Classes ........................................................................................
 
     public static class TestListenerAdaptor
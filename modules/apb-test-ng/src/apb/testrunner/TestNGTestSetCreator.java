@@ -33,8 +33,13 @@ import org.testng.annotations.Test;
 
 //
 public class TestNGTestSetCreator
-    implements TestSetCreator<Object>
+    implements TestSetCreator<Object>,
+               TestSetCreator.Discovery
 {
+    //~ Instance fields ......................................................................................
+
+    @Nullable private TestClassFinder finder;
+
     //~ Methods ..............................................................................................
 
     @Nullable public TestSet<Object> createTestSet(@NotNull Class<Object> testClass,
@@ -44,6 +49,11 @@ public class TestNGTestSetCreator
         return testClass.isAnnotationPresent(Test.class) ? new TestNGTestSet(testClass, singleTest) : null;
     }
 
+    public synchronized boolean isTestClass(@NotNull String className, @NotNull ClassLoader classLoader)
+    {
+        return finder(classLoader).isAnnotated(className, Test.class);
+    }
+
     @NotNull public String getName()
     {
         return "TestNG";
@@ -59,4 +69,18 @@ public class TestNGTestSetCreator
 
         return file;
     }
+
+    /**
+     * The finder for the classes of the specified loader
+     */
+    @NotNull private TestClassFinder finder(@NotNull ClassLoader classLoader)
+    {
+        TestClassFinder result = finder;
+
+        if (result == null || result.getClassLoader() != classLoader) {
+            finder = result = new TestClassFinder(classLoader);
+        }
+
+        return result;
+    }
 }
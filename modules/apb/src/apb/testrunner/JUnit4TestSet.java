@@ -16,15 +16,24 @@
 
 package apb.testrunner;
 
+import apb.testrunner.output.ParallelTestsReport;
 import apb.testrunner.output.TestReport;
+import apb.utils.ParallelUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.junit.runner.Computer;
 import org.junit.runner.Description;
 import org.junit.runner.JUnitCore;
+import org.junit.runner.Runner;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 final class JUnit4TestSet
     extends TestSet<Object>
@@ -52,9 +61,24 @@ final class JUnit4TestSet
             currentThread.setContextClassLoader(classLoader);
 
             final JUnitCore jUnitCore = new JUnitCore();
-            final TestListenerAdaptor adaptor = new TestListenerAdaptor(report);
-            jUnitCore.addListener(adaptor);
-            jUnitCore.run(getTestClass());
+            final int threads = getParallelTests();
+
+            if (threads > 1) {
+                final ParallelTestsReport parallelReport = new ParallelTestsReport(report);
+                jUnitCore.addListener(new TestListenerAdaptor(parallelReport));
+
+                try {
+                    jUnitCore.run(new ParallelMethodsComputer(threads), getTestClass());
+                }
+                finally {
+                    parallelReport.flush();
+                }
+            }
+            else {
+                final TestListenerAdaptor adaptor = new TestListenerAdaptor(report);
+                jUnitCore.addListener(adaptor);
+                jUnitCore.run(getTestClass());
+            }
         }
         finally {
             currentThread.setContextClassLoader(previousClassLoader);
@@ -71,6 +95,65 @@ final class JUnit4TestSet
     //~ Static fields/initializers ...........................................................................
 
     //~ Inner Classes ........................................................................................
+
+    /**
+     * Runs the test methods of each class concurrently, using at most the specified number of threads.
+     * Suites are left alone, so their classes run one after the other.
+     */
+    private static class ParallelMethodsComputer
+        extends Computer
+    {
+        private final int threads;
+
+        ParallelMethodsComputer(int threads)
+        {
+            this.threads = threads;
+        }
+
+        @Override protected Runner getRunner(RunnerBuilder builder, Class<?> testClass)
+            throws Throwable
+        {
+            final Runner runner = super.getRunner(builder, testClass);
+
+            if (runner instanceof BlockJUnit4ClassRunner) {
+                ((BlockJUnit4ClassRunner) runner).setScheduler(new Scheduler(threads));
+            }
+
+            return runner;
+        }
+    }
+
+    /**
+     * Collects the children of a runner, and runs them in a pool of threads once all of them are scheduled
+     */
+    private static class Scheduler
+        implements RunnerScheduler
+    {
+        private final int                    threads;
+        private final List<Callable<Object>> children = new ArrayList<Callable<Object>>();
+
+        Scheduler(int threads)
+        {
+            this.threads = threads;
+        }
+
+        public void schedule(final Runnable child)
+        {
+            children.add(new Callable<Object>() {
+                    public Object call()
+                    {
+                        child.run();
+                        return null;
+                    }
+                });
+        }
+
+        public void finished()
+        {
+            ParallelUtils.run(threads, children);
+        }
+    }
+
     public static class TestListenerAdaptor extends RunListener {
 
         private final TestReport report;
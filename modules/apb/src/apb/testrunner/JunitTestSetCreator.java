@@ -29,8 +29,13 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class JunitTestSetCreator
-    implements TestSetCreator<Object>
+    implements TestSetCreator<Object>,
+               TestSetCreator.Discovery
 {
+    //~ Instance fields ......................................................................................
+
+    @Nullable private TestClassFinder finder;
+
     //~ Methods ..............................................................................................
 
     @Nullable public TestSet<Object> createTestSet(@NotNull Class<Object> testClass,
@@ -49,6 +54,11 @@ public class JunitTestSetCreator
         return result;
     }
 
+    public synchronized boolean isTestClass(@NotNull String className, @NotNull ClassLoader classLoader)
+    {
+        return finder(classLoader).isJUnitTest(className);
+    }
+
     @NotNull public String getName()
     {
         return "junit";
@@ -82,4 +92,18 @@ public class JunitTestSetCreator
 
         return result;
     }
+
+    /**
+     * The finder for the classes of the specified loader
+     */
+    @NotNull private TestClassFinder finder(@NotNull ClassLoader classLoader)
+    {
+        TestClassFinder result = finder;
+
+        if (result == null || result.getClassLoader() != classLoader) {
+            finder = result = new TestClassFinder(classLoader);
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,254 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.testrunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.runner.RunWith;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Finds the test classes reading their class files, so the classes that are not tests are never loaded.
+ * When a class file cannot be read the class is considered a test, so it is loaded and checked as before.
+ * @exclude
+ */
+public class TestClassFinder
+{
+    //~ Instance fields ......................................................................................
+
+    @NotNull private final ClassLoader classLoader;
+
+    /**
+     * Whether the subclasses of a class are JUnit tests, by internal class name
+     */
+    @NotNull private final Map<String, Boolean> junitBase;
+
+    //~ Constructors .........................................................................................
+
+    /**
+     * Create a finder
+     * @param classLoader The loader used to read the class files (as resources)
+     */
+    public TestClassFinder(@NotNull ClassLoader classLoader)
+    {
+        this.classLoader = classLoader;
+        junitBase = new HashMap<String, Boolean>();
+    }
+
+    //~ Methods ..............................................................................................
+
+    @NotNull public ClassLoader getClassLoader()
+    {
+        return classLoader;
+    }
+
+    /**
+     * Whether the class is a JUnit 4 test (it has test methods or is run with a runner),
+     * or a JUnit 3 one (it extends TestCase or has a suite() method)
+     */
+    public boolean isJUnitTest(@NotNull String className)
+    {
+        final ClassInfo info = read(internalName(className));
+        return info == null ||
+               !info.isAbstract && (info.methodAnnotations.contains(JUNIT4_TEST) || isJUnitBase(info));
+    }
+
+    /**
+     * Whether the class is not abstract and it is annotated with the specified annotation
+     */
+    public boolean isAnnotated(@NotNull String className, @NotNull Class<? extends Annotation> annotation)
+    {
+        final ClassInfo info = read(internalName(className));
+        return info == null || !info.isAbstract && info.annotations.contains(Type.getDescriptor(annotation));
+    }
+
+    /**
+     * Whether the class or one of its superclasses makes their subclasses JUnit tests
+     */
+    private boolean isJUnitBase(@NotNull ClassInfo info)
+    {
+        Boolean result = junitBase.get(info.name);
+
+        if (result == null) {
+            if (info.name.equals(JUNIT3_TEST_CASE) || info.hasSuiteMethod ||
+                    info.annotations.contains(RUN_WITH)) {
+                result = true;
+            }
+            else if (info.superName == null || info.superName.startsWith(JAVA_PACKAGE)) {
+                result = false;
+            }
+            else {
+                final ClassInfo superInfo = read(info.superName);
+                result = superInfo == null || isJUnitBase(superInfo);
+            }
+
+            junitBase.put(info.name, result);
+        }
+
+        return result;
+    }
+
+    @Nullable private ClassInfo read(@NotNull String internalName)
+    {
+        final InputStream is = classLoader.getResourceAsStream(internalName + ".class");
+
+        if (is == null) {
+            return null;
+        }
+
+        try {
+            final ClassInfo result = new ClassInfo();
+            new ClassReader(is).accept(result, SKIP_FLAGS);
+            return result;
+        }
+        catch (IOException e) {
+            return null;
+        }
+        catch (RuntimeException e) {
+            // An invalid class file
+            return null;
+        }
+        finally {
+            try {
+                is.close();
+            }
+            catch (IOException ignore) {
+                // Nothing to do
+            }
+        }
+    }
+
+    @NotNull private static String internalName(@NotNull String className)
+    {
+        return className.replace('.', '/');
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final int SKIP_FLAGS =
+        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private static final String JAVA_PACKAGE = "java/";
+    private static final String JUNIT3_TEST_CASE = Type.getInternalName(TestCase.class);
+    private static final String JUNIT4_TEST = Type.getDescriptor(org.junit.Test.class);
+    private static final String RUN_WITH = Type.getDescriptor(RunWith.class);
+    private static final String SUITE_METHOD = "suite";
+
+    //~ Inner Classes ........................................................................................
+
+    /**
+     * The parts of a class file used to find tests
+     */
+    private static class ClassInfo
+        implements ClassVisitor
+    {
+        private boolean hasSuiteMethod;
+        private boolean isAbstract;
+        private String  name;
+
+        @Nullable private String superName;
+
+        @NotNull private final Set<String> annotations = new HashSet<String>();
+        @NotNull private final Set<String> methodAnnotations = new HashSet<String>();
+
+        public void visit(int version, int access, String className, String signature, String superClass,
+                          String[] interfaces)
+        {
+            name = className;
+            superName = superClass;
+            isAbstract = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE)) != 0;
+        }
+
+        public void visitSource(String source, String debug) {}
+
+        public void visitOuterClass(String owner, String methodName, String desc) {}
+
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible)
+        {
+            annotations.add(desc);
+            return null;
+        }
+
+        public void visitAttribute(Attribute attr) {}
+
+        public void visitInnerClass(String innerName, String outerName, String simpleName, int access) {}
+
+        public FieldVisitor visitField(int access, String fieldName, String desc, String signature,
+                                       Object value)
+        {
+            return null;
+        }
+
+        public MethodVisitor visitMethod(int access, String methodName, String desc, String signature,
+                                         String[] exceptions)
+        {
+            final int publicStatic = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC;
+
+            // The type returned is checked when the class is loaded
+            if (SUITE_METHOD.equals(methodName) && (access & publicStatic) == publicStatic &&
+                    desc.startsWith("()")) {
+                hasSuiteMethod = true;
+            }
+
+            // The code is skipped, so only annotations and attributes are visited
+            return new MethodAdapter(null) {
+                @Override public AnnotationVisitor visitAnnotationDefault()
+                {
+                    return null;
+                }
+
+                @Override public AnnotationVisitor visitAnnotation(String desc, boolean visible)
+                {
+                    methodAnnotations.add(desc);
+                    return null;
+                }
+
+                @Override public AnnotationVisitor visitParameterAnnotation(int parameter, String desc,
+                                                                            boolean visible)
+                {
+                    return null;
+                }
+
+                @Override public void visitAttribute(Attribute attr) {}
+
+                @Override public void visitEnd() {}
+            };
+        }
+
+        public void visitEnd() {}
+    }
+}
@@ -0,0 +1,57 @@
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+import apb.metadata.BuildTarget;
+import apb.metadata.RemoteLibrary;
+
+import static apb.tasks.CoreTasks.printf;
+
+public class Remote
+    extends base.BaseModule
+{
+    //~ Instance initializers ................................................................................
+
+    {
+        dependencies(new Lib("lib-a"), new Lib("lib-b"), new Lib("lib-c"), new Lib("lib-bad"));
+    }
+
+    //~ Methods ..............................................................................................
+
+    @BuildTarget public void hello()
+    {
+        printf("Hello Remote !\n");
+    }
+
+    /**
+     * Nothing to compile: the libraries are only fetched before the build starts
+     */
+    @Override public void compile()
+    {
+        printf("Compile Remote !\n");
+    }
+
+    //~ Inner Classes ........................................................................................
+
+    static class Lib
+        extends RemoteLibrary
+    {
+        Lib(String id)
+        {
+            super("remote.test", id, "1.0");
+            setTargetDir("$tmpdir/lib");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+import static apb.tasks.CoreTasks.printf;
+
+/**
+ * A module that shares some of its libraries with {@link Remote}
+ */
+public class RemoteToo
+    extends base.BaseModule
+{
+    //~ Instance initializers ................................................................................
+
+    {
+        dependencies(new Remote.Lib("lib-a"), new Remote.Lib("lib-b"));
+    }
+
+    //~ Methods ..............................................................................................
+
+    /**
+     * Nothing to compile: the libraries are only fetched before the build starts
+     */
+    @Override public void compile()
+    {
+        printf("Compile RemoteToo !\n");
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+import apb.metadata.BuildTarget;
+import apb.metadata.RemoteLibrary;
+
+import static apb.tasks.CoreTasks.printf;
+
+public class Transitive
+    extends base.BaseModule
+{
+    //~ Instance initializers ................................................................................
+
+    {
+        final Lib app = new Lib("app");
+        app.setTransitive(true);
+        dependencies(app);
+    }
+
+    //~ Methods ..............................................................................................
+
+    @BuildTarget public void hello()
+    {
+        printf("Hello Transitive !\n");
+    }
+
+    /**
+     * Nothing to compile: the libraries are only fetched before the build starts
+     */
+    @Override public void compile()
+    {
+        printf("Compile Transitive !\n");
+    }
+
+    //~ Inner Classes ........................................................................................
+
+    static class Lib
+        extends RemoteLibrary
+    {
+        Lib(String id)
+        {
+            super("remote.tree", id, "1.0");
+            setTargetDir("$tmpdir/lib");
+        }
+    }
+}
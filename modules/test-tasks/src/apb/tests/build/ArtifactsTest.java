@@ -0,0 +1,202 @@
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.build;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import apb.Constants;
+import apb.DefinitionException;
+
+import apb.tests.testutils.FileAssert;
+
+import apb.utils.FileUtils;
+
+import static apb.tasks.CoreTasks.delete;
+
+public class ArtifactsTest
+    extends ApbTestCase
+{
+    //~ Methods ..............................................................................................
+
+    public void testPrefetch()
+        throws DefinitionException
+    {
+        build("Remote", "compile");
+
+        for (String lib : LIBS) {
+            final String name = lib + "-1.0.jar";
+            FileAssert.assertFileEquals(new File(dataDir, "repository/remote/test/" + lib + "/1.0/" + name),
+                                        new File(tmpdir, "lib/" + name));
+        }
+
+        // The shared store is only used when enabled
+        FileAssert.assertDoesNotExist(new File(tmpdir, "store/remote"));
+    }
+
+    public void testSharedLibraries()
+        throws DefinitionException
+    {
+        // The modules of the project share 'lib-a' and 'lib-b', and they are prefetched concurrently
+        build("Remotes", "compile");
+
+        final List<String> names = new ArrayList<String>();
+
+        for (String lib : LIBS) {
+            final String name = lib + "-1.0.jar";
+            names.add(name);
+            FileAssert.assertFileEquals(new File(dataDir, "repository/remote/test/" + lib + "/1.0/" + name),
+                                        new File(tmpdir, "lib/" + name));
+        }
+
+        // No partial downloads are left behind (checksums are only verified in the store)
+        names.add("lib-bad-1.0.jar");
+        FileAssert.assertSame(names, Arrays.asList(new File(tmpdir, "lib").list()));
+    }
+
+    public void testSharedStore()
+        throws DefinitionException
+    {
+        env.putProperty(Constants.ARTIFACTS_SHARED_PROPERTY, "true");
+        build("Remote", "compile");
+
+        final File store = new File(tmpdir, "store/remote/test");
+
+        for (String lib : LIBS) {
+            final String name = lib + "-1.0.jar";
+            final File   stored = new File(store, lib + "/1.0/" + name);
+            FileAssert.assertFileEquals(stored, new File(tmpdir, "lib/" + name));
+            FileAssert.assertExists(new File(stored.getPath() + ".sha1"));
+        }
+
+        // The checksum does not match the published one
+        FileAssert.assertDoesNotExist(new File(store, "lib-bad/1.0/lib-bad-1.0.jar"));
+        FileAssert.assertDoesNotExist(new File(tmpdir, "lib/lib-bad-1.0.jar"));
+
+        // Once removed from the project, the artifact is taken from the store
+        final File target = new File(tmpdir, "lib/lib-a-1.0.jar");
+        target.delete();
+        env.putProperty(Constants.REPOSITORY_PROPERTY, "file:" + tmpFile("no-repository"));
+        build("Remote", "compile");
+        FileAssert.assertFileEquals(new File(store, "lib-a/1.0/lib-a-1.0.jar"), target);
+    }
+
+    public void testOffline()
+        throws DefinitionException
+    {
+        env.putProperty(Constants.ARTIFACTS_SHARED_PROPERTY, "true");
+
+        // Nothing is downloaded, even if the repository is available
+        env.putProperty(Constants.ARTIFACTS_OFFLINE_PROPERTY, "true");
+        build("Remote", "compile");
+
+        for (String lib : LIBS) {
+            FileAssert.assertDoesNotExist(new File(tmpdir, "lib/" + lib + "-1.0.jar"));
+        }
+
+        env.putProperty(Constants.ARTIFACTS_OFFLINE_PROPERTY, "false");
+        build("Remote", "compile");
+        FileAssert.assertExists(new File(tmpdir, "store/" + Constants.RESOLUTION_RECORD));
+
+        // Resolved from the store
+        final File target = new File(tmpdir, "lib/lib-a-1.0.jar");
+        final File stored = new File(tmpdir, "store/remote/test/lib-a/1.0/lib-a-1.0.jar");
+        target.delete();
+        env.putProperty(Constants.ARTIFACTS_OFFLINE_PROPERTY, "true");
+        build("Remote", "compile");
+        FileAssert.assertFileEquals(stored, target);
+
+        // Resolved from the place recorded in the previous builds
+        target.delete();
+        env.putProperty(Constants.ARTIFACTS_SHARED_PROPERTY, "false");
+        build("Remote", "compile");
+        FileAssert.assertFileEquals(stored, target);
+    }
+
+    public void testTransitive()
+        throws DefinitionException
+    {
+        env.putProperty(Constants.ARTIFACTS_SHARED_PROPERTY, "true");
+        build("Transitive", "compile");
+        assertLibraries(TREE_LIBS, new File(tmpdir, "lib"));
+
+        // The resolved graph is reused, without reading the POMs again
+        final File graphs = new File(tmpdir, "store/" + Constants.RESOLUTION_GRAPHS);
+        FileAssert.assertExists(graphs);
+        delete(new File(tmpdir, "lib")).execute();
+
+        for (File pom : FileUtils.listAllFilesWithExt(new File(tmpdir, "store"), ".pom")) {
+            pom.delete();
+        }
+
+        env.putProperty(Constants.REPOSITORY_PROPERTY, "file:" + tmpFile("no-repository"));
+        build("Transitive", "compile");
+        assertLibraries(TREE_LIBS, new File(tmpdir, "lib"));
+    }
+
+    public void testNoPrefetch()
+        throws DefinitionException
+    {
+        // Commands that do not need the class path do not fetch the libraries
+        build("Remote", "hello");
+
+        for (String lib : LIBS) {
+            FileAssert.assertDoesNotExist(new File(tmpdir, "lib/" + lib + "-1.0.jar"));
+        }
+
+        env.putProperty(Constants.ARTIFACTS_PREFETCH_PROPERTY, "false");
+        build("Remote", "compile");
+
+        for (String lib : LIBS) {
+            FileAssert.assertDoesNotExist(new File(tmpdir, "lib/" + lib + "-1.0.jar"));
+        }
+    }
+
+    private static void assertLibraries(String[] expected, File dir)
+    {
+        final List<String> files = new ArrayList<String>();
+
+        for (String lib : expected) {
+            files.add(lib + ".jar");
+        }
+
+        FileAssert.assertSame(files, Arrays.asList(dir.list()));
+    }
+
+    @Override protected void createEnv(Map<String, String> properties)
+    {
+        super.createEnv(properties);
+        env.putProperty(Constants.REPOSITORY_PROPERTY,
+                        "file:" + new File(env.expand("$datadir"), "repository").getAbsolutePath());
+        env.putProperty(Constants.ARTIFACTS_STORE_PROPERTY, tmpFile("store"));
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final String[] LIBS = { "lib-a", "lib-b", "lib-c" };
+
+    /**
+     * The libraries resolved from the POMs in 'remote/tree' (Excluded, optional, test scoped
+     * and farther versions are not included)
+     */
+    private static final String[] TREE_LIBS = {
+            "app-1.0", "mid-a-1.0", "mid-b-1.0", "leaf-c-1.0", "leaf-d-1.0", "leaf-f-1.0"
+        };
+}
@@ -68,8 +68,8 @@ public class CompletionTest
         assertEquals("Samples.clean Samples.compile Samples.compile-tests", result);
 
         result = oc.execute(0, asList(""));
-        assertEquals("Chat HelloWorld Info Math PlayWithMath Properties Samples SimpleWebApp submod.Mod tests.Math",
-                     result);
+        assertEquals("Chat HelloWorld Info Math PlayWithMath Properties Remote RemoteToo Remotes " +
+                     "Samples SimpleWebApp Transitive submod.Mod tests.Math", result);
 
         result = oc.execute(0, asList("tests.Ma"));
         final List<String> list = new ArrayList<String>(IndexTest.MATH_EXPECTED_COMMANDS);
@@ -96,7 +96,7 @@ public class CompletionTest
         assertEquals("--debug --define", result);
 
         result = oc.execute(0, asList("-"));
-        assertEquals("-c -D -d -f -h -n -q -s -t -v", result);
+        assertEquals("-a -c -D -d -f -h -n -o -q -s -t -v", result);
 
         result = oc.execute(1, asList("--debug"));
         assertEquals("all dependencies properties task_info track", result);
@@ -52,8 +52,9 @@ public class IndexTest
         final Set<File> path = Apb.loadProjectPath();
 
         DefinitionsIndex index = new DefinitionsIndex(env, path);
-        assertEquals(asList("Chat", "HelloWorld", "Info", "Math", "PlayWithMath", "Properties", "Samples",
-                            "SimpleWebApp", "submod.Mod", "tests.Math").toString(), index.toString());
+        assertEquals(asList("Chat", "HelloWorld", "Info", "Math", "PlayWithMath", "Properties", "Remote",
+                            "RemoteToo", "Remotes", "Samples", "SimpleWebApp", "Transitive", "submod.Mod",
+                            "tests.Math").toString(), index.toString());
         FileAssert.assertExists(indexFile);
         indexFile.setLastModified(ts);
 
@@ -19,12 +19,21 @@
 package apb.tests.tasks;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Collections;
 
+import apb.tasks.CopyTask;
 import apb.tasks.FileSet;
 
+import apb.utils.FileUtils;
+import apb.utils.Filter;
+
 import apb.tests.testutils.FileAssert;
 
+import static java.util.Arrays.asList;
+
 import static apb.tasks.CoreTasks.*;
 
 import static apb.tests.testutils.FileAssert.assertDirEquals;
@@ -117,6 +126,144 @@ public class CopyTest
         FileAssert.assertFileEquals(new File(dir1, "a.txt"), new File(dir2, "c.txt"));
     }
 
+    public void testParallel()
+        throws IOException
+    {
+        final File many = new File(basedir, "many");
+
+        for (int i = 0; i < 100; i++) {
+            FileAssert.createFile(many, "F" + i + ".java", DATA);
+        }
+
+        final File dir3 = new File(basedir, "dir3");
+        copy(many).to(dir3).usingThreads(4).execute();
+        assertDirEquals(many, dir3);
+
+        // Copy again (Must skip copy)
+        final File f = new File(dir3, "F0.java");
+        f.setLastModified(currentTime() + 2000);
+        final long lastModified = f.lastModified();
+        copy(many).to(dir3).usingThreads(4).execute();
+        assertEquals(lastModified, f.lastModified());
+    }
+
+    public void testLinking()
+        throws IOException
+    {
+        copy(dir1).to(dir2).linking("*.txt").execute();
+        delete("dir1/.svn").execute();
+        assertDirEquals(dir1, dir2);
+
+        // Links share the timestamp, so they are not copied again
+        final File link = new File(dir2, "a.txt");
+        assertEquals(new File(dir1, "a.txt").lastModified(), link.lastModified());
+
+        // Files not matching the patterns are still copied
+        FileAssert.createFile(dir1, "C.java", DATA1);
+        new File(dir1, "C.java").setLastModified(currentTime() + 2000);
+        copy(dir1).to(dir2).linking("*.txt").execute();
+        FileAssert.assertFileEquals(new File(dir1, "C.java"), new File(dir2, "C.java"));
+        FileAssert.assertFileEquals(new File(dir1, "a.txt"), link);
+    }
+
+    public void testCheckingContent()
+        throws IOException
+    {
+        copy(dir1).to(dir2).checkingContent(true).execute();
+        delete("dir1/.svn").execute();
+        assertDirEquals(dir1, dir2);
+
+        // Touch the sources, identical targets must be left untouched
+        final File target = new File(dir2, "A.java");
+        final long lastModified = target.lastModified();
+
+        for (File f : dir1.listFiles()) {
+            f.setLastModified(currentTime() + 2000);
+        }
+
+        FileAssert.createFile(dir1, "B.java", DATA1);
+        new File(dir1, "B.java").setLastModified(currentTime() + 2000);
+
+        copy(dir1).to(dir2).checkingContent(true).execute();
+        assertEquals(lastModified, target.lastModified());
+        assertDirEquals(dir1, dir2);
+        FileAssert.assertExists(CopyTask.journalFile(dir2));
+
+        // Filtering
+        final File dir3 = new File(basedir, "dir3");
+        copyFiltering(dir1).to(dir3).checkingContent(true).execute();
+        final File filtered = new File(dir3, "B.java");
+        final long filteredLastModified = filtered.lastModified();
+        new File(dir1, "B.java").setLastModified(currentTime() + 4000);
+
+        copyFiltering(dir1).to(dir3).checkingContent(true).execute();
+        assertEquals(filteredLastModified, filtered.lastModified());
+        FileAssert.assertFileEquals(new File(dir2, "A.java"), filtered);
+        assertDoesNotExist(new File(dir3, "B.java.tmp"));
+    }
+
+    public void testFilterParallel()
+        throws IOException
+    {
+        final File many = new File(basedir, "many");
+
+        for (int i = 0; i < 100; i++) {
+            FileAssert.createFile(many, "F" + i + ".txt", DATA1);
+        }
+
+        final File dir3 = new File(basedir, "dir3");
+        copyFiltering(many).to(dir3).usingThreads(4).execute();
+
+        for (int i = 0; i < 100; i++) {
+            FileAssert.assertFileEquals(new File(dir1, "a.txt"), new File(dir3, "F" + i + ".txt"));
+        }
+
+        final File dir4 = new File(basedir, "dir4");
+        copyFiltering(many).to(dir4).replacing("\\$l", "line").replacing("line (\\d)", "line $1").execute();
+
+        for (int i = 0; i < 100; i++) {
+            FileAssert.assertFileEquals(new File(dir1, "a.txt"), new File(dir4, "F" + i + ".txt"));
+        }
+    }
+
+    public void testFilterLineEnds()
+        throws IOException
+    {
+        final StringBuilder longLine = new StringBuilder();
+
+        while (longLine.length() < 100000) {
+            longLine.append("0123456789");
+        }
+
+        final File from = new File(basedir, "ends.txt");
+        final File to = new File(basedir, "ends-filtered.txt");
+        final FileWriter w = new FileWriter(from);
+
+        try {
+            w.write("a\r\nb\rc\n\r\n" + longLine + "\r\nlast");
+        }
+        finally {
+            w.close();
+        }
+
+        // Buffers are reused between files, so filter twice
+        for (int i = 0; i < 2; i++) {
+            FileUtils.copyFileFiltering(from, to, false, "UTF-8", Collections.<Filter>emptyList(),
+                                        asList("first"), Collections.<String>emptyList());
+
+            final String nl = System.getProperty("line.separator");
+            final FileInputStream is = new FileInputStream(to);
+
+            try {
+                assertEquals("first" + nl + "a" + nl + "b" + nl + "c" + nl + nl + longLine + nl + "last" + nl,
+                             FileUtils.toString(is));
+            }
+            finally {
+                is.close();
+            }
+        }
+    }
+
     @Override protected void tearDown()
         throws Exception
     {
@@ -24,6 +24,8 @@ import java.io.IOException;
 import apb.tasks.CoreTasks;
 import apb.tasks.FileSet;
 
+import apb.utils.FileUtils;
+
 import apb.tests.testutils.FileAssert;
 
 import static apb.tasks.CoreTasks.delete;
@@ -88,6 +90,37 @@ public class DeleteTest
         assertExists(new File(dir1, "a.txt"));
     }
 
+    public void testTree()
+        throws IOException
+    {
+        createFiles();
+        final File tree = createTree();
+
+        // A link to another directory must not be followed.
+        // If the platform does not support links, the tree is deleted without it
+        FileUtils.symbolicLink(dir1, new File(tree, "d1/link"));
+
+        delete(tree).usingThreads(4).execute();
+        assertDoesNotExist(tree);
+        assertExists(new File(dir1, "A.java"));
+    }
+
+    public void testBackground()
+        throws IOException, InterruptedException
+    {
+        final File tree = createTree();
+
+        delete(tree).inBackground(true).execute();
+        assertDoesNotExist(tree);
+
+        // Wait for the background deletion
+        for (int i = 0; i < 100 && basedir.list().length > 0; i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(0, basedir.list().length);
+    }
+
     @Override protected void tearDown()
         throws Exception
     {
@@ -105,6 +138,22 @@ public class DeleteTest
         addFiles(dir2, "a.txt", "b.txt");
     }
 
+    private File createTree()
+        throws IOException
+    {
+        final File tree = mkdir("tree");
+
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                addFiles(new File(tree, "d" + i + "/e" + j), "A.java", "B.java");
+            }
+
+            addFiles(new File(tree, "d" + i), "a.txt");
+        }
+
+        return tree;
+    }
+
     private void addFiles(File dir, String... files)
         throws IOException
     {
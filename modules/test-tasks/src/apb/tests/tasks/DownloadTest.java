@@ -19,12 +19,30 @@
 package apb.tests.tasks;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import apb.BuildException;
 
 import apb.metadata.UpdatePolicy;
 
+import apb.tasks.DownloadTask;
+
 import apb.tests.testutils.FileAssert;
 
+import apb.utils.FileUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import static apb.tasks.CoreTasks.download;
 //
 // User: emilio
@@ -35,6 +53,11 @@ import static apb.tasks.CoreTasks.download;
 public class DownloadTest
     extends TaskTestCase
 {
+    //~ Instance fields ......................................................................................
+
+    private final List<Integer> responses = new ArrayList<Integer>();
+    private final List<String>  ranges = new ArrayList<String>();
+
     //~ Methods ..............................................................................................
 
     public void testLocal()
@@ -64,6 +87,38 @@ public class DownloadTest
         assertTrue(ts <= to.lastModified());
     }
 
+    public void testUnreachable()
+        throws IOException
+    {
+        final ServerSocket socket = new ServerSocket(0);
+        final String       url = "http://localhost:" + socket.getLocalPort() + "/" + SOURCE;
+        socket.close();
+
+        final File from = dataFile(SOURCE);
+        final File to = env.fileFromBase(SOURCE);
+
+        // The local copy is kept
+        FileUtils.copyFile(from, to, false);
+        to.setLastModified(currentTime() - 10000);
+        DownloadTask task = download(url).to(to).withUpdatePolicy(UpdatePolicy.ALWAYS);
+        task.execute();
+
+        assertTrue(task.isUnreachable());
+        FileAssert.assertFileEquals(from, to);
+
+        // Fail if there is no local copy
+        to.delete();
+        task = download(url).to(to);
+
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException e) {
+            assertTrue(task.isUnreachable());
+        }
+    }
+
     public void testRemote()
         throws IOException
     {
@@ -75,7 +130,196 @@ public class DownloadTest
         //        FileAssert.assertFileEquals(dataFile("commons-util-final.jar"), to);
     }
 
+    public void testConditional()
+        throws IOException
+    {
+        final File       from = dataFile(SOURCE);
+        final File       to = env.fileFromBase(SOURCE);
+        final HttpServer server = startServer(from);
+
+        try {
+            final String url = "http://localhost:" + server.getAddress().getPort() + "/" + SOURCE;
+
+            download(url).to(to).execute();
+            FileAssert.assertFileEquals(from, to);
+            assertEquals("[200]", responses.toString());
+
+            // Just one request that answers not modified
+            final long ts = currentTime() - 10000;
+            to.setLastModified(ts);
+            download(url).to(to)  //
+                         .withUpdatePolicy(UpdatePolicy.ALWAYS)  //
+                         .execute();
+
+            assertEquals("[200, 304]", responses.toString());
+            assertTrue(ts < to.lastModified());
+            FileAssert.assertFileEquals(from, to);
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    public void testResume()
+        throws IOException
+    {
+        final File       from = dataFile(SOURCE);
+        final File       to = env.fileFromBase(SOURCE);
+        final HttpServer server = startServer(from);
+
+        try {
+            final String       url = "http://localhost:" + server.getAddress().getPort() + "/" + SOURCE;
+            final DownloadTask task = download(url).to(to);
+
+            // Simulate an interrupted download
+            final byte[]       content = readBytes(from);
+            final OutputStream os = new FileOutputStream(task.getPartFile());
+            os.write(content, 0, content.length / 2);
+            os.close();
+            FileAssert.createFile(task.getValidatorFile().getParentFile(), task.getValidatorFile().getName(), ETAG);
+
+            task.execute();
+
+            FileAssert.assertFileEquals(from, to);
+            FileAssert.assertDoesNotExist(task.getPartFile());
+            assertEquals("[206]", responses.toString());
+            assertEquals("[bytes=" + content.length / 2 + "-]", ranges.toString());
+
+            // The validator is not kept next to the downloaded file
+            assertFalse(task.getValidatorFile().getParentFile().equals(to.getParentFile()));
+            assertTrue(task.getValidatorFile().exists());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    public void testResumeNotSatisfiable()
+        throws IOException
+    {
+        final File       from = dataFile(SOURCE);
+        final File       to = env.fileFromBase(SOURCE);
+        final HttpServer server = startServer(from);
+
+        try {
+            final String       url = "http://localhost:" + server.getAddress().getPort() + "/" + SOURCE;
+            final DownloadTask task = download(url).to(to);
+
+            // A partial file longer than the remote one cannot be resumed
+            final byte[]       content = readBytes(from);
+            final OutputStream os = new FileOutputStream(task.getPartFile());
+            os.write(content);
+            os.write(content);
+            os.close();
+            FileAssert.createFile(task.getValidatorFile().getParentFile(), task.getValidatorFile().getName(), ETAG);
+
+            task.execute();
+
+            FileAssert.assertFileEquals(from, to);
+            FileAssert.assertDoesNotExist(task.getPartFile());
+            assertEquals("[416, 200]", responses.toString());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    public void testMissing()
+        throws IOException
+    {
+        final File       to = env.fileFromBase(SOURCE + ".sha1");
+        final HttpServer server = startServer(dataFile(SOURCE));
+
+        try {
+            final String url = "http://localhost:" + server.getAddress().getPort() + "/" + SOURCE + ".sha1";
+
+            download(url).to(to).ignoringMissing(true).execute();
+            FileAssert.assertDoesNotExist(to);
+            assertEquals("[404]", responses.toString());
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * A minimal http server that supports conditional and range requests
+     */
+    private HttpServer startServer(final File file)
+        throws IOException
+    {
+        final byte[]     content = readBytes(file);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+                public void handle(HttpExchange exchange)
+                    throws IOException
+                {
+                    final String range = exchange.getRequestHeaders().getFirst("Range");
+                    exchange.getResponseHeaders().add("ETag", ETAG);
+
+                    if (!exchange.getRequestURI().getPath().equals("/" + SOURCE)) {
+                        respond(exchange, 404, content, content.length);
+                    }
+                    else if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        respond(exchange, 304, content, content.length);
+                    }
+                    else if (range != null && ETAG.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                        ranges.add(range);
+                        final int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+
+                        if (from >= content.length) {
+                            respond(exchange, 416, content, content.length);
+                            return;
+                        }
+
+                        exchange.getResponseHeaders().add("Content-Range",
+                                                          "bytes " + from + "-" + (content.length - 1) + "/" +
+                                                          content.length);
+                        respond(exchange, 206, content, from);
+                    }
+                    else {
+                        respond(exchange, 200, content, 0);
+                    }
+                }
+            });
+        server.start();
+        return server;
+    }
+
+    private synchronized void respond(HttpExchange exchange, int code, byte[] content, int from)
+        throws IOException
+    {
+        responses.add(code);
+        final int length = content.length - from;
+        exchange.sendResponseHeaders(code, length == 0 ? -1 : length);
+
+        final OutputStream os = exchange.getResponseBody();
+        os.write(content, from, length);
+        os.close();
+    }
+
+    private static byte[] readBytes(File file)
+        throws IOException
+    {
+        final byte[]      result = new byte[(int) file.length()];
+        final InputStream is = new FileInputStream(file);
+
+        try {
+            int n = 0;
+
+            while (n < result.length) {
+                n += is.read(result, n, result.length - n);
+            }
+        }
+        finally {
+            is.close();
+        }
+
+        return result;
+    }
+
     //~ Static fields/initializers ...........................................................................
 
     private static final String SOURCE = "simple.iml";
+    private static final String ETAG = "\"v1\"";
 }
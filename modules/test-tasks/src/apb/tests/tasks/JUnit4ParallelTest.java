@@ -0,0 +1,124 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.tasks;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import apb.testrunner.JunitTestSetCreator;
+import apb.testrunner.TestSet;
+import apb.testrunner.output.ParallelTestsReport;
+import apb.testrunner.output.SimpleReport;
+import apb.testrunner.output.TestReport;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * Check that the methods of a JUnit 4 class run concurrently, and the classes of a suite do not
+ */
+public class JUnit4ParallelTest
+    extends TaskTestCase
+{
+    //~ Methods ..............................................................................................
+
+    public void testMethods()
+        throws Exception
+    {
+        run(Methods.class);
+        assertEquals(2, maxRunning.get());
+    }
+
+    public void testSuite()
+        throws Exception
+    {
+        run(Classes.class);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run(Class<?> testClass)
+        throws Exception
+    {
+        maxRunning.set(0);
+
+        final TestSet<Object> testSet =
+            new JunitTestSetCreator().createTestSet((Class<Object>) testClass, "");
+        testSet.setParallelTests(2);
+
+        final TestReport report = new SimpleReport.Builder(true).to("parallel").build(env).init(basedir);
+        report.startRun(1);
+        assertTrue(testSet.run(getClass().getClassLoader(), new ParallelTestsReport(report),
+                               Collections.<String>emptyList()));
+        report.stopRun();
+        assertEquals(0, report.getSuitesFailed());
+    }
+
+    private static void sleep()
+    {
+        final int n = running.incrementAndGet();
+
+        synchronized (maxRunning) {
+            maxRunning.set(Math.max(n, maxRunning.get()));
+        }
+
+        try {
+            Thread.sleep(200);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            running.decrementAndGet();
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    //~ Inner Classes ........................................................................................
+
+    public static class Methods
+    {
+        @Test public void first()
+        {
+            sleep();
+        }
+
+        @Test public void second()
+        {
+            sleep();
+        }
+    }
+
+    public static class Other
+    {
+        @Test public void third()
+        {
+            sleep();
+        }
+    }
+
+    @RunWith(Suite.class)
+    @Suite.SuiteClasses({ Methods.class, Other.class })
+    public static class Classes {}
+}
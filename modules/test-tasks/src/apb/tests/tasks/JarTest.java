@@ -26,7 +26,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
 
+import apb.BuildException;
+
+import apb.metadata.DuplicateRule;
+
 import apb.tasks.FileSet;
+import apb.tasks.JarTask;
+
+import apb.utils.FileUtils;
 
 import apb.tests.testutils.FileAssert;
 
@@ -107,6 +114,123 @@ public class JarTest
         FileAssert.assertJarContent(jarFile, expectedContent);
     }
 
+    public void testReproducible()
+        throws IOException
+    {
+        final File jar1 = new File(basedir, "lib/testReproducible1.jar");
+        final File jar2 = new File(basedir, "lib/testReproducible2.jar");
+
+        Map<String, Set<String>> services = new HashMap<String, Set<String>>();
+        services.put("service", new HashSet<String>(asList("impl2", "impl1", "impl3")));
+
+        jar(jar1).from(classes)  //
+                 .mainClass("A.class")  //
+                 .withManifestAttribute("color", "red")  //
+                 .withServices(services)  //
+                 .reproducible(true)  //
+                 .execute();
+
+        // Same content, different timestamps
+        FileUtils.touch(classes, currentTime() - 60000);
+
+        jar(jar2).from(classes)  //
+                 .withServices(services)  //
+                 .withManifestAttribute("color", "red")  //
+                 .mainClass("A.class")  //
+                 .reproducible(true)  //
+                 .execute();
+
+        assertTrue("Jars differ", FileUtils.equalsContent(jar1, jar2));
+        assertTrue(new File(basedir, "lib/testReproducible1.jar" + JarTask.DIGEST_EXT).exists());
+
+        // Touch the sources, the jar must not be rewritten
+        final long ts = currentTime() - 120000;
+        jar1.setLastModified(ts);
+        FileUtils.touch(classes, currentTime());
+
+        jar(jar1).from(classes)  //
+                 .mainClass("A.class")  //
+                 .withManifestAttribute("color", "red")  //
+                 .withServices(services)  //
+                 .reproducible(true)  //
+                 .execute();
+        assertEquals(ts, jar1.lastModified());
+
+        // Back-date the digest so the new file is newer even within the same clock tick
+        new File(basedir, "lib/testReproducible1.jar" + JarTask.DIGEST_EXT).setLastModified(ts);
+
+        // Change the contents, now it must be rebuilt
+        FileAssert.createFile(classes, "D.class", DATA);
+        jar(jar1).from(classes)  //
+                 .mainClass("A.class")  //
+                 .withManifestAttribute("color", "red")  //
+                 .withServices(services)  //
+                 .reproducible(true)  //
+                 .execute();
+        assertTrue(jar1.lastModified() > ts);
+        assertFalse("Jars must differ", FileUtils.equalsContent(jar1, jar2));
+    }
+
+    public void testIncludingJars()
+        throws IOException
+    {
+        // Create a library jar
+        final File libClasses = new File(basedir, "libClasses");
+        addFiles(libClasses, "lib/D.class", "A.class");
+
+        final File               libJar = new File(basedir, "lib/testLib.jar");
+        Map<String, Set<String>> libServices = new HashMap<String, Set<String>>();
+        libServices.put("service", new HashSet<String>(asList("libImpl")));
+        jar(libJar).from(libClasses).withServices(libServices).execute();
+
+        final Map<String, Set<String>> services = JarTask.readServices(libJar);
+        assertEquals("{service=[libImpl]}", services.toString());
+        services.get("service").add("impl1");
+
+        final File jarFile = new File(basedir, "lib/testFat.jar");
+
+        Map<String, DuplicateRule> rules = new HashMap<String, DuplicateRule>();
+        rules.put("*.class", DuplicateRule.FIRST);
+
+        jar(jarFile).from(classes)  //
+                    .withServices(services)  //
+                    .includingJars(asList(libJar))  //
+                    .withDuplicateRules(rules)  //
+                    .execute();
+
+        expectedContent.put("META-INF/", null);
+        expectedContent.put("META-INF/services/", null);
+        expectedContent.put("META-INF/services/service", null);
+        expectedContent.put("META-INF/MANIFEST.MF", null);
+        expectedContent.put("lib/", null);
+        expectedContent.put("lib/D.class", null);
+        expectedContent.put("A.class", null);
+        expectedContent.put("B.class", null);
+        expectedContent.put("C.class", null);
+
+        FileAssert.assertJarContent(jarFile, expectedContent);
+        assertEquals(new HashSet<String>(asList("libImpl", "impl1")),
+                     JarTask.readServices(jarFile).get("service"));
+
+        // Now fail on duplicates
+        rules.put("*.class", DuplicateRule.FAIL);
+        jarFile.delete();
+
+        boolean exceptionThrown = false;
+
+        try {
+            jar(jarFile).from(classes)  //
+                        .includingJars(asList(libJar))  //
+                        .withDuplicateRules(rules)  //
+                        .execute();
+        }
+        catch (BuildException e) {
+            exceptionThrown = true;
+        }
+
+        assertTrue(exceptionThrown);
+    }
+
     @Override protected void setUp()
         throws IOException
     {
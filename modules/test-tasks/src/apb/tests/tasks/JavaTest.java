@@ -25,6 +25,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import apb.Constants;
+
 import apb.tasks.FileSet;
 import apb.tasks.JavaTask;
 
@@ -130,6 +132,65 @@ public class JavaTest
         assertEquals(ts / 1000, f.lastModified() / 1000);
     }
 
+    public void testSharedArchive()
+        throws IOException
+    {
+        final File cds = new File(basedir, "cds");
+        env.putProperty(Constants.JAVA_CDS_STORE_PROPERTY, cds.getPath());
+
+        FileAssert.createFile(basedir, "src/Hello.java",
+                              "public class Hello {",
+                              "    public static void main(String[] args) { System.out.println(\"hello\"); }",
+                              "}");
+        javac("$basedir/src").to("$basedir/classes").execute();
+        jar("$basedir/hello.jar").from(FileSet.fromDir("$basedir/classes")).execute();
+
+        // The first run creates the archive, the second one uses it
+        final List<String> output = new ArrayList<String>();
+        java("Hello").withClassPath("$basedir/hello.jar").outputTo(output).execute();
+
+        final List<String> archives = archives(cds);
+        assertEquals(JavaTask.isClassSharingSupported() ? 1 : 0, archives.size());
+
+        final long created = archives.isEmpty() ? 0 : new File(cds, archives.get(0)).lastModified();
+
+        java("Hello").withClassPath("$basedir/hello.jar").outputTo(output).execute();
+        assertEquals(asList("hello", "hello"), output);
+        assertEquals(archives, archives(cds));
+
+        if (!archives.isEmpty()) {
+            assertEquals(created, new File(cds, archives.get(0)).lastModified());
+        }
+
+        // A changed jar replaces the archive
+        final File jar = new File(basedir, "hello.jar");
+        jar.setLastModified(jar.lastModified() - 10000);
+        java("Hello").withClassPath("$basedir/hello.jar").execute();
+
+        final List<String> newArchives = archives(cds);
+        assertEquals(archives.size(), newArchives.size());
+
+        if (!archives.isEmpty()) {
+            assertFalse(archives.equals(newArchives));
+        }
+    }
+
+    /**
+     * The archives in the directory, checking there are no partial ones left
+     */
+    private static List<String> archives(File dir)
+    {
+        final List<String> result = new ArrayList<String>();
+        final String[]     names = dir.list();
+
+        for (String name : names == null ? new String[0] : names) {
+            assertTrue(name.endsWith(".jsa"));
+            result.add(name);
+        }
+
+        return result;
+    }
+
     private static String makeClassName(String classFile)
     {
         return classFile.replace('/', '.');
@@ -0,0 +1,505 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.tasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import apb.testrunner.output.OutputBuffer;
+import apb.testrunner.output.OutputHandler;
+import apb.testrunner.output.ParallelTestsReport;
+import apb.testrunner.output.RecordingReport;
+import apb.testrunner.output.SimpleReport;
+import apb.testrunner.output.StreamingReport;
+import apb.testrunner.output.TestReport;
+import apb.testrunner.output.TestReportBroadcaster;
+import apb.testrunner.output.TimingsReport;
+import apb.testrunner.output.XmlTestReport;
+
+import apb.utils.FileUtils;
+import apb.utils.XmlUtils;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Tests for the test reports
+ */
+public class ReportTest
+    extends TaskTestCase
+{
+    //~ Methods ..............................................................................................
+
+    public void testConcurrentSuites()
+        throws Exception
+    {
+        final PrintStream out = System.out;
+
+        final TestReport report =
+            new SimpleReport.Builder(true).showOutput(true).to("report").build(env).init(basedir);
+        report.startRun(SUITES);
+
+        final Thread[] threads = new Thread[SUITES];
+
+        for (int i = 0; i < SUITES; i++) {
+            threads[i] = new Thread(new Suite("suite" + i, i % 2 == 1, report));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        report.stopRun();
+
+        assertSame(out, System.out);
+        assertEquals(SUITES, report.getSuitesRun());
+        assertEquals(SUITES / 2, report.getSuitesFailed());
+
+        final String content = read(new File(basedir, "report.txt"));
+
+        // The output of each suite follows its own header, before the next suite starts
+        for (int i = 0; i < SUITES; i++) {
+            final int header = content.indexOf("suite" + i + " ");
+            final int output = content.indexOf("Output from suite" + i + "\n");
+            assertTrue(header >= 0);
+            assertTrue(output > header);
+            assertEquals(-1, content.substring(header, output).indexOf("Suite ("));
+        }
+    }
+
+    public void testStreamedSuite()
+        throws Exception
+    {
+        final StringWriter    events = new StringWriter();
+        final StreamingReport sender = new StreamingReport(new PrintWriter(events, true));
+
+        sender.startSuite("streamed");
+        sender.startTest("test1");
+        System.out.println("Output\twith \\ special\r\ncharacters");
+        sender.endTest();
+        sender.startTest("test2");
+        sender.failure(new IOException("Multi\nline"));
+        sender.endTest();
+        sender.endSuite();
+
+        assertEquals(1, sender.getSuitesFailed());
+
+        final TestReport report =
+            new SimpleReport.Builder(true).showOutput(true).to("streamed").build(env).init(basedir);
+        report.startRun(1);
+
+        final StreamingReport.Receiver receiver = new StreamingReport.Receiver(report, false);
+
+        for (String line : events.toString().split("\n")) {
+            assertTrue(receiver.accept(line));
+        }
+
+        report.stopRun();
+
+        assertEquals(1, report.getSuitesRun());
+        assertEquals(1, report.getSuitesFailed());
+
+        final String content = read(new File(basedir, "streamed.txt"));
+
+        assertTrue(content.contains("Output\twith \\ special\r\ncharacters"));
+        assertTrue(content.contains("java.io.IOException: Multi\nline"));
+        assertTrue(content.contains("at apb.tests.tasks.ReportTest.testStreamedSuite"));
+    }
+
+    public void testStreamedOutput()
+    {
+        final StringWriter    events = new StringWriter();
+        final StreamingReport sender = new StreamingReport(new PrintWriter(events, true));
+
+        sender.startSuite("streamed");
+        sender.startTest("test1");
+        System.out.println("First test");
+        sender.endTest();
+
+        // The output of a test is sent when it ends, not with the suite
+        assertTrue(events.toString().contains("OFirst test\\n\n"));
+
+        sender.startTest("test2");
+        final StringBuilder line = new StringBuilder();
+
+        while (line.length() < LARGE_OUTPUT) {
+            line.append("Large output ");
+        }
+
+        System.err.print(line);
+
+        // A large output is sent before the test ends, in case it hangs
+        final String sent = events.toString();
+        assertTrue(sent.indexOf("RLarge output ") > sent.indexOf("Ttest2\n"));
+
+        sender.endTest();
+        sender.endSuite();
+
+        final String[] lines = events.toString().split("\n");
+        assertEquals("t", lines[lines.length - 2]);
+        assertEquals("E", lines[lines.length - 1]);
+    }
+
+    public void testXmlReport()
+    {
+        final TestReport report = new XmlTestReport.Builder().to("xml-").build(env).init(basedir);
+        report.startRun(1);
+        report.startSuite("pkg.XmlSuite");
+
+        for (int i = 0; i < SUITES; i++) {
+            report.startTest("test" + i);
+
+            if (i % 2 == 1) {
+                report.failure(new IllegalStateException("Failed <" + i + "> & \"quoted\"\n]]>"));
+            }
+
+            report.endTest();
+        }
+
+        report.endSuite();
+        report.stopRun();
+
+        final File    file = new File(basedir, "xml-pkg.XmlSuite.xml");
+        final Element suite = XmlUtils.readDocument(file).getDocumentElement();
+        assertEquals("pkg.XmlSuite", suite.getAttribute("name"));
+        assertEquals("pkg", suite.getAttribute("package"));
+        assertEquals(String.valueOf(SUITES / 2), suite.getAttribute("failures"));
+
+        final NodeList tests = suite.getElementsByTagName("testcase");
+        assertEquals(SUITES, tests.getLength());
+
+        final Element failed = (Element) tests.item(1);
+        assertEquals("test1", failed.getAttribute("name"));
+
+        final Element failure = (Element) failed.getElementsByTagName("failure").item(0);
+        assertEquals("Failed <1> & \"quoted\"\n]]>", failure.getAttribute("message"));
+        assertEquals(IllegalStateException.class.getName(), failure.getAttribute("type"));
+        assertTrue(failure.getTextContent().startsWith(IllegalStateException.class.getName()));
+        assertEquals(0, ((Element) tests.item(0)).getElementsByTagName("failure").getLength());
+    }
+
+    public void testXmlGolden()
+        throws IOException
+    {
+        final TestReport report =
+            new XmlTestReport.Builder().showOutput(true).to("golden-").build(env).init(basedir);
+        report.startRun(1);
+        report.startSuite("pkg.GoldenSuite");
+
+        report.startTest("test\u0001\ud83d\ude00");
+        report.endTest();
+
+        report.startTest("failed");
+        final IllegalStateException e = new IllegalStateException("Failed <\u0000> & \"\ufffe\"\t\n\udc00");
+        e.setStackTrace(new StackTraceElement[0]);
+        report.failure(e);
+        report.endTest();
+
+        report.endSuite();
+        report.stopRun();
+
+        // Characters XML does not allow are replaced, so the report can be parsed
+        final File file = new File(basedir, "golden-pkg.GoldenSuite.xml");
+        XmlUtils.readDocument(file);
+        assertEquals(normalize(dataFile("xml/golden-report.xml")), normalize(file));
+    }
+
+    public void testSpilledOutput()
+        throws IOException
+    {
+        final OutputBuffer buffer = new OutputBuffer(16);
+        final PrintStream  out = new PrintStream(buffer, true);
+        out.print("small");
+        assertFalse(buffer.isSpilled());
+        out.print(" output ]]> that does not fit in memory");
+        assertTrue(buffer.isSpilled());
+        assertEquals("small output ]]> that does not fit in memory", buffer.toString());
+        buffer.delete();
+        assertEquals("", buffer.toString());
+
+        // Closing the buffer deletes the temporary file
+        final List<String> before = spillFiles();
+        final OutputBuffer closed = new OutputBuffer(0);
+        closed.write(new byte[] { 1, 2, 3 });
+        assertEquals(before.size() + 1, spillFiles().size());
+        closed.close();
+        assertEquals(before, spillFiles());
+
+        OutputHandler.setMemoryLimit(16);
+
+        try {
+            final TestReport report =
+                new SimpleReport.Builder(true).showOutput(true).to("spilled").build(env).init(basedir);
+            report.startRun(1);
+            report.startSuite("pkg.OutputSuite");
+            report.startTest("test");
+
+            for (int i = 0; i < SUITES; i++) {
+                System.out.println("line " + i);
+            }
+
+            report.endTest();
+            report.endSuite();
+            report.stopRun();
+
+            final String content = read(new File(basedir, "spilled.txt"));
+
+            for (int i = 0; i < SUITES; i++) {
+                assertTrue(content.contains("line " + i + "\n"));
+            }
+        }
+        finally {
+            OutputHandler.setMemoryLimit(OutputHandler.DEFAULT_MEMORY_LIMIT);
+        }
+    }
+
+    public void testParallelTests()
+        throws Exception
+    {
+        final TestReport          xml = new XmlTestReport.Builder().to("parallel-").build(env).init(basedir);
+        final ParallelTestsReport report = new ParallelTestsReport(xml);
+        report.startRun(1);
+        report.startSuite("pkg.ParallelSuite");
+
+        final Thread[] threads = new Thread[SUITES];
+
+        for (int i = 0; i < SUITES; i++) {
+            final String test = "test" + i;
+            final boolean fail = i % 2 == 1;
+            threads[i] =
+                new Thread(new Runnable() {
+                        public void run()
+                        {
+                            report.startTest(test);
+                            Suite.sleep();
+                            assertEquals(test, report.getCurrentTest());
+
+                            // Like TestNG, a failed test does not end
+                            if (fail) {
+                                report.failure(new IllegalStateException(test));
+                            }
+                            else {
+                                report.endTest();
+                            }
+                        }
+                    });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        report.endSuite();
+        report.stopRun();
+
+        final Element  suite = XmlUtils.readDocument(new File(basedir, "parallel-pkg.ParallelSuite.xml"))
+                                       .getDocumentElement();
+        final NodeList tests = suite.getElementsByTagName("testcase");
+        assertEquals(SUITES, tests.getLength());
+        assertEquals(String.valueOf(SUITES / 2), suite.getAttribute("failures"));
+
+        // Each failure is reported in its own test
+        for (int i = 0; i < tests.getLength(); i++) {
+            final Element  test = (Element) tests.item(i);
+            final NodeList failures = test.getElementsByTagName("failure");
+            final int      n = Integer.parseInt(test.getAttribute("name").substring("test".length()));
+            assertEquals(n % 2, failures.getLength());
+
+            if (n % 2 == 1) {
+                assertEquals("test" + n, ((Element) failures.item(0)).getAttribute("message"));
+            }
+        }
+    }
+
+    public void testTimings()
+        throws IOException
+    {
+        final TestReport simple = new SimpleReport.Builder(true).to("timed").build(env);
+        final TestReport report =
+            new TestReportBroadcaster(Arrays.<TestReport>asList(simple, new TimingsReport())).init(basedir);
+        report.startRun(1);
+        report.startSuite("pkg.TimedSuite");
+
+        for (int i = 0; i < SUITES; i++) {
+            report.startTest("test" + i);
+            Suite.sleep();
+            report.endTest();
+        }
+
+        // Only the slowest tests are kept
+        for (int i = 0; i < FAST_TESTS; i++) {
+            report.startTest("fast" + i);
+            report.endTest();
+        }
+
+        report.endSuite();
+        report.stopRun();
+
+        final String json = read(new File(basedir, TimingsReport.TIMINGS_FILE));
+        assertTrue(json.contains("\"name\": \"pkg.TimedSuite\""));
+        assertTrue(json.contains("\"testsRun\": " + (SUITES + FAST_TESTS) + ","));
+        assertEquals(SLOWEST, json.split("\"suite\": ").length - 1);
+
+        for (int i = 0; i < SUITES; i++) {
+            assertTrue(json.contains("\"suite\": \"pkg.TimedSuite\", \"name\": \"test" + i + "\""));
+        }
+
+        final String content = read(new File(basedir, "timed.txt"));
+        assertTrue(content.contains("Slowest Tests"));
+        assertTrue(content.contains("pkg.TimedSuite.test0"));
+    }
+
+    /**
+     * The temporary files with spilled output
+     */
+    private static List<String> spillFiles()
+    {
+        final List<String> result = new ArrayList<String>();
+
+        for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+            if (name.startsWith("apb-output")) {
+                result.add(name);
+            }
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    private static String read(File file)
+        throws IOException
+    {
+        final FileInputStream is = new FileInputStream(file);
+
+        try {
+            return FileUtils.toString(is);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     * The bytes of a report, without the values that change on each run
+     */
+    private static String normalize(File file)
+        throws IOException
+    {
+        final Reader reader = new InputStreamReader(new FileInputStream(file), "ISO-8859-1");
+
+        try {
+            final StringWriter result = new StringWriter();
+            final char[]       buffer = new char[1024];
+            int                n;
+
+            while ((n = reader.read(buffer)) != -1) {
+                result.write(buffer, 0, n);
+            }
+
+            return result.toString().replace(System.getProperty("line.separator"), "\n")
+                         .replaceAll("(hostname|timestamp|time)=\"[^\"]*\"", "$1=\"\"");
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    //~ Static fields/initializers ...........................................................................
+
+    private static final int SUITES = 4;
+    private static final int FAST_TESTS = 20;
+
+    /** More output than the threshold to stream it before the end of the test */
+    private static final int LARGE_OUTPUT = 100000;
+
+    /** The number of slowest tests kept in the timings */
+    private static final int SLOWEST = 10;
+
+    //~ Inner Classes ........................................................................................
+
+    private static class Suite
+        implements Runnable
+    {
+        private final boolean    fail;
+        private final String     name;
+        private final TestReport report;
+
+        Suite(String name, boolean fail, TestReport report)
+        {
+            this.name = name;
+            this.fail = fail;
+            this.report = report;
+        }
+
+        public void run()
+        {
+            final RecordingReport recorder = new RecordingReport();
+            recorder.startCapture();
+
+            try {
+                recorder.startSuite(name);
+                recorder.startTest("test");
+                System.out.println("Output from " + name);
+                sleep();
+
+                if (fail) {
+                    recorder.failure(new IOException(name));
+                }
+
+                recorder.endTest();
+                recorder.endSuite();
+
+                synchronized (report) {
+                    recorder.replay(report);
+                }
+            }
+            finally {
+                recorder.stopCapture();
+            }
+        }
+
+        private static void sleep()
+        {
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -19,14 +19,19 @@
 package apb.tests.tasks;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import apb.tasks.FileSet;
 
+import apb.utils.FileUtils;
+
 import apb.tests.testutils.FileAssert;
 
+import static java.util.Arrays.asList;
+
 import static apb.tasks.CoreTasks.mkdir;
 import static apb.tasks.CoreTasks.war;
 
@@ -61,6 +66,54 @@ public class WarTest
         verifyJar(jarName);
     }
 
+    public void testNotExploded()
+        throws IOException
+    {
+        final String jarName = "lib/testNotExploded.war";
+
+        war("$basedir/" + jarName).from(FileSet.fromDir(webapp))  //
+                                  .usingBuildDirectory("war-tmp")  //
+                                  .exploded(false)  //
+                                  .includeClasses(FileSet.fromDir(classes))
+                                  .includeJars(new File(datadir, "commons-util-final.jar")).execute();
+
+        verifyJar(jarName);
+        FileAssert.assertDoesNotExist(new File(basedir, "war-tmp"));
+    }
+
+    public void testSync()
+        throws IOException
+    {
+        final String jarName = "lib/testSync.war";
+        final File   buildDir = new File(basedir, "war-tmp");
+        final File   changes = new File(basedir, "war-tmp.changes");
+
+        sync(jarName);
+        verifyJar(jarName);
+        assertEquals(expectedFiles.length - 5, readLines(changes).length);
+
+        // Files not copied by the synchronization are kept
+        FileAssert.createFile(buildDir, "extra.html", "EXTRA");
+
+        // Nothing changed
+        sync(jarName);
+        assertEquals(0, changes.length());
+        assertTrue(new File(buildDir, "extra.html").exists());
+
+        // Modify a file, add a new one and remove another
+        final File jsp = new File(webapp, "org/test/a.jsp");
+        FileAssert.createFile(webapp, "org/test/a.jsp", "MODIFIED");
+        jsp.setLastModified(currentTime() + 2000);
+        addFiles(webapp, "b.html");
+        new File(webapp, "index.html").delete();
+
+        sync(jarName);
+        FileAssert.assertSame(asList("A b.html", "D index.html", "M org/test/a.jsp"),
+                              asList(readLines(changes)));
+        FileAssert.assertDoesNotExist(new File(buildDir, "index.html"));
+        FileAssert.assertFileEquals(jsp, new File(buildDir, "org/test/a.jsp"));
+    }
+
     @Override protected void setUp()
         throws IOException
     {
@@ -78,6 +131,28 @@ public class WarTest
         addWebXml(new File(webapp, "WEB-INF"));
     }
 
+    private static String[] readLines(File file)
+        throws IOException
+    {
+        final FileInputStream is = new FileInputStream(file);
+
+        try {
+            return FileUtils.toString(is).split("\n");
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    private void sync(String jarName)
+    {
+        war("$basedir/" + jarName).from(FileSet.fromDir(webapp))  //
+                                  .usingBuildDirectory("war-tmp")  //
+                                  .sync(true)  //
+                                  .includeClasses(FileSet.fromDir(classes))
+                                  .includeJars(new File(datadir, "commons-util-final.jar")).execute();
+    }
+
     private void verifyJar(String jarName)
         throws IOException
     {
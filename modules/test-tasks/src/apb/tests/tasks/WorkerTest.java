@@ -0,0 +1,202 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import apb.tasks.JavaTask;
+
+import apb.testrunner.TestWorker;
+import apb.testrunner.output.RecordingReport;
+import apb.testrunner.output.StreamingReport;
+
+import apb.tests.testutils.FileAssert;
+
+import static apb.tasks.CoreTasks.jar;
+import static apb.tasks.CoreTasks.java;
+import static apb.tasks.CoreTasks.javac;
+
+public class WorkerTest
+    extends TaskTestCase
+{
+    //~ Instance fields ......................................................................................
+
+    private StreamingReport.Receiver receiver;
+    private ServerSocket             server;
+
+    //~ Methods ..............................................................................................
+
+    public void testRun()
+        throws IOException
+    {
+        final TestWorker worker = TestWorker.start(worker(), server, 0);
+
+        // The fake worker answers with the length of the suite name
+        assertEquals(3, worker.run("Foo", receiver));
+        assertEquals(5, worker.run("Hello", receiver));
+        assertEquals(2, worker.getSuitesRun());
+
+        worker.stop();
+    }
+
+    public void testCrash()
+        throws IOException
+    {
+        final TestWorker worker = TestWorker.start(worker(), server, 0);
+        assertEquals(3, worker.run("Foo", receiver));
+
+        try {
+            worker.run("Crash", receiver);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exit code 3"));
+        }
+
+        // The failure was already reported
+        worker.stop();
+    }
+
+    public void testTimeout()
+        throws IOException
+    {
+        final TestWorker worker = TestWorker.start(worker(), server, 1);
+        assertEquals(3, worker.run("Foo", receiver));
+
+        try {
+            worker.run("Hang", receiver);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("did not answer in 1 seconds"));
+        }
+
+        worker.stop();
+    }
+
+    /**
+     * The suites of a real worker resolve classes and resources in the order of the class path,
+     * and the libraries see the test classes
+     */
+    public void testClassPathOrder()
+        throws IOException
+    {
+        final File apbJar = env.fileFromBase("$apb-jar");
+        final File junitJar = new File(apbJar.getParentFile(), "junit-4.7.jar");
+
+        FileAssert.createFile(basedir, "lib/src/Finder.java",
+                              "public class Finder {",
+                              "    public static Class<?> find(String name) throws Exception {",
+                              "        return Class.forName(name);",
+                              "    }",
+                              "}");
+        FileAssert.createFile(basedir, "lib/classes/data.txt", "library");
+        javac("$basedir/lib/src").to("$basedir/lib/classes").execute();
+        jar("$basedir/lib.jar").from(new File(basedir, "lib/classes")).execute();
+
+        FileAssert.createFile(basedir, "tests/src/ResourceTest.java",
+                              "import java.io.*;",
+                              "public class ResourceTest extends junit.framework.TestCase {",
+                              "    public void testResource() throws IOException {",
+                              "        InputStream is = getClass().getResourceAsStream(\"/data.txt\");",
+                              "        BufferedReader r = new BufferedReader(new InputStreamReader(is));",
+                              "        assertEquals(\"tests\", r.readLine());",
+                              "    }",
+                              "    public void testFind() throws Exception {",
+                              "        assertSame(getClass(), Finder.find(\"ResourceTest\"));",
+                              "    }",
+                              "}");
+        FileAssert.createFile(basedir, "tests/classes/data.txt", "tests");
+        javac("$basedir/tests/src").to("$basedir/tests/classes")
+                                   .withClassPath(junitJar.getPath(), "$basedir/lib.jar").execute();
+
+        // The test classes go before the library in the class path
+        final File            tests = new File(basedir, "tests/classes");
+        final String          path =
+            tests.getAbsolutePath() + File.pathSeparator + new File(basedir, "lib.jar").getAbsolutePath();
+        final RecordingReport report = new RecordingReport();
+        final JavaTask        java =
+            java("apb.testrunner.Main", "--worker", String.valueOf(server.getLocalPort()), "-c", path,
+                 "--creator", "apb.testrunner.JunitTestSetCreator", tests.getAbsolutePath())  //
+            .withClassPath(apbJar.getPath(), junitJar.getPath());
+        final TestWorker      worker = TestWorker.start(java, server, 0);
+
+        assertEquals(0, worker.run("ResourceTest", new StreamingReport.Receiver(report, false)));
+        assertEquals(1, report.getSuitesRun());
+        assertEquals(0, report.getSuitesFailed());
+
+        worker.stop();
+    }
+
+    public void testNoStart()
+        throws IOException
+    {
+        try {
+            TestWorker.start(java("Missing").withClassPath("$basedir/classes"), server, 0);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exit code 1"));
+        }
+    }
+
+    @Override protected void setUp()
+        throws IOException
+    {
+        super.setUp();
+        FileAssert.createFile(basedir, "src/Worker.java",
+                              "import java.io.*;",
+                              "import java.net.*;",
+                              "public class Worker {",
+                              "    public static void main(String[] args) throws IOException {",
+                              "        Socket s = new Socket((String) null, Integer.parseInt(args[0]));",
+                              "        InputStream is = s.getInputStream();",
+                              "        BufferedReader in = new BufferedReader(new InputStreamReader(is));",
+                              "        PrintWriter out = new PrintWriter(s.getOutputStream(), true);",
+                              "        String suite;",
+                              "        while ((suite = in.readLine()) != null) {",
+                              "            if (suite.equals(\"Crash\")) System.exit(3);",
+                              "            if (suite.equals(\"Hang\")) sleep(3000);",
+                              "            out.println(\"=\" + suite.length());",
+                              "        }",
+                              "    }",
+                              "    static void sleep(long millis) {",
+                              "        try { Thread.sleep(millis); } catch (InterruptedException e) {}",
+                              "    }",
+                              "}");
+        javac("$basedir/src").to("$basedir/classes").execute();
+
+        server = new ServerSocket(0, 1, InetAddress.getByName(null));
+        receiver = new StreamingReport.Receiver(new RecordingReport(), false);
+    }
+
+    @Override protected void tearDown()
+        throws IOException
+    {
+        server.close();
+    }
+
+    private JavaTask worker()
+    {
+        return java("Worker", String.valueOf(server.getLocalPort())).withClassPath("$basedir/classes");
+    }
+}
@@ -0,0 +1,78 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.utils;
+
+import apb.testrunner.JunitTestSetCreator;
+import apb.testrunner.TestSetCreator;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Check that test classes are found reading their class files
+ */
+public class DiscoveryTest
+    extends TestCase
+{
+    //~ Instance fields ......................................................................................
+
+    private TestSetCreator.Discovery discovery;
+
+    //~ Methods ..............................................................................................
+
+    public void testJUnit()
+    {
+        // JUnit 4 tests and suites
+        assertTrue(isTest("apb.tests.tasks.JUnit4TestCase"));
+        assertTrue(isTest("apb.tests.tasks.JUnit4TestSuite"));
+
+        // JUnit 3 tests, directly or through an abstract base class
+        assertTrue(isTest(getClass().getName()));
+        assertTrue(isTest("apb.tests.tasks.ReportTest"));
+        assertTrue(isTest(SuiteHolder.class.getName()));
+
+        assertFalse(isTest("apb.tests.tasks.TaskTestCase"));
+        assertFalse(isTest("apb.tests.testutils.FileAssert"));
+        assertFalse(isTest(Runnable.class.getName()));
+
+        // When it cannot be known the class is loaded and checked
+        assertTrue(isTest("apb.tests.utils.Missing"));
+    }
+
+    @Override protected void setUp()
+    {
+        discovery = new JunitTestSetCreator();
+    }
+
+    private boolean isTest(String className)
+    {
+        return discovery.isTestClass(className, getClass().getClassLoader());
+    }
+
+    //~ Inner Classes ........................................................................................
+
+    public static class SuiteHolder
+    {
+        public static Test suite()
+        {
+            return new TestSuite();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import apb.testrunner.TestHistory;
+
+import junit.framework.TestCase;
+
+import static java.util.Arrays.asList;
+
+public class HistoryTest
+    extends TestCase
+{
+    //~ Instance fields ......................................................................................
+
+    private File file;
+
+    //~ Methods ..............................................................................................
+
+    public void testSplit()
+    {
+        final TestHistory history = new TestHistory(file);
+        history.record("A", 800, false);
+        history.record("B", 400, false);
+        history.record("C", 300, false);
+        history.record("D", 200, false);
+        history.record("E", 100, false);
+
+        final List<List<String>> shards = history.split(asList("A", "B", "C", "D", "E"), 2);
+        assertEquals(2, shards.size());
+        assertEquals(asList("A", "E"), shards.get(0));
+        assertEquals(asList("B", "C", "D"), shards.get(1));
+
+        // Never more shards than suites
+        assertEquals(2, history.split(asList("A", "B"), 4).size());
+        assertTrue(history.split(asList(new String[0]), 4).isEmpty());
+    }
+
+    public void testUnknown()
+    {
+        final TestHistory history = new TestHistory(file);
+        history.record("A", 100, false);
+        history.record("B", 300, false);
+
+        // Unknown suites take the average duration
+        final List<List<String>> shards = history.split(asList("A", "B", "X", "Y"), 2);
+        assertEquals(asList("B", "A"), shards.get(0));
+        assertEquals(asList("X", "Y"), shards.get(1));
+
+        // Without history suites are spread by count
+        final TestHistory        empty = new TestHistory(new File(file.getPath() + ".none"));
+        final List<List<String>> even = empty.split(asList("A", "B", "C", "D"), 2);
+        assertEquals(asList("A", "C"), even.get(0));
+        assertEquals(asList("B", "D"), even.get(1));
+    }
+
+    public void testOrder()
+    {
+        final TestHistory history = new TestHistory(file);
+        history.record("A", 100, false);
+        history.record("B", 300, false);
+        history.record("C", 50, true);
+        history.record("D", 200, true);
+
+        // Failed suites first, then the slowest ones
+        assertEquals(asList("D", "C", "B", "X", "A"), history.order(asList("A", "B", "C", "D", "X")));
+
+        // A suite that succeeds is no longer run first
+        history.record("D", 200, false);
+        assertEquals(asList("C", "B", "D", "X", "A"), history.order(asList("A", "B", "C", "D", "X")));
+    }
+
+    public void testSave()
+    {
+        TestHistory history = new TestHistory(file);
+        history.record("A", 100, false);
+        history.record("B", 200, true);
+        history.save();
+
+        history = new TestHistory(file);
+        assertEquals(100, history.duration("A"));
+        assertFalse(history.failed("A"));
+        assertEquals(200, history.duration("B"));
+        assertTrue(history.failed("B"));
+        assertEquals(-1, history.duration("X"));
+        assertFalse(history.failed("X"));
+    }
+
+    @Override protected void setUp()
+        throws IOException
+    {
+        file = File.createTempFile("history", null);
+        file.delete();
+    }
+
+    @Override protected void tearDown()
+    {
+        file.delete();
+    }
+}
@@ -0,0 +1,117 @@
+
+
+// Copyright 2008-2009 Emilio Lopez-Gabeiras
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License
+//
+
+
+package apb.tests.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import apb.Apb;
+
+import apb.testrunner.TestImpact;
+
+import apb.tests.testutils.FileAssert;
+
+import junit.framework.TestCase;
+
+import static java.util.Arrays.asList;
+
+import static apb.tasks.CoreTasks.delete;
+
+public class ImpactTest
+    extends TestCase
+{
+    //~ Instance fields ......................................................................................
+
+    private File basedir;
+    private File classes;
+    private File library;
+
+    //~ Methods ..............................................................................................
+
+    public void testAffected()
+        throws IOException
+    {
+        final List<String> suites = asList("a.ATest", "a.BTest", "a.CTest");
+        final TestImpact   impact = new TestImpact(new File(basedir, "impact"));
+        final List<File>   cp = asList(classes, library);
+
+        // Without a previous snapshot all suites are affected
+        assertEquals(suites, impact.affected(suites, TestImpact.snapshot(cp)));
+        impact.save(TestImpact.snapshot(cp));
+        impact.record("a.ATest", asList("a.ATest", "a.A"));
+        impact.record("a.BTest", asList("a.BTest", "a.B"));
+
+        // Nothing changed, only the suite without record runs
+        assertEquals(asList("a.CTest"), impact.affected(suites, TestImpact.snapshot(cp)));
+
+        touch(new File(classes, "a/B.class"));
+        assertEquals(asList("a.BTest", "a.CTest"), impact.affected(suites, TestImpact.snapshot(cp)));
+
+        // Deleted classes are changes too
+        new File(classes, "a/A.class").delete();
+        assertEquals(suites, impact.affected(suites, TestImpact.snapshot(cp)));
+
+        impact.save(TestImpact.snapshot(cp));
+        impact.record("a.CTest", Collections.singletonList("a.CTest"));
+        assertTrue(impact.affected(suites, TestImpact.snapshot(cp)).isEmpty());
+
+        // A failed suite is forgotten, so it runs again
+        impact.forget("a.ATest");
+        assertEquals(asList("a.ATest"), impact.affected(suites, TestImpact.snapshot(cp)));
+        impact.record("a.ATest", Collections.singletonList("a.ATest"));
+
+        // A changed library affects all suites
+        touch(library);
+        final Map<String, Long> snapshot = TestImpact.snapshot(cp);
+        assertEquals(suites, impact.affected(suites, snapshot));
+    }
+
+    @Override protected void setUp()
+        throws IOException
+    {
+        // The tasks used to delete the directory need an environment
+        Apb.createBaseEnvironment();
+        basedir = new File("tmp");
+
+        if (basedir.exists()) {
+            delete(basedir).execute();
+        }
+
+        classes = new File(basedir, "classes");
+        library = new File(basedir, "lib.jar");
+        FileAssert.createFile(basedir, library.getName(), "jar");
+
+        for (String name : asList("A", "B", "ATest", "BTest", "CTest")) {
+            FileAssert.createFile(classes, "a/" + name + ".class", name);
+        }
+    }
+
+    @Override protected void tearDown()
+    {
+        delete(basedir).execute();
+    }
+
+    private static void touch(File file)
+    {
+        file.setLastModified(file.lastModified() + 2000);
+    }
+}
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 import apb.Apb;
+import apb.Constants;
 import apb.Environment;
 
 import apb.utils.ClassUtils;
@@ -95,6 +96,8 @@ public class OptionParserTest
         ClassUtils.invoke(op, "initEnv", env);
 
         assertEquals(true, env.isVerbose());
+        assertTrue(env.getBooleanProperty(Constants.ARTIFACTS_OFFLINE_PROPERTY, false));
+        assertTrue(env.getBooleanProperty(Constants.TESTS_ALL_PROPERTY, false));
         Map<String, String> ps = (Map<String, String>) ClassUtils.invoke(op, "definedProperties");
         assertEquals("v1", ps.get("prop1"));
         assertEquals("true", ps.get("bprop"));
@@ -127,7 +130,7 @@ public class OptionParserTest
     //~ Static fields/initializers ...........................................................................
 
     private static final List<String> APB_ARGS =
-        asList("-s", "-Dprop1=v1", "-Dbprop", "-v", "--debug", "properties", "X.y");
+        asList("-s", "-Dprop1=v1", "-Dbprop", "-v", "-o", "-a", "--debug", "properties", "X.y");
 
     private static final String[] AD_HOC_HELP = {
             "test [options]  ",  //
@@ -156,6 +159,8 @@ public class OptionParserTest
             "    -c, --continue             : Continue after error.",
             "    -f, --force-build          : Force build (Do not check timestamps).",
             "    -n, --non-recursive        : Do not recurse over module dependencies.",
+            "    -o, --offline              : Work offline, resolve artifacts only from the local cache.",
+            "    -a, --all-tests            : Run all tests, not only the ones affected by changes.",
             "    -D, --define <name>=<value>: Define a property.",
             "    -t, --track-execution      : Track execution statistics.",
             "    -d, --debug <info type>    : What to show when doing verbose output. [all|dependencies|properties|task_info|track]",
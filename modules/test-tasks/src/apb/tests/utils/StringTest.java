@@ -19,8 +19,11 @@
 package apb.tests.utils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import apb.utils.ColorUtils;
+import apb.utils.Filter;
 import apb.utils.StringUtils;
 
 import junit.framework.TestCase;
@@ -70,6 +73,24 @@ public class StringTest
         assertTrue(StringUtils.isNotEmpty(STRING1));
     }
 
+    public void testCombinedFilters()
+    {
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(Filter.Factory.replaceAll("a+", "b"));
+        filters.add(Filter.Factory.replaceAll("b(c)", "$1d"));
+
+        Filter filter = Filter.Factory.combine(filters);
+        assertEquals("xyz", filter.filter("xyz"));
+        assertEquals("cd", filter.filter("aac"));
+        assertEquals("cd-b", filter.filter("bc-a"));
+
+        // Back references are not combined, but filters still work
+        filters.add(Filter.Factory.replaceAll("(x)\\1", "y"));
+        filter = Filter.Factory.combine(filters);
+        assertEquals("yx", filter.filter("xxx"));
+        assertEquals("cd", filter.filter("ac"));
+    }
+
     public void testMatch()
         throws IOException
     {